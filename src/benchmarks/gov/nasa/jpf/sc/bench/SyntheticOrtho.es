@@ -0,0 +1,6 @@
+// scripted benchmark run for SyntheticOrtho
+
+REPEAT 64 {
+  fwd
+  ANY { skip, back }
+}
@@ -0,0 +1,75 @@
+//
+// Copyright  (C) 2007 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+package gov.nasa.jpf.sc.bench;
+
+import gov.nasa.jpf.sc.State;
+
+/**
+ * synthetic benchmark chart: R orthogonal regions of N states each. Every
+ * event is handled in all regions, 'back' is only handled by the regions
+ * themselves (i.e. it needs the superState lookup), and 'skip' is only
+ * handled by every other state, so we also get steps with unfired regions
+ */
+public class SyntheticOrtho extends State {
+
+  public static final int R = 4;
+  public static final int N = 8;
+
+  public class Region extends State {
+
+    public class Node extends State {
+      @NoSubState Node next;
+      int idx;
+
+      public void fwd () {
+        setNextState(next);
+      }
+
+      public void skip () {
+        if ((idx & 1) == 0) {
+          setNextState(next.next);
+        }
+      }
+    }
+
+    final Node[] nodes = new Node[N];
+    {
+      for (int i=0; i<N; i++) {
+        nodes[i] = new Node();
+        nodes[i].idx = i;
+      }
+      for (int i=0; i<N; i++) {
+        nodes[i].next = nodes[(i+1) % N];
+      }
+      makeInitial(nodes[0]);
+    }
+
+    public void back () {
+      setNextState(nodes[0]);
+    }
+  }
+
+  final Region[] regions = new Region[R];
+  {
+    for (int i=0; i<R; i++) {
+      regions[i] = makeInitial(new Region());
+    }
+  }
+}
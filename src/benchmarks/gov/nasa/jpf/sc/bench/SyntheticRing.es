@@ -0,0 +1,6 @@
+// scripted benchmark run for SyntheticRing
+
+REPEAT 64 {
+  fwd
+  ANY { fwd, back, stay }
+}
@@ -0,0 +1,61 @@
+//
+// Copyright  (C) 2007 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+package gov.nasa.jpf.sc.bench;
+
+import gov.nasa.jpf.sc.State;
+
+/**
+ * synthetic benchmark chart: a flat ring of N states. Every state handles
+ * the same small alphabet, so scriptless runs never end and each step fires
+ * exactly one transition
+ */
+public class SyntheticRing extends State {
+
+  public static final int N = 32;
+
+  public class Node extends State {
+    @NoSubState Node next;
+    @NoSubState Node prev;
+
+    public void fwd () {
+      setNextState(next);
+    }
+
+    public void back () {
+      setNextState(prev);
+    }
+
+    public void stay () {
+      setNextState(this);
+    }
+  }
+
+  final Node[] nodes = new Node[N];
+  {
+    for (int i=0; i<N; i++) {
+      nodes[i] = new Node();
+    }
+    for (int i=0; i<N; i++) {
+      nodes[i].next = nodes[(i+1) % N];
+      nodes[i].prev = nodes[(i+N-1) % N];
+    }
+    makeInitial(nodes[0]);
+  }
+}
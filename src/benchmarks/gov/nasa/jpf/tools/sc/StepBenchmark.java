@@ -0,0 +1,221 @@
+//
+// Copyright  (C) 2007 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+package gov.nasa.jpf.tools.sc;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.JPF;
+import gov.nasa.jpf.jvm.choice.sc.SCScriptEnvironment;
+import gov.nasa.jpf.sc.MachineSnapshot;
+
+/**
+ * JMH benchmark for StateMachine.step() as driven by SimStateMachine, i.e.
+ * event selection, trigger execution and transitions, without JPF.
+ *
+ * one benchmark op is one step, so 'thrpt' gives steps/sec, 'avgt' ns/step,
+ * and '-prof gc' (gc.alloc.rate.norm) allocation per step. If a run ends,
+ * we restore the initial configuration (and re-read the script), which
+ * counts toward the op. The 'restarts' counter shows how often that happens
+ *
+ * run with 'ant run-benchmarks', or directly:
+ *   java -cp <classpath> org.openjdk.jmh.Main StepBenchmark -prof gc
+ * chart scripts are resolved relative to 'sc.bench.basedir' (default ".")
+ *
+ * '-p chart=Generated' runs a ChartGenerator chart, shaped by 'sc.gen.*'
+ * system properties (e.g. -Dsc.gen.depth=4 -Dsc.gen.regions=2), which is
+ * compiled in memory and scripted from a generated .es in a temp dir
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StepBenchmark {
+
+  /**
+   * chart, master state class and script
+   */
+  static final String[][] CHARTS = {
+    { "FixedPhone",     "FixedPhone",                     "src/examples/FixedPhone.es" },
+    { "Ortho1",         "Ortho1",                         "src/examples/Ortho1.es" },
+    { "SendEvents2",    "SendEvents2",                    "src/examples/SendEvents2.es" },
+    { "CEV_15EOR_LOR",  "jpfESAS.CEV_15EOR_LOR",          "src/examples/jpfESAS/CEV_15EOR_LOR-nominal.es" },
+    { "SyntheticRing",  "gov.nasa.jpf.sc.bench.SyntheticRing",  "src/benchmarks/gov/nasa/jpf/sc/bench/SyntheticRing.es" },
+    { "SyntheticOrtho", "gov.nasa.jpf.sc.bench.SyntheticOrtho", "src/benchmarks/gov/nasa/jpf/sc/bench/SyntheticOrtho.es" }
+  };
+
+  @Param({"FixedPhone", "Ortho1", "SendEvents2", "CEV_15EOR_LOR", "SyntheticRing", "SyntheticOrtho"})
+  public String chart;
+
+  @Param({"scripted", "scriptless"})
+  public String mode;
+
+  // scriptless runs of cyclic charts don't end by themselves
+  @Param({"10000"})
+  public int maxSteps;
+
+  /**
+   * exposes the protected driver methods, and lets us reset the script
+   */
+  static class BenchMachine extends SimStateMachine {
+    String scriptFile;
+
+    BenchMachine (Config conf, String scriptFile) {
+      super(conf);
+      this.scriptFile = scriptFile;
+      runInteractive = false; // scriptless would otherwise ask for input
+    }
+
+    void init () {
+      initialize();
+    }
+
+    boolean nextStep () {
+      return step();
+    }
+
+    // some example charts have deliberate defects that scriptless runs find,
+    // we just treat them as the end of the run
+    protected void executionError (Throwable t) {
+      throw new RunFailed(t);
+    }
+
+    void resetScript () throws Exception {
+      if (scriptFile != null) {
+        scriptEnv = new SCScriptEnvironment(scriptFile);
+        scriptEnv.parseScript();
+      }
+    }
+  }
+
+  static class RunFailed extends RuntimeException {
+    RunFailed (Throwable cause) {
+      super(cause);
+    }
+  }
+
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  @State(Scope.Thread)
+  public static class Restarts {
+    public long restarts;
+
+    @Setup(Level.Iteration)
+    public void clean () {
+      restarts = 0;
+    }
+  }
+
+  BenchMachine machine;
+  MachineSnapshot initial;
+
+  @Setup(Level.Trial)
+  public void setup () throws Exception {
+    String[] spec = null;
+    for (String[] c : CHARTS) {
+      if (c[0].equals(chart)) {
+        spec = c;
+      }
+    }
+    if (spec == null && "Generated".equals(chart)) {
+      spec = generateChart();
+    }
+    if (spec == null) {
+      throw new IllegalArgumentException("unknown benchmark chart: " + chart);
+    }
+
+    String scriptFile = null;
+    if ("scripted".equals(mode)) {
+      File f = new File(spec[2]);
+      if (!f.isAbsolute()) {
+        f = new File(System.getProperty("sc.bench.basedir", "."), spec[2]);
+      }
+      scriptFile = f.getPath();
+    }
+
+    ArrayList<String> args = new ArrayList<String>();
+    args.add("+target.args=" + spec[1]);
+    args.add("+sc.log_level=off");
+    args.add("+sc.sim_mode=random");
+    args.add("+sc.max_steps=" + maxSteps);
+    args.add("+sc.history=0"); // restarts would dump it inside the measurement
+    if (scriptFile != null) {
+      args.add("+sc.script=" + scriptFile);
+    }
+    Config conf = JPF.createConfig(args.toArray(new String[args.size()]));
+
+    machine = new BenchMachine(conf, scriptFile);
+    machine.init();
+    initial = machine.snapshot();
+  }
+
+  String[] generateChart () throws Exception {
+    ArrayList<String> args = new ArrayList<String>();
+    for (String key : System.getProperties().stringPropertyNames()) {
+      if (key.startsWith("sc.gen.")) {
+        args.add("+" + key + '=' + System.getProperty(key));
+      }
+    }
+    ChartGenerator gen = new ChartGenerator(JPF.createConfig(args.toArray(new String[args.size()])));
+
+    File dir = File.createTempFile("sc-gen", "");
+    dir.delete();
+    File src = gen.writeTo(dir);
+    Class<?> cls = gen.compile();
+    Thread.currentThread().setContextClassLoader(cls.getClassLoader());
+
+    String es = src.getPath();
+    es = new File(es.substring(0, es.length() - 5) + ".es").getAbsolutePath();
+    return new String[] { chart, gen.getClassName(), es };
+  }
+
+  @Benchmark
+  public boolean step (Restarts r) throws Exception {
+    try {
+      if (machine.nextStep()) {
+        return true;
+      }
+    } catch (RunFailed x) {
+      // restart
+    }
+
+    r.restarts++;
+    machine.restore(initial);
+    machine.resetScript();
+    return false;
+  }
+}
@@ -40,9 +40,28 @@ public class EventSpec {
   public static final int PRIO_NORM = 5;
   public static final int PRIO_MIN = 0;
 
+  // slot types of primitive payloads
+  public static final char INT_SLOT = 'I';
+  public static final char BOOLEAN_SLOT = 'Z';
+  public static final char DOUBLE_SLOT = 'D';
+
   String name;
   Object[] args;
 
+  // primitive payloads are stored inline, so that primitive sends don't have
+  // to create and box argument arrays. 'slotTypes' is a (constant) String of
+  // INT_SLOT,BOOLEAN_SLOT,DOUBLE_SLOT chars, the values are stored as long bits.
+  // If this is set, 'args' is null
+  String slotTypes;
+  long v0, v1, v2;
+
+  // the boxed values of the slots, created on demand (for reflection)
+  @FilterField Object[] boxedSlots;
+
+  // System.nanoTime() of the last time this was queued, only set if the
+  // machine is 'timed' (for pending event ages)
+  @FilterField long queueTime;
+
   @FilterField int priority; // optional, we only need this for queue sorting
 
   EventSpec next;
@@ -69,15 +88,28 @@ public class EventSpec {
     this.next = next;
   }
 
+  public EventSpec (String name, String slotTypes, long v0, long v1, long v2, int priority, EventSpec next){
+    this.name = name;
+    this.slotTypes = slotTypes;
+    this.v0 = v0;
+    this.v1 = v1;
+    this.v2 = v2;
+    this.priority = priority;
+    this.next = next;
+  }
+
   public String toString() {
     StringBuilder sb = new StringBuilder();
     sb.append(name);
     sb.append('(');
-    for (int i=0; i<args.length; i++){
-      if (i>0){
-        sb.append(',');
+    Object[] a = getArgs();
+    if (a != null){
+      for (int i=0; i<a.length; i++){
+        if (i>0){
+          sb.append(',');
+        }
+        sb.append(a[i]);
       }
-      sb.append(args[i]);
     }
     sb.append(')');
 
@@ -93,6 +125,8 @@ public class EventSpec {
 
     if (priority != prio) return false;
 
+    if (slotTypes != null) return false;
+
     if ((a != null) && (args != null)){
       if (a.length != args.length) return false;
 
@@ -106,14 +140,98 @@ public class EventSpec {
     return true;
   }
 
+  /**
+   * the primitive payload version, which doesn't need any boxed values
+   */
+  public boolean equals (String n, String types, long a0, long a1, long a2, int prio){
+    if (!name.equals(n)) return false;
+
+    if (priority != prio) return false;
+
+    if (slotTypes == null || !slotTypes.equals(types)) return false;
+
+    return (v0 == a0) && (v1 == a1) && (v2 == a2);
+  }
+
   public String getName() {
     return name;
   }
 
+  /**
+   * this boxes primitive payloads, but only once per EventSpec. Since
+   * processed EventSpecs are recycled by the PendingEventQueue, repeated sends
+   * of the same values don't allocate anything
+   */
   public Object[] getArgs() {
+    if (slotTypes != null) {
+      if (boxedSlots == null) {
+        int n = slotTypes.length();
+        Object[] a = new Object[n];
+        for (int i=0; i<n; i++) {
+          a[i] = boxSlot(slotTypes.charAt(i), getSlotValue(i));
+        }
+        boxedSlots = a;
+      }
+      return boxedSlots;
+    }
+
     return args;
   }
 
+  public boolean hasSlots() {
+    return (slotTypes != null);
+  }
+
+  public String getSlotTypes() {
+    return slotTypes;
+  }
+
+  public int getNumberOfSlots() {
+    return (slotTypes != null) ? slotTypes.length() : 0;
+  }
+
+  public long getSlotValue (int i) {
+    switch (i) {
+    case 0: return v0;
+    case 1: return v1;
+    case 2: return v2;
+    default:
+      throw new IndexOutOfBoundsException("no event slot: " + i);
+    }
+  }
+
+  public int getIntSlot (int i) {
+    return (int)getSlotValue(i);
+  }
+
+  public boolean getBooleanSlot (int i) {
+    return getSlotValue(i) != 0;
+  }
+
+  public double getDoubleSlot (int i) {
+    return Double.longBitsToDouble(getSlotValue(i));
+  }
+
+  public static Object boxSlot (char type, long v) {
+    switch (type) {
+    case INT_SLOT:     return Integer.valueOf((int)v);
+    case BOOLEAN_SLOT: return Boolean.valueOf(v != 0);
+    case DOUBLE_SLOT:  return Double.valueOf(Double.longBitsToDouble(v));
+    default:
+      throw new IllegalArgumentException("unknown event slot type: " + type);
+    }
+  }
+
+  public static String slotToString (char type, long v) {
+    switch (type) {
+    case INT_SLOT:     return Integer.toString((int)v);
+    case BOOLEAN_SLOT: return (v != 0) ? "true" : "false";
+    case DOUBLE_SLOT:  return Double.toString(Double.longBitsToDouble(v));
+    default:
+      throw new IllegalArgumentException("unknown event slot type: " + type);
+    }
+  }
+
   public int getPriority() {
     return priority;
   }
@@ -122,6 +240,10 @@ public class EventSpec {
     this.priority = priority;
   }
 
+  public long getQueueTime() {
+    return queueTime;
+  }
+
   public void setNext (EventSpec next){
     this.next = next;
   }
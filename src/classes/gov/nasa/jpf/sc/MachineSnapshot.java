@@ -0,0 +1,445 @@
+//
+// Copyright  (C) 2007 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+package gov.nasa.jpf.sc;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * a compact copy of the execution state of a StateMachine between two steps,
+ * i.e. the next active configuration, the per-state flags, pending and
+ * wait events, and the step counter. States are referenced by their
+ * registration index (State.id), so a snapshot can also be restored into
+ * another machine instance with a master state of the same type.
+ *
+ * Note that this does not include fields of the concrete model states,
+ * those are up to the application
+ */
+public class MachineSnapshot {
+
+  static final byte ACTIVE = 0x1;
+  static final byte END = 0x2;
+  static final byte REENTERED = 0x4;
+
+  String masterType;
+  int step;
+  boolean guardedCompletion;
+
+  int[] nextActives;  // in 'nextActives' (LIFO) order
+  byte[] flags;
+  int[] visited;
+
+  // those are per state, null if the state didn't have any
+  EventSpec[][] pendingEvents;
+  EventSpec[][] waitEvents;
+
+  /**
+   * read a complete snapshot, as written by writeHeader() and writeState()
+   * for all states. This is used for recovery, there is no machine yet
+   */
+  public MachineSnapshot (DataInput in) throws IOException {
+    readHeader(in);
+
+    int n = in.readInt();
+    flags = new byte[n];
+    visited = new int[n];
+
+    for (int i=0; i<n; i++) {
+      readState(in);
+    }
+  }
+
+  MachineSnapshot (StateMachine machine) {
+    int n = machine.nStates;
+    State[] states = machine.states;
+
+    masterType = machine.masterState.getClass().getName();
+    step = machine.step;
+    guardedCompletion = machine.wasGuardedCompletion();
+
+    // if the last step() didn't get an event, the configuration already
+    // got moved to 'activeStates' (which is in reverse order)
+    State first = machine.nextActives;
+    boolean reverse = false;
+    if (first == null) {
+      first = machine.activeStates;
+      reverse = true;
+    }
+
+    int nActive = 0;
+    for (State s = first; s != null; s = s.next) {
+      nActive++;
+    }
+    nextActives = new int[nActive];
+    int i=0;
+    for (State s = first; s != null; s = s.next, i++) {
+      nextActives[reverse ? (nActive-1-i) : i] = s.id;
+    }
+
+    flags = new byte[n];
+    visited = new int[n];
+
+    for (i=0; i<n; i++) {
+      State s = states[i];
+
+      byte f = 0;
+      if (s.isActive) f |= ACTIVE;
+      if (s.isEndState) f |= END;
+      if (s.isReEntered) f |= REENTERED;
+      flags[i] = f;
+
+      visited[i] = s.visited;
+
+      EventSpec[] a = copyAll(s.pendingEvents.head);
+      if (a != null) {
+        if (pendingEvents == null) {
+          pendingEvents = new EventSpec[n][];
+        }
+        pendingEvents[i] = a;
+      }
+
+      a = copyAll(s.waitEvent);
+      if (a != null) {
+        if (waitEvents == null) {
+          waitEvents = new EventSpec[n][];
+        }
+        waitEvents[i] = a;
+      }
+    }
+  }
+
+  static EventSpec[] copyAll (EventSpec head) {
+    int n = 0;
+    for (EventSpec e = head; e != null; e = e.next) {
+      n++;
+    }
+
+    if (n == 0) {
+      return null;
+    } else {
+      EventSpec[] a = new EventSpec[n];
+      int i=0;
+      for (EventSpec e = head; e != null; e = e.next) {
+        a[i++] = copy(e);
+      }
+      return a;
+    }
+  }
+
+  static EventSpec copy (EventSpec e) {
+    EventSpec c;
+    if (e.slotTypes != null) {
+      c = new EventSpec(e.name, e.slotTypes, e.v0, e.v1, e.v2, e.priority, null);
+    } else {
+      c = new EventSpec(e.name, e.args, e.priority, null);
+    }
+    return c;
+  }
+
+  // creates a new chain, so that we can restore the same snapshot over and over
+  static EventSpec link (EventSpec[] a) {
+    EventSpec head = null;
+
+    if (a != null) {
+      for (int i=a.length-1; i>=0; i--) {
+        EventSpec e = copy(a[i]);
+        e.next = head;
+        head = e;
+      }
+    }
+
+    return head;
+  }
+
+  void restoreTo (StateMachine machine) {
+    int n = machine.nStates;
+    State[] states = machine.states;
+
+    if (n != flags.length || !masterType.equals(machine.masterState.getClass().getName())) {
+      throw new RuntimeException("snapshot does not match state machine: " + masterType);
+    }
+
+    for (int i=0; i<n; i++) {
+      State s = states[i];
+      byte f = flags[i];
+
+      s.isActive = (f & ACTIVE) != 0;
+      s.isEndState = (f & END) != 0;
+      s.isReEntered = (f & REENTERED) != 0;
+      s.visited = visited[i];
+      s.next = null;
+
+      s.pendingEvents.head = link((pendingEvents != null) ? pendingEvents[i] : null);
+      s.pendingEvents.processedEvent = null;
+      s.waitEvent = link((waitEvents != null) ? waitEvents[i] : null);
+    }
+
+    State last = null;
+    for (int i=nextActives.length-1; i>=0; i--) {
+      State s = states[nextActives[i]];
+      s.next = last;
+      last = s;
+    }
+
+    machine.nextActives = last;
+    machine.activeStates = null;
+    machine.nextState = null;
+    machine.curState = null;
+    machine.nFired = 0;
+    machine.step = step;
+    machine.wasGuardedCompletionStep = guardedCompletion;
+  }
+
+  //--- serialization support (used for checkpoints). Event arguments can be
+  // Strings, boxed primitives or null, everything else is rejected
+
+  public void writeHeader (DataOutput out) throws IOException {
+    out.writeUTF(masterType);
+    out.writeInt(step);
+    out.writeBoolean(guardedCompletion);
+
+    out.writeInt(nextActives.length);
+    for (int i=0; i<nextActives.length; i++) {
+      out.writeInt(nextActives[i]);
+    }
+  }
+
+  public void readHeader (DataInput in) throws IOException {
+    masterType = in.readUTF();
+    step = in.readInt();
+    guardedCompletion = in.readBoolean();
+
+    nextActives = new int[in.readInt()];
+    for (int i=0; i<nextActives.length; i++) {
+      nextActives[i] = in.readInt();
+    }
+  }
+
+  public void writeState (DataOutput out, int id) throws IOException {
+    out.writeInt(id);
+    out.writeByte(flags[id]);
+    out.writeInt(visited[id]);
+    writeEvents(out, (pendingEvents != null) ? pendingEvents[id] : null);
+    writeEvents(out, (waitEvents != null) ? waitEvents[id] : null);
+  }
+
+  /**
+   * read a state record into this snapshot, overwriting what we had for it
+   * @return the id of the state
+   */
+  public int readState (DataInput in) throws IOException {
+    int id = in.readInt();
+    if (id < 0 || id >= flags.length) {
+      throw new IOException("state id out of range: " + id);
+    }
+
+    flags[id] = in.readByte();
+    visited[id] = in.readInt();
+
+    EventSpec[] a = readEvents(in);
+    if (a != null && pendingEvents == null) {
+      pendingEvents = new EventSpec[flags.length][];
+    }
+    if (pendingEvents != null) {
+      pendingEvents[id] = a;
+    }
+
+    a = readEvents(in);
+    if (a != null && waitEvents == null) {
+      waitEvents = new EventSpec[flags.length][];
+    }
+    if (waitEvents != null) {
+      waitEvents[id] = a;
+    }
+
+    return id;
+  }
+
+  static void writeEvents (DataOutput out, EventSpec[] a) throws IOException {
+    if (a == null) {
+      out.writeInt(0);
+      return;
+    }
+
+    out.writeInt(a.length);
+    for (EventSpec e : a) {
+      out.writeUTF(e.name);
+      out.writeInt(e.priority);
+
+      if (e.slotTypes != null) {
+        out.writeBoolean(true);
+        out.writeUTF(e.slotTypes);
+        out.writeLong(e.v0);
+        out.writeLong(e.v1);
+        out.writeLong(e.v2);
+
+      } else {
+        out.writeBoolean(false);
+        Object[] args = e.args;
+        if (args == null) {
+          out.writeInt(-1);
+        } else {
+          out.writeInt(args.length);
+          for (Object o : args) {
+            writeArg(out, o);
+          }
+        }
+      }
+    }
+  }
+
+  static EventSpec[] readEvents (DataInput in) throws IOException {
+    int n = in.readInt();
+    if (n == 0) {
+      return null;
+    }
+
+    EventSpec[] a = new EventSpec[n];
+    for (int i=0; i<n; i++) {
+      String name = in.readUTF();
+      int priority = in.readInt();
+
+      if (in.readBoolean()) {
+        String types = in.readUTF();
+        a[i] = new EventSpec(name, types, in.readLong(), in.readLong(), in.readLong(), priority, null);
+
+      } else {
+        Object[] args = null;
+        int nArgs = in.readInt();
+        if (nArgs >= 0) {
+          args = new Object[nArgs];
+          for (int j=0; j<nArgs; j++) {
+            args[j] = readArg(in);
+          }
+        }
+        a[i] = new EventSpec(name, args, priority, null);
+      }
+    }
+
+    return a;
+  }
+
+  static void writeArg (DataOutput out, Object o) throws IOException {
+    if (o == null) {
+      out.writeByte('N');
+    } else if (o instanceof String) {
+      out.writeByte('S');
+      out.writeUTF((String)o);
+    } else if (o instanceof Integer) {
+      out.writeByte('I');
+      out.writeInt(((Integer)o).intValue());
+    } else if (o instanceof Boolean) {
+      out.writeByte('Z');
+      out.writeBoolean(((Boolean)o).booleanValue());
+    } else if (o instanceof Double) {
+      out.writeByte('D');
+      out.writeDouble(((Double)o).doubleValue());
+    } else if (o instanceof Long) {
+      out.writeByte('J');
+      out.writeLong(((Long)o).longValue());
+    } else {
+      throw new IOException("cannot serialize event argument of type: " + o.getClass().getName());
+    }
+  }
+
+  static Object readArg (DataInput in) throws IOException {
+    byte tag = in.readByte();
+    switch (tag) {
+    case 'N': return null;
+    case 'S': return in.readUTF();
+    case 'I': return Integer.valueOf(in.readInt());
+    case 'Z': return Boolean.valueOf(in.readBoolean());
+    case 'D': return Double.valueOf(in.readDouble());
+    case 'J': return Long.valueOf(in.readLong());
+    default:
+      throw new IOException("unknown event argument tag: " + tag);
+    }
+  }
+
+  /**
+   * did the state with the given id change between 'other' and this snapshot
+   */
+  public boolean isStateChanged (MachineSnapshot other, int id) {
+    if (flags[id] != other.flags[id] || visited[id] != other.visited[id]) {
+      return true;
+    }
+
+    return !equals(getEvents(pendingEvents, id), getEvents(other.pendingEvents, id)) ||
+           !equals(getEvents(waitEvents, id), getEvents(other.waitEvents, id));
+  }
+
+  static EventSpec[] getEvents (EventSpec[][] table, int id) {
+    return (table != null) ? table[id] : null;
+  }
+
+  static boolean equals (EventSpec[] a, EventSpec[] b) {
+    if (a == b) {
+      return true;
+    }
+    if (a == null || b == null || a.length != b.length) {
+      return false;
+    }
+
+    for (int i=0; i<a.length; i++) {
+      EventSpec e = b[i];
+      if (e.slotTypes != null) {
+        if (!a[i].equals(e.name, e.slotTypes, e.v0, e.v1, e.v2, e.priority)) {
+          return false;
+        }
+      } else {
+        if (!a[i].equals(e.name, e.args, e.priority)) {
+          return false;
+        }
+      }
+    }
+
+    return true;
+  }
+
+  //--- accessors
+
+  public String getMasterType() {
+    return masterType;
+  }
+
+  public int getStep() {
+    return step;
+  }
+
+  public int getNumberOfStates() {
+    return flags.length;
+  }
+
+  public int[] getNextActives() {
+    return nextActives.clone();
+  }
+
+  public boolean isActive (int stateId) {
+    return (flags[stateId] & ACTIVE) != 0;
+  }
+
+  public boolean isEndState (int stateId) {
+    return (flags[stateId] & END) != 0;
+  }
+
+  public boolean wasGuardedCompletion() {
+    return guardedCompletion;
+  }
+}
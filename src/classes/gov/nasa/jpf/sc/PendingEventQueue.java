@@ -61,6 +61,23 @@ public class PendingEventQueue {
     return new EventSpec(eventId, args, priority, null);
   }
 
+  public EventSpec getEvent (String eventId, String slotTypes, long v0, long v1, long v2, int priority){
+    for (EventSpec e = processedEvent, eLast = null; e != null; eLast = e, e = e.next){
+      if (e.equals(eventId, slotTypes, v0, v1, v2, priority)){
+        if (eLast == null){
+          processedEvent = e.next;
+        } else {
+          eLast.next = e.next;
+        }
+
+        e.next = null;
+        return e;
+      }
+    }
+
+    return new EventSpec(eventId, slotTypes, v0, v1, v2, priority, null);
+  }
+
   public String toString() {
     StringBuilder sb = new StringBuilder();
     sb.append("PendingEventQueue[");
@@ -79,10 +96,22 @@ public class PendingEventQueue {
   }
 
   //--- this is policy, so don't use it directly from State!
-  public void add (String eventId, Object[] args, int priority){
+  public EventSpec add (String eventId, Object[] args, int priority){
+    EventSpec e = getEvent(eventId, args, priority);
+    insert(e);
+    return e;
+  }
 
-    EventSpec eNew = getEvent(eventId, args, priority);
+  /**
+   * primitive payload version (see EventSpec for slot encoding)
+   */
+  public EventSpec add (String eventId, String slotTypes, long v0, long v1, long v2, int priority){
+    EventSpec e = getEvent(eventId, slotTypes, v0, v1, v2, priority);
+    insert(e);
+    return e;
+  }
 
+  void insert (EventSpec eNew) {
     // now sort it in according to priority & FIFO
     if (head == null){
       head = eNew;
@@ -133,6 +162,14 @@ public class PendingEventQueue {
     }
   }
   
+  public int size() {
+    int n = 0;
+    for (EventSpec e = head; e != null; e = e.next) {
+      n++;
+    }
+    return n;
+  }
+
   public EventSpec peekFirst() {
     return head;
   }
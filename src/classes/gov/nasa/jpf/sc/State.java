@@ -268,7 +268,7 @@ public abstract class State {
   // NativePeer candidate
   public void executeEntryAction () throws InvocationTargetException, IllegalAccessException {
     if (entryActions != null) {
-      machine.log(typeName, ".entryAction()");
+      if (machine.logging) machine.log(typeName, ".entryAction()");
       entryActions.invoke(this);
     }
   }
@@ -276,7 +276,7 @@ public abstract class State {
   // NativePeer candidate
   public void executeDoAction () throws InvocationTargetException, IllegalAccessException {
     if (doActions != null) {
-      machine.log(typeName, ".doAction()");
+      if (machine.logging) machine.log(typeName, ".doAction()");
       doActions.invoke(this);
     }
   }
@@ -284,7 +284,7 @@ public abstract class State {
   // NativePeer candidate
   public void executeExitAction () throws InvocationTargetException, IllegalAccessException {
     if (exitActions != null) {
-      machine.log(typeName, ".exitAction()");
+      if (machine.logging) machine.log(typeName, ".exitAction()");
       exitActions.invoke(this);
     }
   }
@@ -324,6 +324,10 @@ public abstract class State {
     return fieldName;
   }
 
+  public int getId() {
+    return id;
+  }
+
   public State getSuperState() {
     return superState;
   }
@@ -434,6 +438,10 @@ public abstract class State {
     return (visited > 0);
   }
 
+  public int getVisitCount () {
+    return visited;
+  }
+
   public void setReEntered() {
     isReEntered = true;
   }
@@ -520,7 +528,10 @@ public abstract class State {
 
   // we can't use StringBuilders because that would modify the heap
   void logEvent (String msg, State tgtState, int priority, String eventName, Object... args){
-    
+    if (!machine.logging) {
+      return; // don't even touch the args
+    }
+
     logAppend(msg);
     
     logAppend(eventName);
@@ -549,8 +560,21 @@ public abstract class State {
   public void sendEvent (State tgtState, int priority, String eventName, Object... args){
     String msg;
     if (machine.supportsSendEvent()) {
-      tgtState.pendingEvents.add(eventName,args,priority);
+      if (machine.timed) {
+        long t = System.nanoTime();
+        EventSpec e = tgtState.pendingEvents.add(eventName,args,priority);
+        e.queueTime = System.nanoTime();
+        machine.eventQueued(this, tgtState, eventName, priority, e.queueTime - t);
+      } else {
+        tgtState.pendingEvents.add(eventName,args,priority);
+        if (machine.tracked) {
+          machine.eventQueued(this, tgtState, eventName, priority, 0);
+        }
+      }
       msg = "send ";
+      if (machine.observed) {
+        machine.eventSent(this, tgtState, eventName, args);
+      }
     } else {
       msg = "send (ignored) ";
     }
@@ -572,6 +596,104 @@ public abstract class State {
     sendEvent(tgtState,priority,eventName,args);
   }
 
+  //--- primitive payload sends. These store the arguments inline in the
+  // EventSpec, i.e. we don't need varargs arrays or boxed values (the
+  // priority is computed without args). They have their own names so that
+  // sendEvent() calls with boxed (possibly null) arguments still go through
+  // the Object... version
+
+  void logEvent (String msg, State tgtState, int priority, String eventName,
+                 String slotTypes, long v0, long v1, long v2){
+    if (!machine.logging) {
+      return;
+    }
+
+    logAppend(msg);
+
+    logAppend(eventName);
+    logAppend("/");
+    logAppend(Integer.toString(priority));
+
+    logAppend("(");
+    for (int i=0; i<slotTypes.length(); i++){
+      if (i>0) logAppend(",");
+      long v = (i == 0) ? v0 : ((i == 1) ? v1 : v2);
+      logAppend(EventSpec.slotToString(slotTypes.charAt(i), v));
+    }
+    logAppend(")");
+
+    logAppend(" to ");
+    if (tgtState.fieldName == null) {
+      logAppend("ALL");
+    } else {
+      logAppend(tgtState.fieldName);
+    }
+
+    log();
+  }
+
+  void sendSlotEvent (State tgtState, String eventName, String slotTypes, long v0, long v1, long v2){
+    int priority = machine.getEventPriority(this,tgtState,eventName,null);
+    String msg;
+    if (machine.supportsSendEvent()) {
+      if (machine.timed) {
+        long t = System.nanoTime();
+        EventSpec e = tgtState.pendingEvents.add(eventName,slotTypes,v0,v1,v2,priority);
+        e.queueTime = System.nanoTime();
+        machine.eventQueued(this, tgtState, eventName, priority, e.queueTime - t);
+      } else {
+        tgtState.pendingEvents.add(eventName,slotTypes,v0,v1,v2,priority);
+        if (machine.tracked) {
+          machine.eventQueued(this, tgtState, eventName, priority, 0);
+        }
+      }
+      msg = "send ";
+      if (machine.observed) { // observers get boxed args
+        Object[] args = new Object[slotTypes.length()];
+        for (int i=0; i<args.length; i++) {
+          args[i] = EventSpec.boxSlot(slotTypes.charAt(i), (i == 0) ? v0 : ((i == 1) ? v1 : v2));
+        }
+        machine.eventSent(this, tgtState, eventName, args);
+      }
+    } else {
+      msg = "send (ignored) ";
+    }
+
+    logEvent(msg, tgtState, priority, eventName, slotTypes, v0, v1, v2);
+  }
+
+  public void sendIntEvent (State tgtState, String eventName, int a){
+    sendSlotEvent(tgtState, eventName, "I", a, 0, 0);
+  }
+
+  public void sendIntEvent (State tgtState, String eventName, int a, int b){
+    sendSlotEvent(tgtState, eventName, "II", a, b, 0);
+  }
+
+  public void sendIntEvent (State tgtState, String eventName, int a, int b, int c){
+    sendSlotEvent(tgtState, eventName, "III", a, b, c);
+  }
+
+  public void sendBooleanEvent (State tgtState, String eventName, boolean a){
+    sendSlotEvent(tgtState, eventName, "Z", a ? 1 : 0, 0, 0);
+  }
+
+  public void sendDoubleEvent (State tgtState, String eventName, double a){
+    sendSlotEvent(tgtState, eventName, "D", Double.doubleToLongBits(a), 0, 0);
+  }
+
+  public void sendIntEvent (String eventName, int a){
+    sendSlotEvent(machine.getMasterState(), eventName, "I", a, 0, 0);
+  }
+
+  public void sendBooleanEvent (String eventName, boolean a){
+    sendSlotEvent(machine.getMasterState(), eventName, "Z", a ? 1 : 0, 0, 0);
+  }
+
+  public void sendDoubleEvent (String eventName, double a){
+    sendSlotEvent(machine.getMasterState(), eventName, "D", Double.doubleToLongBits(a), 0, 0);
+  }
+
   public EventSpec getPendingEvent () {
     return pendingEvents.getPendingEvent();
   }
@@ -596,6 +718,14 @@ public abstract class State {
     return waitEvent;
   }
 
+  public int getWaitEventCount() {
+    int n = 0;
+    for (EventSpec e = waitEvent; e != null; e = e.next) {
+      n++;
+    }
+    return n;
+  }
+
   public void removeWaitEvent() {
     if (waitEvent != null) {
       waitEvent = waitEvent.next;
@@ -633,17 +763,21 @@ public abstract class State {
   // those are forwarded to the machine (we have overloaded versions
   // here to avoid dynamic message composition, which would make it harder
   // for the model checker)
+  // use this to skip composing message parts if nobody listens
+  public boolean isLogging () {
+    return machine.logging;
+  }
   public void log (String msg) {
-    machine.log(msg);
+    if (machine.logging) machine.log(msg);
   }
   public void log (String s1, String s2) {
-    machine.log(s1,s2);
+    if (machine.logging) machine.log(s1,s2);
   }
   public void log (String s1, String s2, String s3) {
-    machine.log(s1,s2,s3);
+    if (machine.logging) machine.log(s1,s2,s3);
   }
   public void log (String s1, String s2, String s3, String s4) {
-    machine.log(s1,s2,s3,s4);
+    if (machine.logging) machine.log(s1,s2,s3,s4);
   }
 
   // it doesn't help to have a log(String...args) because that
@@ -653,10 +787,10 @@ public abstract class State {
   // are accumulated until a log() call is received, which prints the
   // log record and resets the message buffer
   public void logAppend(String msg) {
-    machine.logAppend(msg);
+    if (machine.logging) machine.logAppend(msg);
   }
   public void log () {
-    machine.log();
+    if (machine.logging) machine.log();
   }
   
   
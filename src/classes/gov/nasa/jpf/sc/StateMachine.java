@@ -18,6 +18,8 @@
 //
 package gov.nasa.jpf.sc;
 
+import java.io.PrintWriter;
+
 import gov.nasa.jpf.annotation.FilterField;
 
 /**
@@ -64,6 +66,23 @@ public class StateMachine implements Runnable {
   @FilterField State nextState;
 
   @FilterField protected int step;    // how many events have we executed in the current path
+
+  // cached result of supportsLogging(), so that model code can skip all
+  // message composition without a native call. The log configuration doesn't
+  // change during a run
+  @FilterField protected boolean logging = true;
+
+  // set by executors that have observers registered, so that models don't
+  // have to call the (empty) observer hooks otherwise. Observers can be
+  // added from other threads than the one running the machine
+  @FilterField protected volatile boolean observed;
+
+  // set by executors that time sends (e.g. for JFR events), per step
+  @FilterField protected boolean timed;
+
+  // set by executors that only want to know about sends (e.g. a step
+  // history), so that they don't pay for timing them
+  @FilterField protected boolean tracked;
   
   static {
     // we just need a hook for static peer initialization
@@ -91,6 +110,18 @@ public class StateMachine implements Runnable {
   protected void setEnablingEventProcessed () {
     // intercepted by native peer, or overridden by derived class    
   }
+
+  protected boolean isTriggerCandidate (State s) {
+    // overridden by derived classes that know which states can handle the
+    // current event. We just have to try them all
+    return true;
+  }
+
+  protected boolean isEnablingEventConsumed () {
+    // intercepted by native peer, or overridden by derived class. If this
+    // returns true, the current event is not offered to the remaining active states
+    return false;
+  }
   
   protected void startRun() {
     // to be called before we start to execute steps, after states have been created
@@ -130,6 +161,18 @@ public class StateMachine implements Runnable {
   public void log() {
   }
 
+  /**
+   * answers if log calls produce any output. Callers should check
+   * isLogging() before they compose messages
+   */
+  public boolean supportsLogging () {
+    return false; // our log methods are empty
+  }
+
+  public boolean isLogging () {
+    return logging;
+  }
+
   //----------- end NativePeer methods
 
   // NOTE - this is called by JPF with adjusted args
@@ -199,8 +242,24 @@ public class StateMachine implements Runnable {
     throw new RuntimeException("no executeExitActions() implementation");
   }
 
-  void triggerFired (State src, State tgt) {
-    // nothing to do
+  protected void triggerFired (State src, State tgt) {
+    // nothing to do here, native peer or tracing executors
+  }
+
+  /**
+   * called by State for every accepted send, but only if 'observed' is set
+   */
+  protected void eventSent (State src, State tgt, String eventName, Object[] args) {
+    // nothing to do here, observable executors
+  }
+
+  /**
+   * called by State for every accepted send, but only if 'timed' or
+   * 'tracked' is set. 'nanos' is how long the PendingEventQueue insertion
+   * took, or 0 if the send wasn't timed
+   */
+  protected void eventQueued (State src, State tgt, String eventName, int priority, long nanos) {
+    // nothing to do here, profiling executors
   }
 
   // we could have those as locals, but we want to filter
@@ -209,6 +268,7 @@ public class StateMachine implements Runnable {
   // maybe we should also have a curTrigger
 
   protected void initialize () {
+    logging = supportsLogging();
     startRun();
     masterState.enterState(null); // no parent state
   }
@@ -248,7 +308,12 @@ public class StateMachine implements Runnable {
         // fired to terminate the lookup, but it would be very counter-intuitive
         // to have the same trigger hold in a sub and fire in a superState
         // (leave alone the 'timeout' case)
-        executeTrigger(s);
+        // if the event was already handled by another region and we route
+        // consume-once, or nothing in this state hierarchy can handle it, we
+        // just keep the state active
+        if (!isEnablingEventConsumed() && isTriggerCandidate(s)) {
+          executeTrigger(s);
+        }
 
         // if the enabling event fired a transition, it sets 'nextState'
         // NOTE this is not really UML, but with this slight modification we
@@ -268,10 +333,10 @@ public class StateMachine implements Runnable {
             nFired++;
             triggerFired(s,ns);
             if (ns.isEndState) { // nextState == s
-              log("signal fired: ", s.getName(), " => end");
+              if (logging) log("signal fired: ", s.getName(), " => end");
               break;
             } else {
-              log("signal fired: ", s.getName(), " => ", ns.getName());
+              if (logging) log("signal fired: ", s.getName(), " => ", ns.getName());
 
               // this also updates the 'nextActive' set (via tgt.enterState())
               // which needs to be there because we don't know here what the
@@ -292,7 +357,7 @@ public class StateMachine implements Runnable {
             // we might jump to an end state several levels up
             s = s.superState;
           }
-          log("end ", s.getName());
+          if (logging) log("end ", s.getName());
 
           // if this was the last active child, re-activate the parent again
           // (but only if it isn't the masterState, or otherwise we never finish)
@@ -313,6 +378,43 @@ public class StateMachine implements Runnable {
     return true;
   }
 
+  //--- snapshot support
+
+  /**
+   * capture the configuration of this machine. This has to be called between
+   * steps, i.e. not from inside of triggers or actions
+   */
+  public MachineSnapshot snapshot () {
+    return new MachineSnapshot(this);
+  }
+
+  /**
+   * reset the machine to a previously captured configuration, without
+   * re-creating the master state. Continue with step() or resume()
+   */
+  public void restore (MachineSnapshot snapshot) {
+    snapshot.restoreTo(this);
+    restored(snapshot);
+  }
+
+  protected boolean wasGuardedCompletion () {
+    // overridden by executors that keep track of this themselves
+    return wasGuardedCompletionStep;
+  }
+
+  protected void restored (MachineSnapshot snapshot) {
+    // hook for derived classes that have to reset their own execution state
+  }
+
+  /**
+   * run from the current configuration, e.g. after a restore(). This does not
+   * execute any entry actions
+   */
+  public void resume () {
+    while (step());
+    checkTermination();
+  }
+
   /**
    * this is the main driver loop for state machine execution
    */
@@ -402,9 +504,19 @@ public class StateMachine implements Runnable {
       growStateTable();
     }
 
+    // this is the per machine id, which we use to index states
+    state.id = nStates;
     states[nStates++] = state;
   }
 
+  public int getNumberOfStates () {
+    return nStates;
+  }
+
+  public State getState (int id) {
+    return states[id];
+  }
+
   /*
    * NOTE: this builds the nextActives list in LIFO order
    * (it gets reverted again to FIFO when copying nextActives to activeStates)
@@ -474,6 +586,15 @@ public class StateMachine implements Runnable {
     return true;
   }
 
+  /**
+   * answers if we are re-executing steps that were already processed before
+   * a restart (e.g. from an event journal). Models can use this to suppress
+   * side effects of actions
+   */
+  public boolean isReplaying () {
+    return false;
+  }
+
   /**
    * this might get intercepted by our native peer so that we can turn it into
    * a choice point ("undefined" order of events)
@@ -547,7 +668,17 @@ public class StateMachine implements Runnable {
 
   static protected State createMasterState (String clsName) {
     try {
-      Class cls = Class.forName(clsName);
+      Class cls;
+      try {
+        cls = Class.forName(clsName);
+      } catch (ClassNotFoundException cnfx) {
+        // might be a chart that was generated and loaded at runtime
+        ClassLoader cl = Thread.currentThread().getContextClassLoader();
+        if (cl == null) {
+          throw cnfx;
+        }
+        cls = Class.forName(clsName, true, cl);
+      }
       Object s = cls.newInstance();
       return (State) s;
 
@@ -563,40 +694,55 @@ public class StateMachine implements Runnable {
   }
 
   public void showState (State s, int level) {
+    PrintWriter pw = new PrintWriter(System.out);
+    showState(s, level, pw);
+    pw.flush();
+  }
+
+  public void showState (State s, int level, PrintWriter pw) {
 
     if (s.isActive()) {
-      System.out.print("* ");
+      pw.print("* ");
     } else {
-      System.out.print("  ");
+      pw.print("  ");
     }
 
     for (int i=0; i<level; i++) {
-      System.out.print("  ");
+      pw.print("  ");
     }
 
     String tName = s.getTypeName();
     int idx = tName.lastIndexOf('.');
-    System.out.print(tName.substring(idx+1));
-    System.out.print(" : ");
+    pw.print(tName.substring(idx+1));
+    pw.print(" : ");
 
     String fName = s.getFieldName();
     if (fName != null) {
       idx = fName.lastIndexOf('.');
-      System.out.print(fName.substring(idx+1));
+      pw.print(fName.substring(idx+1));
     }
-    System.out.println();
+    pw.println();
 
     if (s.subStates != null) {
       level++;
       for (State c : s.subStates) {
-        showState(c, level);
+        showState(c, level, pw);
       }
     }
   }
 
   public void showMachine () {
-    System.out.println("===================================== statemachine composition: ");
-    showState(masterState, 0);
-    System.out.println();
+    PrintWriter pw = new PrintWriter(System.out);
+    showMachine(pw);
+    pw.flush();
+  }
+
+  /**
+   * print the composition, marking the active states with '*'
+   */
+  public void showMachine (PrintWriter pw) {
+    pw.println("===================================== statemachine composition: ");
+    showState(masterState, 0, pw);
+    pw.println();
   }
 }
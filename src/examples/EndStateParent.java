@@ -0,0 +1,36 @@
+import gov.nasa.jpf.sc.State;
+
+/**
+ * a superState that was exited by setEndState(parent) stays active, and is
+ * not entered again if we go into another of its subStates. Its triggers
+ * still have to be offered afterwards, i.e. "end", "jump", "foo" has to end
+ * in g.q (see ChartCheck)
+ */
+public class EndStateParent extends State {
+
+  class G extends State {
+
+    class P extends State {
+
+      class C1 extends State {
+        public void end () {
+          setEndState(p);
+        }
+      } C1 c1 = makeInitial(new C1());
+
+      class C2 extends State {
+      } C2 c2 = new C2();
+
+      public void foo () {
+        setNextState(q);
+      }
+    } P p = makeInitial(new P());
+
+    class Q extends State {
+    } Q q = new Q();
+
+    public void jump () {
+      setNextState(p.c2);
+    }
+  } G g = makeInitial(new G());
+}
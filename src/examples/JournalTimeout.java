@@ -0,0 +1,31 @@
+import gov.nasa.jpf.sc.State;
+
+/**
+ * a chart with a 'timeout' trigger, to check that a "timeout" which is
+ * posted by an EventSource is journaled and replayed like any other
+ * external event (see FormatCheck)
+ */
+public class JournalTimeout extends State {
+
+  class A extends State {
+    public void timeout () {
+      setNextState(b);
+    }
+
+    public void x () {
+      setNextState(c);
+    }
+  } A a = makeInitial(new A());
+
+  class B extends State {
+    public void x () {
+      setNextState(d);
+    }
+  } B b = new B();
+
+  class C extends State {
+  } C c = new C();
+
+  class D extends State {
+  } D d = new D();
+}
@@ -23,40 +23,27 @@ import java.util.Collection;
 import gov.nasa.jpf.jvm.MJIEnv;
 import gov.nasa.jpf.jvm.MethodInfo;
 import gov.nasa.jpf.jvm.MethodLocator;
+import gov.nasa.jpf.sc.runtime.StateEvent;
 import gov.nasa.jpf.util.script.Event;
 
 /**
  * class that represents enabling events in UML statechart processing
+ *
+ * the JPF independent parts live in StateEvent, this adds what we need for
+ * scripts and model checking
  */
-public class SCEvent implements MethodLocator {
-
-  static final char RC_CHAR = ':';
-
-  public static final String WILDCARD = "*";
-  public static final String COMPLETION = "completion";
-  public static final String TIMEOUT = "timeout";
+public class SCEvent extends StateEvent implements MethodLocator {
 
   public static SCEvent TIMEOUT_EVENT = new SCEvent(TIMEOUT);
   public static SCEvent COMPLETION_EVENT = new SCEvent(COMPLETION);
 
-  String id;
-  Object[] arguments;
-  int line;
-
-  boolean isConsumed;
+  static {
+    TIMEOUT_EVENT.isSynthetic = true;
+    COMPLETION_EVENT.isSynthetic = true;
+  }
 
   String mthName; // on demand
 
-  public static String createId (String receiver, String eventName) {
-    if (receiver != null) {
-      // <2do> this is not yet correct - a*:foo() should only match a.foo() or
-      // a.b.foo(), but not aaa.foo()
-      return receiver + WILDCARD + RC_CHAR + eventName;
-    } else {
-      return WILDCARD + RC_CHAR + eventName;
-    }
-  }
-
   public SCEvent (Event e) {
     id = e.getId();
     if (!e.isNone()) {
@@ -66,41 +53,13 @@ public class SCEvent implements MethodLocator {
   }
 
   public SCEvent (String receiver, String eventName, Object... args) {
-    this(createId(receiver, eventName), args);
+    super(receiver, eventName, args);
   }
 
   public SCEvent (String id, Object... arguments){
-    this.id = id;
-
-    if ((arguments != null) && (arguments.length == 0)){
-      this.arguments = null;
-    } else {
-      this.arguments = arguments;
-    }
+    super(id, arguments);
   }
 
-  public String[] getReceiverConstraints() {
-    int idx = id.indexOf(RC_CHAR);
-    if (idx < 0) {
-      return null;
-
-    } else {
-      String rc = id.substring(0, idx);
-      String[] rec = rc.split("[|]");
-      return rec;
-    }
-  }
-
-  public String getEventName() {
-    int idx = id.indexOf(RC_CHAR);
-    if (idx < 0) {
-      return id;
-    } else {
-      return id.substring(idx+1);
-    }
-  }
-
-
   public static SCEvent getTimeoutEvent() {
     return TIMEOUT_EVENT;
   }
@@ -109,71 +68,6 @@ public class SCEvent implements MethodLocator {
     return COMPLETION_EVENT;
   }
 
-  public void setLine (int line) {
-    this.line = line;
-  }
-
-  public int getLine() {
-    return line;
-  }
-
-  public boolean isConsumed() {
-    return isConsumed;
-  }
-
-  public void setConsumed(boolean b) {
-    isConsumed = b;
-  }
-
-  public int hashCode() {
-    // a little bit improvised..
-    int hc = id.hashCode() << 16;
-
-    if (arguments != null){
-      for (int i=0; i<arguments.length; i++){
-        hc += (arguments[i].hashCode() >>16);
-      }
-    }
-
-    return hc;
-  }
-
-  /**
-   * we consider type, id and arguments as equality, line is a hint
-   * (wouldn't map to a different method)
-   */
-  public boolean equals (Object other) {
-    if (getClass() != other.getClass()) {
-      return false;
-    }
-    SCEvent e = (SCEvent)other;
-
-    if (!id.equals(e.id)) {
-      return false;
-    }
-
-    if (arguments == e.arguments) {
-      return true;
-    }
-    if ((arguments == null) != (e.arguments == null)) {
-      return false;
-    }
-    if (arguments.length != e.arguments.length) {
-      return false;
-    }
-    for (int i=0; i<arguments.length; i++) {
-      if (!arguments[i].equals(e.arguments[i])) {
-        return false;
-      }
-    }
-
-    return true;
-  }
-
-  public String getId() {
-    return id;
-  }
-
   // <2do> that's not quite it - should be a composite
   public SCEvent getComplementEvent() {
     if (id.charAt(0) == '~'){
@@ -186,28 +80,15 @@ public class SCEvent implements MethodLocator {
     return (id.charAt(0) == '~');
   }
 
-  public boolean isWildcard() {
-    return (id.indexOf('*') >= 0);
-    //return WILDCARD.equals(id);
-  }
-
   public boolean isCompletion() {
     return ((this == COMPLETION_EVENT) || COMPLETION.equals(id));
   }
 
-  public boolean isTimeout() {
-    return TIMEOUT.equals(id);
-  }
-
   public boolean match (MethodInfo mi) {
     // TODO Auto-generated method stub
     return false;
   }
 
-  public Object[] getArguments() {
-    return arguments;
-  }
-
   public Class[] getArgumentTypes() {
     if (arguments == null) {
       return new Class[0];
@@ -232,10 +113,6 @@ public class SCEvent implements MethodLocator {
     }
   }
 
-  public String getMethodName () {
-    return getEventName();
-  }
-
   public String getUniqueMethodName() {
     if (mthName == null) {
       StringBuilder sb = new StringBuilder();
@@ -327,7 +204,4 @@ public class SCEvent implements MethodLocator {
     }
   }
 
-  public void setProcessed () {
-    //nothing, overridden by subclasses
-  }
 }
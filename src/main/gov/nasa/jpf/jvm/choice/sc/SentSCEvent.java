@@ -17,6 +17,14 @@ public class SentSCEvent extends SCEvent {
     this.eventSpec = eventSpec;
   }
 
+  public State getReceiver() {
+    return state;
+  }
+
+  public EventSpec getEventSpec() {
+    return eventSpec;
+  }
+
   public void setProcessed () {
     state.getPendingEventQueue().remove(eventSpec);
   }
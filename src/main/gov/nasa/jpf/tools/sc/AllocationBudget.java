@@ -0,0 +1,422 @@
+//
+// Copyright  (C) 2007 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+package gov.nasa.jpf.tools.sc;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.JPF;
+import gov.nasa.jpf.jvm.choice.sc.SCScriptEnvironment;
+import gov.nasa.jpf.sc.MachineSnapshot;
+import gov.nasa.jpf.sc.PendingEventQueue;
+import gov.nasa.jpf.sc.State;
+
+/**
+ * checks per step allocation of SimStateMachine against a budget, to catch
+ * code that used to be allocation free and isn't anymore.
+ *
+ * Each configured chart is run through its script a number of times to warm
+ * up, and then once more while we count the bytes the current thread
+ * allocates (com.sun.management.ThreadMXBean) in each phase of a step:
+ *
+ *   enabling  - getEnablingEvent()
+ *   trigger   - executeTrigger(), including sent events
+ *   exit      - executeExitAction()
+ *   entry     - executeEntryAction()
+ *   processed - setEnablingEventProcessed()
+ *   other     - rest of step()
+ *
+ * the 'queue' phase is not part of step(), it adds and removes events from
+ * a PendingEventQueue, which recycles processed EventSpecs and should not
+ * allocate at all once it has seen the events (value is per add/remove).
+ *
+ * config:
+ *   sc.alloc.runs            - <master class>[:<script>] list (scriptless runs are random)
+ *   sc.alloc.budget.<phase>  - max average bytes per step, -1 means report only
+ *   sc.alloc.warmup          - number of warm up runs per chart (default 5)
+ *   sc.max_steps             - for scriptless runs (default 1000)
+ *
+ * usage: java gov.nasa.jpf.tools.sc.AllocationBudget [+key=value ..], or
+ * 'ant check-alloc'. The process exits with 1 if a budget is exceeded.
+ */
+public class AllocationBudget {
+
+  static final String[] DEFAULT_RUNS = {
+    "FixedPhone:src/examples/FixedPhone.es",
+    "Ortho1:src/examples/Ortho1.es",
+    "SendEvents2:src/examples/SendEvents2.es",
+    "jpfESAS.CEV_15EOR_LOR:src/examples/jpfESAS/CEV_15EOR_LOR-nominal.es"
+  };
+
+  static final int ENABLING = 0;
+  static final int TRIGGER = 1;
+  static final int EXIT = 2;
+  static final int ENTRY = 3;
+  static final int PROCESSED = 4;
+  static final int OTHER = 5;
+  static final int QUEUE = 6;
+
+  static final String[] PHASES = { "enabling", "trigger", "exit", "entry", "processed", "other", "queue" };
+
+  // the script driven choice generators are created per step by JPF code we
+  // don't control, hence we only report 'enabling' by default. 'entry' has
+  // some slack for re-indexing handlers after a restore(), which shows in
+  // short runs, and 'other' includes publishing the ActiveConfiguration
+  static final long[] DEFAULT_BUDGETS = { -1, 0, 0, 64, 0, 128, 0 };
+
+  static final int QUEUE_OPS = 10000;
+
+  static com.sun.management.ThreadMXBean threadBean;
+  static long threadId;
+  static long overhead; // of an allocated() call pair
+
+  static long allocated () {
+    return threadBean.getThreadAllocatedBytes(threadId);
+  }
+
+  /**
+   * accumulates the allocated bytes per phase. Phases can nest (exit and
+   * entry actions run from within executeTrigger() when it sets the next
+   * state), so we keep a stack of start values, and the bytes of nested
+   * phases are not counted for the enclosing one
+   */
+  static class Phases {
+    static final int MAX_DEPTH = 16;
+
+    long[] bytes = new long[PHASES.length];
+    long[] max = new long[PHASES.length]; // in any single step
+    long[] cur = new long[PHASES.length];
+    long steps;
+
+    long[] t0 = new long[MAX_DEPTH];
+    long[] nested = new long[MAX_DEPTH]; // bytes of the phases nested in this one
+    int depth;
+
+    void start () {
+      nested[depth] = 0;
+      t0[depth++] = allocated();
+    }
+
+    void stop (int phase) {
+      long n = allocated() - t0[--depth] - overhead;
+      long own = n - nested[depth];
+      if (own > 0) {
+        cur[phase] += own;
+      }
+      if (depth > 0) {
+        nested[depth-1] += n + overhead; // including our own allocated() calls
+      }
+    }
+
+    void endStep (long total) {
+      long sum = 0;
+      for (int i=0; i<OTHER; i++) {
+        sum += cur[i];
+      }
+      cur[OTHER] = Math.max(0, total - sum);
+
+      for (int i=0; i<=OTHER; i++) {
+        bytes[i] += cur[i];
+        if (cur[i] > max[i]) {
+          max[i] = cur[i];
+        }
+        cur[i] = 0;
+      }
+      steps++;
+      depth = 0; // in case a RunEnded skipped some stop() calls
+    }
+
+    long getPerStep (int phase) {
+      return (steps > 0) ? bytes[phase] / steps : 0;
+    }
+  }
+
+  /**
+   * brackets the phases of step()
+   */
+  static class Machine extends SimStateMachine {
+    String scriptFile;
+    Phases phases; // null while warming up
+
+    Machine (Config conf, String scriptFile) {
+      super(conf);
+      this.scriptFile = scriptFile;
+      runInteractive = false;
+    }
+
+    void init () {
+      initialize();
+    }
+
+    boolean measuredStep () {
+      if (phases == null) {
+        return step();
+      }
+
+      long t = allocated();
+      boolean ret = step();
+      phases.endStep(allocated() - t - overhead);
+      return ret;
+    }
+
+    protected boolean getEnablingEvent () {
+      if (phases == null) {
+        return super.getEnablingEvent();
+      }
+      phases.start();
+      boolean ret = super.getEnablingEvent();
+      phases.stop(ENABLING);
+      return ret;
+    }
+
+    protected void executeTrigger (State s) {
+      if (phases == null) {
+        super.executeTrigger(s);
+      } else {
+        phases.start();
+        super.executeTrigger(s);
+        phases.stop(TRIGGER);
+      }
+    }
+
+    protected void executeExitAction (State s) {
+      if (phases == null) {
+        super.executeExitAction(s);
+      } else {
+        phases.start();
+        super.executeExitAction(s);
+        phases.stop(EXIT);
+      }
+    }
+
+    protected void executeEntryAction (State s) {
+      if (phases == null) {
+        super.executeEntryAction(s);
+      } else {
+        phases.start();
+        super.executeEntryAction(s);
+        phases.stop(ENTRY);
+      }
+    }
+
+    protected void setEnablingEventProcessed () {
+      if (phases == null) {
+        super.setEnablingEventProcessed();
+      } else {
+        phases.start();
+        super.setEnablingEventProcessed();
+        phases.stop(PROCESSED);
+      }
+    }
+
+    // a defect in the model ends the run, not the check
+    protected void executionError (Throwable t) {
+      throw new RunEnded(t);
+    }
+
+    void resetScript () {
+      if (scriptFile != null) {
+        try {
+          scriptEnv = new SCScriptEnvironment(scriptFile);
+          scriptEnv.parseScript();
+        } catch (Exception x) {
+          throw new RuntimeException("cannot read script: " + scriptFile, x);
+        }
+      }
+    }
+
+    void run (MachineSnapshot initial) {
+      restore(initial);
+      resetScript();
+      try {
+        while (measuredStep());
+      } catch (RunEnded x) {
+        System.out.println("  run ended with: " + x.getCause());
+      }
+    }
+  }
+
+  static class RunEnded extends RuntimeException {
+    RunEnded (Throwable cause) {
+      super(cause);
+    }
+  }
+
+  Config config;
+  String[] runs;
+  long[] budgets = new long[PHASES.length];
+  int warmup;
+  int maxSteps;
+
+  public AllocationBudget (Config conf) {
+    config = conf;
+
+    String[] v = conf.getStringArray("sc.alloc.runs");
+    runs = (v != null && v.length > 0) ? v : DEFAULT_RUNS;
+
+    for (int i=0; i<PHASES.length; i++) {
+      budgets[i] = conf.getLong("sc.alloc.budget." + PHASES[i], DEFAULT_BUDGETS[i]);
+    }
+    warmup = conf.getInt("sc.alloc.warmup", 5);
+    maxSteps = conf.getInt("sc.max_steps", 1000);
+  }
+
+  static void initCounter () {
+    java.lang.management.ThreadMXBean tb = ManagementFactory.getThreadMXBean();
+    if (!(tb instanceof com.sun.management.ThreadMXBean)) {
+      throw new RuntimeException("this VM does not support com.sun.management.ThreadMXBean");
+    }
+    threadBean = (com.sun.management.ThreadMXBean) tb;
+    if (!threadBean.isThreadAllocatedMemorySupported()) {
+      throw new RuntimeException("this VM does not support thread allocation counters");
+    }
+    threadBean.setThreadAllocatedMemoryEnabled(true);
+    threadId = Thread.currentThread().getId();
+
+    // calibrate - the counter read itself should not allocate, but let's make sure
+    long min = Long.MAX_VALUE;
+    for (int i=0; i<1000; i++) {
+      long t = allocated();
+      long n = allocated() - t;
+      if (n < min) {
+        min = n;
+      }
+    }
+    overhead = min;
+  }
+
+  Phases check (String run) {
+    int idx = run.indexOf(':');
+    String clsName = (idx > 0) ? run.substring(0, idx) : run;
+    String scriptFile = (idx > 0) ? run.substring(idx + 1) : null;
+
+    ArrayList<String> args = new ArrayList<String>();
+    args.add("+target.args=" + clsName);
+    args.add("+sc.log_level=off");
+    args.add("+sc.sim_mode=random");
+    args.add("+sc.max_steps=" + maxSteps);
+    args.add("+sc.history=0");
+    if (scriptFile != null) {
+      args.add("+sc.script=" + scriptFile);
+    }
+    Config conf = JPF.createConfig(args.toArray(new String[args.size()]));
+
+    Machine machine = new Machine(conf, scriptFile);
+    machine.init();
+    MachineSnapshot initial = machine.snapshot();
+
+    for (int i=0; i<warmup; i++) {
+      machine.run(initial);
+    }
+
+    Phases phases = new Phases();
+    machine.phases = phases;
+    machine.run(initial);
+    machine.phases = null;
+
+    return phases;
+  }
+
+  /**
+   * add and remove events from a queue - all EventSpecs should come from
+   * its processed list once it has seen them
+   */
+  static long checkQueue () {
+    PendingEventQueue q = new PendingEventQueue();
+    Object[] args = { Integer.valueOf(42) };
+
+    for (int i=0; i<QUEUE_OPS; i++) {
+      cycleQueue(q, args);
+    }
+
+    long t = allocated();
+    for (int i=0; i<QUEUE_OPS; i++) {
+      cycleQueue(q, args);
+    }
+    long n = allocated() - t - overhead;
+    return Math.max(0, n / (QUEUE_OPS * 4));
+  }
+
+  static void cycleQueue (PendingEventQueue q, Object[] args) {
+    q.add("a", null, 0);
+    q.add("b", args, 1);
+    q.add("c", "I", 42, 0, 0, 0);
+    q.add("d", null, 2);
+    while (q.getPendingEvent() != null);
+  }
+
+  boolean report (String run, Phases phases) {
+    boolean ok = true;
+
+    System.out.println(run + " : " + phases.steps + " steps");
+    System.out.println("  phase          bytes/step  max bytes/step     budget");
+    for (int i=0; i<=OTHER; i++) {
+      ok &= reportPhase(PHASES[i], phases.getPerStep(i), phases.max[i], budgets[i]);
+    }
+    return ok;
+  }
+
+  static boolean reportPhase (String phase, long perStep, long max, long budget) {
+    boolean ok = (budget < 0) || (perStep <= budget);
+
+    StringBuilder sb = new StringBuilder("  ");
+    sb.append(phase);
+    pad(sb, 15);
+    sb.append(String.format("%10d  %14d %10s", perStep, max, (budget < 0) ? "-" : Long.toString(budget)));
+    if (!ok) {
+      sb.append("  OVER BUDGET");
+    }
+    System.out.println(sb);
+    return ok;
+  }
+
+  static void pad (StringBuilder sb, int len) {
+    while (sb.length() < len) {
+      sb.append(' ');
+    }
+  }
+
+  public boolean checkAll () {
+    initCounter();
+    boolean ok = true;
+
+    for (String run : runs) {
+      ok &= report(run, check(run));
+    }
+
+    long q = checkQueue();
+    System.out.println("PendingEventQueue : " + QUEUE_OPS * 4 + " add/remove");
+    System.out.println("  phase          bytes/op");
+    ok &= reportPhase(PHASES[QUEUE], q, q, budgets[QUEUE]);
+
+    return ok;
+  }
+
+  public static void main (String[] args) {
+    Config conf = JPF.createConfig(args);
+    AllocationBudget check = new AllocationBudget(conf);
+
+    if (!check.checkAll()) {
+      System.out.println("allocation budget exceeded");
+      System.exit(1);
+    }
+  }
+}
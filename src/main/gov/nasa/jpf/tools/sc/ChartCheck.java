@@ -0,0 +1,123 @@
+//
+// Copyright  (C) 2007 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+
+package gov.nasa.jpf.tools.sc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.JPF;
+import gov.nasa.jpf.sc.State;
+import gov.nasa.jpf.sc.runtime.EmbeddedStateMachine;
+import gov.nasa.jpf.sc.runtime.EventQueue;
+
+/**
+ * regression check for EmbeddedStateMachine semantics. Each case runs a
+ * chart through a fixed event sequence and compares the active states at
+ * the end with the expected ones. This is mostly for corner cases of the
+ * step loop shortcuts (handler index, dropped events) that the examples
+ * don't cover otherwise.
+ *
+ * config:
+ *   sc.chart.runs  - <master class>:<event>,..:<active state>,.. list
+ *
+ * usage: java gov.nasa.jpf.tools.sc.ChartCheck [+key=value ..], or
+ * 'ant check-charts'. The process exits with 1 if a case fails.
+ */
+public class ChartCheck {
+
+  static final String[] DEFAULT_RUNS = {
+    // superState triggers after setEndState(parent) and a transition into a sibling
+    "EndStateParent:end,jump,foo:g.q"
+  };
+
+  String[] runs;
+
+  public ChartCheck (Config conf) {
+    runs = conf.getStringArray("sc.chart.runs", DEFAULT_RUNS);
+  }
+
+  // sorted, since the activeStates order depends on the transitions
+  static String toSortedList (ArrayList<String> names) {
+    Collections.sort(names);
+
+    StringBuilder sb = new StringBuilder();
+    for (String n : names) {
+      if (sb.length() > 0) {
+        sb.append(',');
+      }
+      sb.append(n);
+    }
+    return sb.toString();
+  }
+
+  static String getActiveStates (EmbeddedStateMachine m) {
+    ArrayList<String> names = new ArrayList<String>();
+    for (State s = m.getActiveStates(); s != null; s = s.getNext()) {
+      names.add(s.getName());
+    }
+    return toSortedList(names);
+  }
+
+  public boolean check (String run) {
+    String[] parts = run.split(":");
+    if (parts.length != 3) {
+      throw new IllegalArgumentException("not a <master>:<events>:<states> spec: " + run);
+    }
+
+    EventQueue q = new EventQueue();
+    for (String e : parts[1].split(",")) {
+      q.post(e);
+    }
+    q.close();
+
+    EmbeddedStateMachine m = EmbeddedStateMachine.create(parts[0], q);
+    if (m == null) {
+      throw new IllegalArgumentException("unknown master state: " + parts[0]);
+    }
+    m.run();
+
+    String expected = toSortedList(new ArrayList<String>(Arrays.asList(parts[2].split(","))));
+    String active = getActiveStates(m);
+    boolean ok = active.equals(expected);
+    System.out.println((ok ? "  ok      " : "  FAILED  ") + parts[0] + " " + parts[1] + " => {" + active + '}');
+    return ok;
+  }
+
+  public boolean checkAll () {
+    boolean ok = true;
+    for (String run : runs) {
+      ok &= check(run);
+    }
+    return ok;
+  }
+
+  public static void main (String[] args) {
+    Config conf = JPF.createConfig(args);
+    ChartCheck check = new ChartCheck(conf);
+
+    if (!check.checkAll()) {
+      System.out.println("chart check failed");
+      System.exit(1);
+    }
+  }
+}
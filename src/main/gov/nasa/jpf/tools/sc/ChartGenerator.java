@@ -0,0 +1,550 @@
+//
+// Copyright  (C) 2007 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+package gov.nasa.jpf.tools.sc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.JPF;
+import gov.nasa.jpf.sc.State;
+
+/**
+ * generates synthetic State hierarchies with matching .es scripts, to see
+ * how execution time and state space size scale with the shape of a model.
+ * The shipped examples are too small for that.
+ *
+ * the shape is controlled by (config keys in parentheses):
+ *   depth            - levels of composite states below the master (sc.gen.depth)
+ *   branching        - substates per composite (sc.gen.branching)
+ *   regions          - orthogonal regions of the master (sc.gen.regions)
+ *   arraySize        - size of an additional state array per composite (sc.gen.array_size)
+ *   triggers         - parameterless triggers per leaf state (sc.gen.triggers)
+ *   paramTriggers    - @Params triggers per leaf state (sc.gen.param_triggers)
+ *   domain           - number of @Params values (sc.gen.domain)
+ *   sendDensity      - probability that a trigger also sends an event (sc.gen.send_density)
+ *   guardSelectivity - fraction of @Params values that pass the guard (sc.gen.guard_selectivity)
+ *   scriptLength     - number of script entries (sc.gen.script_length)
+ *   scriptChoices    - events per script entry, >1 gives ANY{..} (sc.gen.script_choices)
+ *
+ * leaf triggers are named t0.., p0.. (with params), composite triggers c<level>.
+ * The generated chart is a pure function of these values and the seed.
+ *
+ * Charts can be written as source (writeTo()), or compiled and loaded in
+ * memory (compile(), needs a JDK). SimStateMachine finds compiled charts
+ * through the context class loader, see StateMachine.createMasterState()
+ *
+ * <2do> no timeouts, completion triggers or waits yet
+ */
+public class ChartGenerator {
+
+  String name = "GeneratedChart";
+  String packageName;  // null means default package
+
+  int depth = 2;
+  int branching = 3;
+  int regions = 1;
+  int arraySize = 0;
+  int triggers = 2;
+  int paramTriggers = 0;
+  int domain = 4;
+  double sendDensity = 0.0;
+  double guardSelectivity = 1.0;
+  int scriptLength = 32;
+  int scriptChoices = 1;
+  long seed = 42;
+
+  // the generated tree
+  static class Node {
+    int id;
+    int level;
+    Node parent;
+    ArrayList<Node> children = new ArrayList<Node>();
+    boolean isRegion;
+    boolean hasCells;
+
+    Node (int id, int level, Node parent) {
+      this.id = id;
+      this.level = level;
+      this.parent = parent;
+    }
+
+    boolean isLeaf () {
+      return children.isEmpty();
+    }
+
+    String cls () {
+      return "S" + id;
+    }
+
+    String field () {
+      return "s" + id;
+    }
+  }
+
+  Random random;
+  int nNodes;
+  int nStates;  // including array cells
+  ArrayList<String> events;
+  TreeSet<String> compositeEvents = new TreeSet<String>();
+
+  public ChartGenerator () {
+  }
+
+  public ChartGenerator (Config conf) {
+    name = conf.getString("sc.gen.name", name);
+    packageName = conf.getString("sc.gen.package");
+    depth = conf.getInt("sc.gen.depth", depth);
+    branching = conf.getInt("sc.gen.branching", branching);
+    regions = conf.getInt("sc.gen.regions", regions);
+    arraySize = conf.getInt("sc.gen.array_size", arraySize);
+    triggers = conf.getInt("sc.gen.triggers", triggers);
+    paramTriggers = conf.getInt("sc.gen.param_triggers", paramTriggers);
+    domain = conf.getInt("sc.gen.domain", domain);
+    sendDensity = conf.getDouble("sc.gen.send_density", sendDensity);
+    guardSelectivity = conf.getDouble("sc.gen.guard_selectivity", guardSelectivity);
+    scriptLength = conf.getInt("sc.gen.script_length", scriptLength);
+    scriptChoices = conf.getInt("sc.gen.script_choices", scriptChoices);
+    seed = conf.getLong("sc.gen.seed", seed);
+  }
+
+  public void setName (String packageName, String name) {
+    this.packageName = packageName;
+    this.name = name;
+  }
+
+  public void setShape (int depth, int branching, int regions, int arraySize) {
+    if (depth < 0 || branching < 1 || regions < 1 || arraySize < 0) {
+      throw new IllegalArgumentException("illegal chart shape");
+    }
+    this.depth = depth;
+    this.branching = branching;
+    this.regions = regions;
+    this.arraySize = arraySize;
+  }
+
+  public void setTriggers (int triggers, int paramTriggers, int domain) {
+    if (triggers < 1 || paramTriggers < 0 || domain < 1) {
+      throw new IllegalArgumentException("illegal trigger spec");
+    }
+    this.triggers = triggers;
+    this.paramTriggers = paramTriggers;
+    this.domain = domain;
+  }
+
+  public void setSendDensity (double sendDensity) {
+    this.sendDensity = sendDensity;
+  }
+
+  public void setGuardSelectivity (double guardSelectivity) {
+    this.guardSelectivity = guardSelectivity;
+  }
+
+  public void setScript (int scriptLength, int scriptChoices) {
+    this.scriptLength = scriptLength;
+    this.scriptChoices = scriptChoices;
+  }
+
+  public void setSeed (long seed) {
+    this.seed = seed;
+  }
+
+  public String getClassName () {
+    return (packageName != null) ? packageName + '.' + name : name;
+  }
+
+  /**
+   * number of states of the generated chart (including the master and
+   * array cells), valid after generateSource()
+   */
+  public int getNumberOfStates () {
+    return nStates;
+  }
+
+  //--- the tree
+
+  Node buildTree () {
+    random = new Random(seed);
+    nNodes = 0;
+
+    Node master = new Node(nNodes++, 0, null);
+    if (regions > 1) {
+      for (int i=0; i<regions; i++) {
+        Node r = new Node(nNodes++, 1, master);
+        r.isRegion = true;
+        master.children.add(r);
+        buildComposite(r, depth);
+      }
+    } else {
+      buildComposite(master, depth);
+    }
+    return master;
+  }
+
+  void buildComposite (Node node, int levels) {
+    if (levels > 0) {
+      for (int i=0; i<branching; i++) {
+        Node c = new Node(nNodes++, node.level + 1, node);
+        node.children.add(c);
+        buildComposite(c, levels - 1);
+      }
+      node.hasCells = (arraySize > 0);
+    }
+  }
+
+  //--- source generation
+
+  /**
+   * the Java source of the master state class
+   */
+  public String generateSource () {
+    Node master = buildTree();
+    nStates = 0;
+    events = new ArrayList<String>();
+    compositeEvents.clear();
+
+    StringBuilder sb = new StringBuilder(8192);
+    sb.append("// generated by gov.nasa.jpf.tools.sc.ChartGenerator - don't edit\n");
+    sb.append("// depth=").append(depth).append(" branching=").append(branching);
+    sb.append(" regions=").append(regions).append(" arraySize=").append(arraySize);
+    sb.append(" triggers=").append(triggers).append(" paramTriggers=").append(paramTriggers);
+    sb.append(" domain=").append(domain).append(" sendDensity=").append(sendDensity);
+    sb.append(" guardSelectivity=").append(guardSelectivity).append(" seed=").append(seed);
+    sb.append("\n\n");
+
+    if (packageName != null) {
+      sb.append("package ").append(packageName).append(";\n\n");
+    }
+    sb.append("import gov.nasa.jpf.sc.State;\n\n");
+
+    sb.append("public class ").append(name).append(" extends State {\n");
+    nStates++;
+    emitBody(sb, master, "  ");
+    sb.append("}\n");
+
+    for (int i=0; i<triggers; i++) {
+      events.add("t" + i);
+    }
+    for (int i=0; i<paramTriggers; i++) {
+      for (int v=0; v<domain; v++) {
+        events.add("p" + i + '(' + v + ')');
+      }
+    }
+    events.addAll(compositeEvents);
+
+    return sb.toString();
+  }
+
+  void emitBody (StringBuilder sb, Node node, String indent) {
+    for (Node c : node.children) {
+      emitState(sb, c, indent);
+    }
+
+    if (node.hasCells) {
+      emitCells(sb, node, indent);
+    }
+
+    if (node.parent != null && !node.isLeaf() && !node.isRegion) {
+      // composite trigger, handled if the active substate doesn't
+      compositeEvents.add("c" + node.level);
+      sb.append(indent).append("public void c").append(node.level).append(" () {\n");
+      sb.append(indent).append("  setNextState(").append(pickSibling(node)).append(");\n");
+      sb.append(indent).append("}\n");
+    }
+  }
+
+  void emitState (StringBuilder sb, Node node, String indent) {
+    nStates++;
+    sb.append('\n');
+    sb.append(indent).append("public class ").append(node.cls()).append(" extends State {\n");
+
+    String in = indent + "  ";
+    if (node.isLeaf()) {
+      emitLeafTriggers(sb, node, in);
+    } else {
+      emitBody(sb, node, in);
+    }
+
+    sb.append(indent).append("} final ").append(node.cls()).append(' ').append(node.field()).append(" = ");
+    boolean initial = node.isRegion || node.parent.children.get(0) == node;
+    if (initial) {
+      sb.append("makeInitial(new ").append(node.cls()).append("());\n");
+    } else {
+      sb.append("new ").append(node.cls()).append("();\n");
+    }
+  }
+
+  void emitLeafTriggers (StringBuilder sb, Node node, String indent) {
+    for (int i=0; i<triggers; i++) {
+      sb.append(indent).append("public void t").append(i).append(" () {\n");
+      emitSend(sb, indent + "  ");
+      sb.append(indent).append("  setNextState(").append(pickTarget(node)).append(");\n");
+      sb.append(indent).append("}\n");
+    }
+
+    int pass = (int) Math.round(guardSelectivity * domain);
+    for (int i=0; i<paramTriggers; i++) {
+      sb.append(indent).append("@Params(\"");
+      for (int v=0; v<domain; v++) {
+        if (v > 0) sb.append('|');
+        sb.append(v);
+      }
+      sb.append("\")\n");
+      sb.append(indent).append("public void p").append(i).append(" (int v) {\n");
+      sb.append(indent).append("  if (v < ").append(pass).append(") {\n");
+      emitSend(sb, indent + "    ");
+      sb.append(indent).append("    setNextState(").append(pickTarget(node)).append(");\n");
+      sb.append(indent).append("  }\n");
+      sb.append(indent).append("}\n");
+    }
+  }
+
+  void emitSend (StringBuilder sb, String indent) {
+    if (sendDensity > 0 && random.nextDouble() < sendDensity) {
+      // anonymous sends go to all active states
+      sb.append(indent).append("sendEvent(\"t").append(random.nextInt(triggers)).append("\");\n");
+    }
+  }
+
+  void emitCells (StringBuilder sb, Node node, String indent) {
+    String cls = "A" + node.id;
+    String arr = "a" + node.id;
+    nStates += arraySize;
+
+    sb.append('\n');
+    sb.append(indent).append("public class ").append(cls).append(" extends State {\n");
+    sb.append(indent).append("  int idx;\n");
+    sb.append(indent).append("  public void t0 () {\n");
+    sb.append(indent).append("    setNextState(").append(arr).append("[(idx+1) % ").append(arraySize).append("]);\n");
+    sb.append(indent).append("  }\n");
+    for (int i=1; i<triggers; i++) {
+      sb.append(indent).append("  public void t").append(i).append(" () {\n");
+      sb.append(indent).append("    setNextState(").append(node.children.get(random.nextInt(node.children.size())).field()).append(");\n");
+      sb.append(indent).append("  }\n");
+    }
+    sb.append(indent).append("} final ").append(cls).append("[] ").append(arr)
+      .append(" = new ").append(cls).append('[').append(arraySize).append("];\n");
+    sb.append(indent).append("{\n");
+    sb.append(indent).append("  for (int i=0; i<").append(arraySize).append("; i++) {\n");
+    sb.append(indent).append("    ").append(arr).append("[i] = new ").append(cls).append("();\n");
+    sb.append(indent).append("    ").append(arr).append("[i].idx = i;\n");
+    sb.append(indent).append("  }\n");
+    sb.append(indent).append("}\n");
+  }
+
+  String pickSibling (Node node) {
+    List<Node> siblings = node.parent.children;
+    return siblings.get(random.nextInt(siblings.size())).field();
+  }
+
+  String pickTarget (Node node) {
+    List<Node> siblings = node.parent.children;
+    int n = siblings.size();
+    if (node.parent.hasCells) {
+      int i = random.nextInt(n + 1);
+      return (i == n) ? "a" + node.parent.id + "[0]" : siblings.get(i).field();
+    } else {
+      return siblings.get(random.nextInt(n)).field();
+    }
+  }
+
+  /**
+   * the .es script, call after generateSource()
+   */
+  public String generateScript () {
+    if (events == null) {
+      generateSource();
+    }
+    Random r = new Random(seed + 1);
+
+    StringBuilder sb = new StringBuilder();
+    sb.append("// generated by gov.nasa.jpf.tools.sc.ChartGenerator for ").append(getClassName()).append("\n\n");
+
+    for (int i=0; i<scriptLength; i++) {
+      if (scriptChoices <= 1) {
+        sb.append(events.get(r.nextInt(events.size()))).append('\n');
+      } else {
+        ArrayList<String> pool = new ArrayList<String>(events);
+        int n = Math.min(scriptChoices, pool.size());
+        sb.append("ANY { ");
+        for (int j=0; j<n; j++) {
+          if (j > 0) sb.append(", ");
+          sb.append(pool.remove(r.nextInt(pool.size())));
+        }
+        sb.append(" }\n");
+      }
+    }
+    return sb.toString();
+  }
+
+  //--- output
+
+  /**
+   * write <name>.java and <name>.es into 'dir' (below the package path),
+   * returns the source file
+   */
+  public File writeTo (File dir) throws IOException {
+    if (packageName != null) {
+      dir = new File(dir, packageName.replace('.', File.separatorChar));
+    }
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("cannot create directory: " + dir);
+    }
+
+    File src = new File(dir, name + ".java");
+    write(src, generateSource());
+    write(new File(dir, name + ".es"), generateScript());
+    return src;
+  }
+
+  static void write (File f, String content) throws IOException {
+    FileWriter w = new FileWriter(f);
+    try {
+      w.write(content);
+    } finally {
+      w.close();
+    }
+  }
+
+  //--- in memory compilation
+
+  static class SourceObject extends SimpleJavaFileObject {
+    String source;
+
+    SourceObject (String clsName, String source) {
+      super(URI.create("string:///" + clsName.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+      this.source = source;
+    }
+
+    public CharSequence getCharContent (boolean ignoreEncodingErrors) {
+      return source;
+    }
+  }
+
+  static class ClassObject extends SimpleJavaFileObject {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    ClassObject (String clsName) {
+      super(URI.create("bytes:///" + clsName.replace('.', '/') + Kind.CLASS.extension), Kind.CLASS);
+    }
+
+    public OutputStream openOutputStream () {
+      return bytes;
+    }
+  }
+
+  static class ChartClassLoader extends ClassLoader {
+    HashMap<String,ClassObject> classes;
+
+    ChartClassLoader (ClassLoader parent, HashMap<String,ClassObject> classes) {
+      super(parent);
+      this.classes = classes;
+    }
+
+    protected Class<?> findClass (String clsName) throws ClassNotFoundException {
+      ClassObject co = classes.get(clsName);
+      if (co == null) {
+        throw new ClassNotFoundException(clsName);
+      }
+      byte[] b = co.bytes.toByteArray();
+      return defineClass(clsName, b, 0, b.length);
+    }
+  }
+
+  /**
+   * compile the generated source in memory and load it with a new class
+   * loader (child of the one that loaded State). Install that loader as the
+   * context class loader if the chart should be found by name
+   */
+  public Class<? extends State> compile () {
+    JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+    if (javac == null) {
+      throw new RuntimeException("no system Java compiler, ChartGenerator.compile() needs a JDK");
+    }
+
+    final HashMap<String,ClassObject> classes = new HashMap<String,ClassObject>();
+    StandardJavaFileManager sfm = javac.getStandardFileManager(null, null, null);
+    JavaFileManager fm = new ForwardingJavaFileManager<StandardJavaFileManager>(sfm) {
+      public JavaFileObject getJavaFileForOutput (Location location, String clsName,
+                                                  JavaFileObject.Kind kind, FileObject sibling) {
+        ClassObject co = new ClassObject(clsName);
+        classes.put(clsName, co);
+        return co;
+      }
+    };
+
+    String clsName = getClassName();
+    List<SourceObject> units = Arrays.asList(new SourceObject(clsName, generateSource()));
+    List<String> options = Arrays.asList("-classpath", System.getProperty("java.class.path"));
+    DiagnosticCollector<JavaFileObject> diag = new DiagnosticCollector<JavaFileObject>();
+
+    if (!javac.getTask(null, fm, diag, options, null, units).call()) {
+      StringBuilder sb = new StringBuilder("compilation of generated chart failed:");
+      for (Diagnostic<? extends JavaFileObject> d : diag.getDiagnostics()) {
+        sb.append("\n  ");
+        sb.append(d.toString());
+      }
+      throw new RuntimeException(sb.toString());
+    }
+
+    try {
+      ChartClassLoader cl = new ChartClassLoader(State.class.getClassLoader(), classes);
+      return cl.loadClass(clsName).asSubclass(State.class);
+    } catch (ClassNotFoundException cnfx) {
+      throw new RuntimeException("generated chart class not found: " + clsName);
+    }
+  }
+
+  //--- command line use
+
+  public static void main (String[] args) {
+    Config conf = JPF.createConfig(args);
+    ChartGenerator gen = new ChartGenerator(conf);
+    File dir = new File(conf.getString("sc.gen.dir", "."));
+
+    try {
+      File src = gen.writeTo(dir);
+      System.out.println("generated " + gen.getNumberOfStates() + " states: " + src.getPath());
+    } catch (IOException x) {
+      System.err.println("error writing chart: " + x.getMessage());
+    }
+  }
+}
@@ -0,0 +1,232 @@
+//
+// Copyright  (C) 2007 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+package gov.nasa.jpf.tools.sc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import gov.nasa.jpf.sc.State;
+import gov.nasa.jpf.sc.runtime.EventQueue;
+
+/**
+ * runs "what if" lookaheads of a live SimStateMachine on a thread pool.
+ * Each alternative is a sequence of events that is processed by a fork
+ * of the machine, the parent run is not affected.
+ *
+ * Note that forks have to be created on the thread that runs the parent
+ * machine, between two steps (the submit methods do this synchronously, only
+ * the child runs are asynchronous)
+ */
+public class ForkRunner {
+
+  /**
+   * the outcome of a forked run
+   */
+  public static class Result {
+    String name;
+    String[] events;
+    int startStep; // step of the parent when we forked
+    int steps;     // executed by the fork
+    String[] activeStates;
+    Throwable error;
+    long nanos;
+    String log;
+
+    public String getName() {
+      return name;
+    }
+
+    public String[] getEvents() {
+      return events;
+    }
+
+    /**
+     * number of steps the fork executed (not counting the parent steps)
+     */
+    public int getSteps() {
+      return steps;
+    }
+
+    public int getStartStep() {
+      return startStep;
+    }
+
+    public String[] getActiveStates() {
+      return activeStates;
+    }
+
+    public Throwable getError() {
+      return error;
+    }
+
+    public boolean succeeded() {
+      return (error == null);
+    }
+
+    public long getNanos() {
+      return nanos;
+    }
+
+    public String getLog() {
+      return log;
+    }
+
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      sb.append(name);
+      sb.append(": ");
+      sb.append(steps);
+      sb.append(" steps, active {");
+      if (activeStates != null) {
+        for (int i=0; i<activeStates.length; i++) {
+          if (i > 0) {
+            sb.append(',');
+          }
+          sb.append(activeStates[i]);
+        }
+      }
+      sb.append('}');
+      if (error != null) {
+        sb.append(", error: ");
+        sb.append(error);
+      }
+      sb.append(", ");
+      sb.append(nanos / 1000);
+      sb.append("us");
+      return sb.toString();
+    }
+  }
+
+  ExecutorService pool;
+
+  public ForkRunner (int nThreads) {
+    pool = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+      int n;
+      public synchronized Thread newThread (Runnable r) {
+        Thread t = new Thread(r, "sc-fork-" + n++);
+        t.setDaemon(true); // lookaheads should never keep the application alive
+        return t;
+      }
+    });
+  }
+
+  /**
+   * fork the machine and process the provided events in the child. Events
+   * can have receiver constraints ("receiver:event")
+   */
+  public Future<Result> submit (SimStateMachine machine, String name, StateCopier copier,
+                                String... events) {
+    EventQueue q = new EventQueue();
+    for (String e : events) {
+      q.post(e);
+    }
+    q.close();
+
+    final SimStateMachine child = machine.fork(copier, q);
+    final Result result = new Result();
+    result.name = name;
+    result.events = events;
+    result.startStep = child.getStep();
+
+    return pool.submit(new Callable<Result>() {
+      public Result call() {
+        long t0 = System.nanoTime();
+        try {
+          child.resume();
+        } catch (Throwable t) { // that includes our AssertionErrors
+          result.error = t;
+        }
+        result.nanos = System.nanoTime() - t0;
+        result.steps = child.getStep() - result.startStep;
+        result.activeStates = getActiveStateNames(child);
+        result.log = child.getForkLog();
+        return result;
+      }
+    });
+  }
+
+  /**
+   * run all alternatives and wait for their results. Alternatives that don't
+   * complete within the timeout are cancelled, and reported with a
+   * TimeoutException error
+   */
+  public List<Result> whatIf (SimStateMachine machine, StateCopier copier,
+                              long timeoutMillis, String[]... alternatives) {
+    ArrayList<Future<Result>> futures = new ArrayList<Future<Result>>();
+
+    for (int i=0; i<alternatives.length; i++) {
+      futures.add( submit(machine, "alternative-" + i, copier, alternatives[i]));
+    }
+
+    ArrayList<Result> results = new ArrayList<Result>();
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+    for (int i=0; i<futures.size(); i++) {
+      Future<Result> f = futures.get(i);
+      try {
+        long remaining = Math.max(0, deadline - System.nanoTime());
+        results.add( f.get(remaining, TimeUnit.NANOSECONDS));
+
+      } catch (TimeoutException tx) {
+        f.cancel(true);
+        Result r = new Result();
+        r.name = "alternative-" + i;
+        r.events = alternatives[i];
+        r.error = tx;
+        results.add(r);
+
+      } catch (InterruptedException ix) {
+        Thread.currentThread().interrupt();
+        break;
+
+      } catch (ExecutionException x) {
+        Result r = new Result();
+        r.name = "alternative-" + i;
+        r.events = alternatives[i];
+        r.error = x.getCause();
+        results.add(r);
+      }
+    }
+
+    return results;
+  }
+
+  public void shutdown () {
+    pool.shutdownNow();
+  }
+
+  static String[] getActiveStateNames (SimStateMachine machine) {
+    ArrayList<String> list = new ArrayList<String>();
+    for (int i=0; i<machine.getNumberOfStates(); i++) {
+      State s = machine.getState(i);
+      if (s.isActive() && !s.isEndState() && s.getFieldName() != null) {
+        list.add(s.getFieldName());
+      }
+    }
+    return list.toArray(new String[list.size()]);
+  }
+}
@@ -0,0 +1,476 @@
+//
+// Copyright  (C) 2007 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+
+package gov.nasa.jpf.tools.sc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.JPF;
+import gov.nasa.jpf.sc.MachineSnapshot;
+import gov.nasa.jpf.sc.State;
+import gov.nasa.jpf.sc.runtime.Checkpointer;
+import gov.nasa.jpf.sc.runtime.ColumnTraceReader;
+import gov.nasa.jpf.sc.runtime.ColumnTraceWriter;
+import gov.nasa.jpf.sc.runtime.EmbeddedStateMachine;
+import gov.nasa.jpf.sc.runtime.EventQueue;
+import gov.nasa.jpf.sc.runtime.EventJournal;
+import gov.nasa.jpf.sc.runtime.EventSource;
+import gov.nasa.jpf.sc.runtime.JournalCodec;
+import gov.nasa.jpf.sc.runtime.JournalReplay;
+import gov.nasa.jpf.sc.runtime.StateEvent;
+
+/**
+ * round trip check for the binary files we write from running machines.
+ * Each format is written by driving a machine through a fixed event
+ * sequence, and then read back and compared against what we wrote. We also
+ * damage the tail of each file the way a crash would, and check that the
+ * reader stops at the last complete record:
+ *
+ *   checkpoint  - Checkpointer full/delta records, including compaction
+ *   journal     - EventJournal records with all JournalCodec argument types,
+ *                 oversized records, and appending after a torn tail
+ *   replay      - JournalReplay of a live run (with a posted "timeout") has
+ *                 to end in the same configuration
+ *   column trace - ColumnTraceWriter rows over several blocks
+ *
+ * config:
+ *   sc.format.master  - master state class (default FixedPhone)
+ *   sc.format.events  - event names the machine is driven with, repeated
+ *   sc.format.rounds  - number of repetitions (default 50)
+ *   sc.format.dir     - where to put the files (default java.io.tmpdir)
+ *
+ * usage: java gov.nasa.jpf.tools.sc.FormatCheck [+key=value ..], or
+ * 'ant check-formats'. The process exits with 1 if a check fails.
+ */
+public class FormatCheck {
+
+  static final String[] DEFAULT_EVENTS = {
+    "liftReceiver", "dialDigit", "incompleteNumber", "dialDigit", "validNumber", "hangupReceiver"
+  };
+
+  // the Checkpointer file layout (see there)
+  static final int CP_HEADER_SIZE = 16;
+  static final int CP_RECORD_HEADER = 9;
+  static final byte CP_DELTA = 2;
+
+  String master;
+  String[] events;
+  int rounds;
+  File dir;
+
+  int nFailed;
+
+  public FormatCheck (Config conf) {
+    master = conf.getString("sc.format.master", "FixedPhone");
+    events = conf.getStringArray("sc.format.events", DEFAULT_EVENTS);
+    rounds = conf.getInt("sc.format.rounds", 50);
+    dir = new File(conf.getString("sc.format.dir", System.getProperty("java.io.tmpdir")));
+  }
+
+  void check (boolean cond, String what) {
+    System.out.println((cond ? "  ok      " : "  FAILED  ") + what);
+    if (!cond) {
+      nFailed++;
+    }
+  }
+
+  EventQueue createEvents () {
+    EventQueue q = new EventQueue();
+    for (int i=0; i<rounds; i++) {
+      for (String e : events) {
+        q.post(e);
+      }
+    }
+    q.close();
+    return q;
+  }
+
+  /**
+   * a machine that keeps a snapshot of each step, which is what the
+   * checkpoint of that step has to recover, and the values of each column
+   * trace row
+   */
+  static class Machine extends EmbeddedStateMachine {
+    ArrayList<MachineSnapshot> snapshots = new ArrayList<MachineSnapshot>();
+
+    ArrayList<Integer> steps = new ArrayList<Integer>();
+    ArrayList<String> eventIds = new ArrayList<String>();
+    ArrayList<BitSet> configs = new ArrayList<BitSet>();
+    ArrayList<int[]> fired = new ArrayList<int[]>(); // src,tgt pairs
+    int[] curFired = new int[0];
+    File columnFile; // the trace needs the registered states
+
+    protected void initialize () {
+      super.initialize();
+      if (columnFile != null) {
+        try {
+          setColumnTrace(new ColumnTraceWriter(columnFile, this, 64));
+        } catch (IOException x) {
+          throw new RuntimeException("cannot create column trace", x);
+        }
+      }
+    }
+
+    Machine (String master, EventSource src) {
+      super(createMasterState(master), src);
+    }
+
+    public boolean supportsLogging () {
+      return false;
+    }
+
+    void closeColumnTrace () throws IOException {
+      columnTrace.close();
+    }
+
+    protected void triggerFired (State src, State tgt) {
+      super.triggerFired(src, tgt);
+      int n = curFired.length;
+      curFired = Arrays.copyOf(curFired, n + 2);
+      curFired[n] = src.getId();
+      curFired[n+1] = tgt.getId();
+    }
+
+    protected void checkStep (int nFired) {
+      super.checkStep(nFired);
+      snapshots.add(snapshot());
+
+      steps.add(step);
+      eventIds.add((curEvent != null) ? curEvent.getId() : null);
+      BitSet config = new BitSet();
+      for (State s = nextActives; s != null; s = s.getNext()) {
+        config.set(s.getId());
+      }
+      configs.add(config);
+      fired.add(curFired);
+      curFired = new int[0];
+    }
+  }
+
+  static boolean isSame (MachineSnapshot a, MachineSnapshot b) {
+    if (a == null || b == null) {
+      return a == b;
+    }
+    if (a.getStep() != b.getStep() || a.getNumberOfStates() != b.getNumberOfStates()) {
+      return false;
+    }
+    for (int i=0; i<a.getNumberOfStates(); i++) {
+      if (a.isStateChanged(b, i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  //--- journal
+
+  static final int JOURNAL_EVENTS = 2000;
+
+  static Object[] createArgs (int i) {
+    switch (i % 8) {
+    case 0: return null;
+    case 1: return new Object[] { Integer.valueOf(i), Boolean.TRUE, "s" + i };
+    case 2: return new Object[] { Double.valueOf(i / 3.0), Double.valueOf(Double.NaN), Long.valueOf(Long.MIN_VALUE + i) };
+    case 3: return new Object[] { Float.valueOf(i / 7f), Byte.valueOf((byte)i), Short.valueOf((short)i), Character.valueOf((char)('a' + i % 26)) };
+    case 4: return new Object[] { TimeUnit.values()[i % TimeUnit.values().length], null, "" };
+    case 5: return new Object[] { "\u00e4\u00f6\u00fc \u4e2d", Integer.valueOf(-i) };
+    case 6: // bigger than the journal buffers
+      char[] c = new char[600];
+      Arrays.fill(c, (char)('A' + i % 26));
+      return new Object[] { new String(c) };
+    default:
+      return new Object[] { Boolean.FALSE };
+    }
+  }
+
+  static StateEvent createEvent (int i) {
+    if (i % 50 == 49) {
+      return new StateEvent(StateEvent.COMPLETION);
+    } else {
+      return new StateEvent(StateEvent.createId(null, "e" + (i % 13)), createArgs(i));
+    }
+  }
+
+  static void writeJournal (File file, int from, int to) throws IOException {
+    // small buffers, so that we also get stalls and oversized records
+    EventJournal journal = new EventJournal(file, 256, 2, 1, false);
+    for (int i=from; i<to; i++) {
+      journal.append(i, createEvent(i));
+    }
+    journal.close();
+  }
+
+  /**
+   * @return number of entries that match the events we wrote, -1 if there
+   * is one that doesn't
+   */
+  static int checkJournalEntries (File file) throws IOException {
+    int n = 0;
+    for (JournalCodec.Entry e : EventJournal.read(file)) {
+      if (e.type != JournalCodec.EVENT) {
+        continue;
+      }
+      StateEvent se = createEvent(n);
+      if (e.step != n || e.kind != JournalCodec.getKind(se) || !e.id.equals(se.getId()) ||
+          !Arrays.equals(e.args, se.getArguments())) {
+        System.out.println("  entry " + n + " differs: " + e);
+        return -1;
+      }
+      n++;
+    }
+    return n;
+  }
+
+  public void checkJournal () throws IOException {
+    System.out.println("journal");
+
+    File file = new File(dir, "sc-format.jrn");
+    file.delete();
+
+    writeJournal(file, 0, JOURNAL_EVENTS);
+    check(checkJournalEntries(file) == JOURNAL_EVENTS, "read " + JOURNAL_EVENTS + " events");
+
+    // cut the last record in half
+    long len = file.length();
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.setLength(len - 5);
+    } finally {
+      raf.close();
+    }
+    check(checkJournalEntries(file) == JOURNAL_EVENTS-1, "torn last record ignored");
+
+    // re-opening cuts the torn record and starts a new symbol segment
+    writeJournal(file, JOURNAL_EVENTS-1, 2*JOURNAL_EVENTS);
+    check(checkJournalEntries(file) == 2*JOURNAL_EVENTS, "appended after torn tail");
+
+    file.delete();
+  }
+
+  //--- journal replay
+
+  static final String[] REPLAY_EVENTS = { "timeout", "x" };
+
+  public void checkReplay () throws IOException {
+    System.out.println("replay");
+
+    File file = new File(dir, "sc-format-replay.jrn");
+    file.delete();
+
+    EventQueue q = new EventQueue();
+    for (String e : REPLAY_EVENTS) {
+      q.post(e);
+    }
+    q.close();
+    Machine live = new Machine("JournalTimeout", q);
+    EventJournal journal = new EventJournal(file, 256, 2, 1, false);
+    live.setJournal(journal);
+    live.run();
+    journal.close();
+
+    Machine replayed = new Machine("JournalTimeout", null);
+    replayed.setReplay(new JournalReplay(file, 0, null));
+    replayed.run();
+
+    MachineSnapshot last = live.snapshots.get(live.snapshots.size()-1);
+    MachineSnapshot lastReplayed = replayed.snapshots.isEmpty() ?
+                                     null : replayed.snapshots.get(replayed.snapshots.size()-1);
+    check(isSame(last, lastReplayed), "replayed " + live.snapshots.size() + " steps with posted timeout");
+
+    file.delete();
+  }
+
+  //--- column trace
+
+  /**
+   * @return number of rows that match what the machine did, -1 if there is
+   * one that doesn't
+   */
+  static int checkColumnRows (ColumnTraceReader r, Machine m) {
+    for (int row=0; row<r.getNumberOfRows(); row++) {
+      boolean same = (r.getStep(row) == m.steps.get(row));
+
+      String id = m.eventIds.get(row);
+      same &= (id == null) ? (r.getEvent(row) < 0) : id.equals(r.getEventId(row));
+
+      BitSet config = m.configs.get(row);
+      for (int i=0; i<r.getNumberOfStates(); i++) {
+        same &= (r.isActive(row, i) == config.get(i));
+      }
+
+      int[] f = m.fired.get(row);
+      same &= (r.getFiredCount(row) * 2 == f.length);
+      for (int i=0; same && i<f.length/2; i++) {
+        same &= (r.getFiredSource(row, i) == f[2*i]) && (r.getFiredTarget(row, i) == f[2*i+1]);
+      }
+
+      if (!same) {
+        System.out.println("  row " + row + " differs (step " + r.getStep(row) + ')');
+        return -1;
+      }
+    }
+    return (int)r.getNumberOfRows();
+  }
+
+  public void checkColumnTrace () throws IOException {
+    System.out.println("column trace");
+
+    File file = new File(dir, "sc-format.sct");
+    Machine m = new Machine(master, createEvents());
+    m.columnFile = file;
+    m.run();
+    m.closeColumnTrace();
+
+    int nRows = m.steps.size();
+    ColumnTraceReader r = new ColumnTraceReader(file);
+    int nBlocks = r.getNumberOfBlocks();
+    long lastBlock = r.getFirstRow(nBlocks - 1);
+    try {
+      check((r.getNumberOfRows() == nRows) && (checkColumnRows(r, m) == nRows),
+            "read " + nRows + " rows in " + nBlocks + " blocks");
+      check(r.getNumberOfStates() == m.getNumberOfStates() &&
+            r.getStateName(0).equals(m.getState(0).getName()), "state names");
+    } finally {
+      r.close();
+    }
+
+    // a crashed writer leaves a partial last block
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.setLength(raf.length() - 4);
+    } finally {
+      raf.close();
+    }
+    r = new ColumnTraceReader(file);
+    try {
+      check((r.getNumberOfRows() == lastBlock) && (checkColumnRows(r, m) == lastBlock),
+            "torn last block ignored, " + lastBlock + " rows left");
+    } finally {
+      r.close();
+    }
+
+    file.delete();
+  }
+
+  //--- checkpoints
+
+  public void checkCheckpoints () throws IOException {
+    System.out.println("checkpoint");
+
+    File file = new File(dir, "sc-format.ckpt");
+    file.delete();
+
+    // small enough to also compact because we run out of space
+    Checkpointer cp = new Checkpointer(file, 8192, 16);
+    Machine m = new Machine(master, createEvents());
+    m.setCheckpointer(cp, 1);
+    m.run();
+    cp.close();
+
+    ArrayList<MachineSnapshot> snapshots = m.snapshots;
+    MachineSnapshot last = snapshots.get(snapshots.size()-1);
+    check(isSame(last, Checkpointer.recover(file)),
+          "recovered step " + last.getStep() + " of " + snapshots.size() + " checkpoints");
+
+    // a crash while appending the next record leaves a record without a valid crc
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      int[] rec = getLastCheckpointRecord(raf);
+      int end = rec[0] + CP_RECORD_HEADER + rec[2];
+      if (end + CP_RECORD_HEADER + 4 < rec[3]) {
+        raf.seek(end);
+        raf.writeByte(CP_DELTA);
+        raf.writeInt(4);
+        raf.writeInt(0);
+        raf.writeInt(42);
+        check(isSame(last, Checkpointer.recover(file)), "torn append ignored");
+      }
+
+      // a torn last delta has to give us the checkpoint before it
+      if (rec[1] == CP_DELTA && rec[2] > 0) {
+        raf.seek(rec[0] + CP_RECORD_HEADER);
+        int b = raf.read();
+        raf.seek(rec[0] + CP_RECORD_HEADER);
+        raf.write(b ^ 0xff);
+        MachineSnapshot prev = snapshots.get(snapshots.size()-2);
+        check(isSame(prev, Checkpointer.recover(file)), "torn delta recovers step " + prev.getStep());
+      } else {
+        System.out.println("  skipped torn delta, the last checkpoint was compacted");
+      }
+    } finally {
+      raf.close();
+    }
+
+    file.delete();
+  }
+
+  /**
+   * @return {position, type, length, half limit} of the last record in the active half
+   */
+  static int[] getLastCheckpointRecord (RandomAccessFile raf) throws IOException {
+    int halfSize = (int)((raf.length() - CP_HEADER_SIZE) / 2);
+    raf.seek(8);
+    int pos = CP_HEADER_SIZE + raf.readInt() * halfSize;
+    int limit = pos + halfSize;
+    int[] rec = null;
+
+    while (pos + CP_RECORD_HEADER <= limit) {
+      raf.seek(pos);
+      byte type = raf.readByte();
+      if (type == 0) {
+        break;
+      }
+      int len = raf.readInt();
+      rec = new int[] { pos, type, len, limit };
+      pos += CP_RECORD_HEADER + len;
+    }
+    return rec;
+  }
+
+  public boolean checkAll () {
+    try {
+      checkCheckpoints();
+      checkJournal();
+      checkReplay();
+      checkColumnTrace();
+    } catch (IOException x) {
+      check(false, "i/o error: " + x);
+    }
+
+    return (nFailed == 0);
+  }
+
+  public static void main (String[] args) {
+    Config conf = JPF.createConfig(args);
+    FormatCheck check = new FormatCheck(conf);
+
+    if (!check.checkAll()) {
+      System.out.println(check.nFailed + " format checks failed");
+      System.exit(1);
+    }
+  }
+}
@@ -0,0 +1,178 @@
+//
+// Copyright  (C) 2007 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+package gov.nasa.jpf.tools.sc;
+
+import java.io.PrintWriter;
+
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.JPF;
+import gov.nasa.jpf.ListenerAdapter;
+import gov.nasa.jpf.jvm.ChoiceGenerator;
+import gov.nasa.jpf.jvm.ClassInfo;
+import gov.nasa.jpf.jvm.JVM;
+import gov.nasa.jpf.jvm.MJIEnv;
+import gov.nasa.jpf.jvm.MethodInfo;
+import gov.nasa.jpf.jvm.ThreadInfo;
+import gov.nasa.jpf.jvm.bytecode.INVOKEVIRTUAL;
+import gov.nasa.jpf.jvm.bytecode.Instruction;
+import gov.nasa.jpf.jvm.bytecode.ReturnInstruction;
+import gov.nasa.jpf.jvm.choice.sc.SCEvent;
+import gov.nasa.jpf.jvm.choice.sc.SCEventGenerator;
+import gov.nasa.jpf.report.ConsolePublisher;
+import gov.nasa.jpf.report.Publisher;
+import gov.nasa.jpf.report.PublisherExtension;
+import gov.nasa.jpf.sc.runtime.GuardProfile;
+import gov.nasa.jpf.search.Search;
+
+/**
+ * collect and report guard efficacy of trigger methods while model checking,
+ * i.e. how often the current event was offered to a trigger, how often the
+ * trigger executed and how often it fired. The cost of executions that didn't
+ * fire is measured in executed instructions, summed up over the whole search
+ * (which is what we pay for wasteful guards in model checking).
+ * SimStateMachine reports the same with sc.guard_profile
+ *
+ * offered is counted when StateMachine.executeTrigger() is called for a state,
+ * for the state and all its superStates that declare a method with the event
+ * name (this doesn't check receiver constraints or waits)
+ */
+public class GuardEfficacy extends ListenerAdapter implements PublisherExtension {
+
+  GuardProfile profile = new GuardProfile("insns");
+
+  ClassInfo ciState;
+  MethodInfo executeTriggerMth;
+  MethodInfo checkStepMth;
+
+  SCEvent curEvent; // from the last advanced SCEventGenerator
+
+  // the trigger method that currently executes
+  MethodInfo triggerMth;
+  int triggerDepth;
+  String triggerState;
+  int machineRef;
+  long nInsns;
+
+  public GuardEfficacy (Config conf, JPF jpf) {
+    jpf.addPublisherExtension(ConsolePublisher.class, this);
+  }
+
+  public GuardProfile getProfile () {
+    return profile;
+  }
+
+  String getStateName (MJIEnv env, int stateRef) {
+    int nameRef = env.getReferenceField(stateRef, "fieldName");
+    if (nameRef == MJIEnv.NULL) { // the masterState
+      nameRef = env.getReferenceField(stateRef, "typeName");
+    }
+    return env.getStringObject(nameRef);
+  }
+
+  boolean hasMethod (ClassInfo ci, String name) {
+    for (MethodInfo mi : ci) {
+      if (mi.getName().equals(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  //------------------- VMListener interface
+
+  public void vmInitialized (JVM vm) {
+    ciState = ClassInfo.getResolvedClassInfo("gov.nasa.jpf.sc.State");
+
+    ClassInfo ciMachine = ClassInfo.getResolvedClassInfo("gov.nasa.jpf.sc.StateMachine");
+    executeTriggerMth = ciMachine.getMethod("executeTrigger(Lgov/nasa/jpf/sc/State;)V", false);
+    checkStepMth = ciMachine.getMethod("checkStep(I)V", false);
+  }
+
+  public void choiceGeneratorAdvanced (JVM vm, ChoiceGenerator cg) {
+    if (cg instanceof SCEventGenerator) {
+      curEvent = ((SCEventGenerator)cg).getNextChoice();
+    }
+  }
+
+  public void executeInstruction (JVM vm, ThreadInfo ti, Instruction insn) {
+    if (triggerMth != null) {
+      nInsns++;
+
+      if (insn instanceof ReturnInstruction && insn.getMethodInfo() == triggerMth
+          && ti.getStackDepth() == triggerDepth) {
+        MJIEnv env = ti.getEnv();
+        boolean fired = env.getReferenceField(machineRef, "nextState") != MJIEnv.NULL;
+        profile.triggerExecuted(triggerState, triggerMth.getName(), fired, nInsns);
+        triggerMth = null;
+      }
+
+    } else if (curEvent != null) {
+      if (insn.getPosition() == 0) { // method entry, is it a trigger?
+        MethodInfo mi = insn.getMethodInfo();
+        if (mi.getName().equals(curEvent.getMethodName()) && mi.getClassInfo().isInstanceOf(ciState)) {
+          MJIEnv env = ti.getEnv();
+          int stateRef = ti.getThis();
+
+          triggerMth = mi;
+          triggerDepth = ti.getStackDepth();
+          triggerState = getStateName(env, stateRef);
+          machineRef = env.getReferenceField(stateRef, "machine");
+          nInsns = 0;
+          return;
+        }
+      }
+
+      if (insn instanceof INVOKEVIRTUAL) {
+        MethodInfo callee = ((INVOKEVIRTUAL)insn).getInvokedMethod(ti);
+
+        if (callee == executeTriggerMth) { // offered to the state on top of the operand stack
+          MJIEnv env = ti.getEnv();
+          String eventName = curEvent.getMethodName();
+
+          for (int sRef = ti.peek(); sRef != MJIEnv.NULL; sRef = env.getReferenceField(sRef, "superState")) {
+            if (hasMethod(env.getClassInfo(sRef), eventName)) {
+              profile.triggerOffered(getStateName(env, sRef), eventName);
+            }
+            if (curEvent.isCompletion()) {
+              break; // no recursive lookup
+            }
+          }
+
+        } else if (callee == checkStepMth) { // nFired is on top of the operand stack
+          profile.stepEnded(curEvent.isCompletion(), ti.peek());
+        }
+      }
+    }
+  }
+
+  //------------------- SearchListener interface
+
+  public void stateBacktracked (Search search) {
+    triggerMth = null; // a trigger that didn't return (e.g. exception or break)
+  }
+
+  //------------------- PublisherExtension interface
+
+  public void publishFinished (Publisher publisher) {
+    PrintWriter out = publisher.getOut();
+    publisher.publishTopicStart("guard efficacy");
+    profile.printOn(out);
+  }
+}
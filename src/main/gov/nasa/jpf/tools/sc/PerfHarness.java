@@ -0,0 +1,390 @@
+//
+// Copyright  (C) 2007 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+package gov.nasa.jpf.tools.sc;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.JPF;
+import gov.nasa.jpf.JPFShell;
+import gov.nasa.jpf.search.Search;
+import gov.nasa.jpf.search.SearchListenerAdapter;
+
+/**
+ * runs JPF on a set of example configurations under all combinations of the
+ * send event policies (sc.priority_base, sc.send_queue, sc.send_super), and
+ * records state space and resource figures per run into a CSV file. If
+ * there is a baseline file (same format), results that got worse by more
+ * than the configured tolerance are reported as regressions. The idea is
+ * to notice state space blowups after model edits before runs time out.
+ *
+ * config (all optional):
+ *   sc.perf.runs           - .jpf files, or example classes (script <class>.es), relative to sc.perf.basedir
+ *   sc.perf.priority_base  - default "queue,local,top,total"
+ *   sc.perf.send_queue     - default "true,false"
+ *   sc.perf.send_super     - default "true,false"
+ *   sc.perf.args           - additional JPF args for each run
+ *   sc.perf.results        - result file, default "perf-results.csv"
+ *   sc.perf.baseline       - baseline result file to compare with
+ *   sc.perf.tolerance      - relative increase of new/visited states and depth that is a regression (0.05)
+ *   sc.perf.time_tolerance - same for wall time and peak heap, which are noisy (0.5)
+ *   sc.perf.min_time       - don't compare times/heap of runs that took less than this many ms (500)
+ *
+ * usage: java gov.nasa.jpf.tools.sc.PerfHarness [+sc.perf.<key>=<value> ..]
+ * or 'ant run-perf'. The process exits with 1 if there were regressions.
+ *
+ * <2do> all runs execute in this VM, so peak heap includes what previous
+ * runs left behind until they get collected (we gc before each run)
+ */
+public class PerfHarness implements JPFShell {
+
+  static final String[] DEFAULT_RUNS = {
+    "src/examples/jpfESAS/CEV_15EOR_LOR-nominal.jpf",
+    "src/examples/jpfESAS/CEV_15EOR_LOR-tli.jpf",
+    "src/examples/jpfESAS/CEV_15EOR_LOR-safehold.jpf",
+    "src/examples/jpfESAS/CEV_15EOR_LOR-las-defect.jpf",
+    "src/examples/jpfESAS/CEV_15EOR_LOR-ascent-guards.jpf",
+    "Array1", "Completion1", "CompletionSend", "FixedPhone", "Ortho1",
+    "PrioritySend", "ReceiverConstraints", "SendEvents1", "SendEvents2", "Wildcards"
+  };
+
+  static final String HEADER =
+    "run,priority_base,send_queue,send_super,new_states,visited_states,max_depth,wall_ms,peak_heap,states_per_sec,errors";
+
+  /**
+   * the figures of one JPF run
+   */
+  static class Result {
+    String run;
+    String priorityBase;
+    boolean sendQueue;
+    boolean sendSuper;
+
+    long newStates;
+    long visitedStates;
+    int maxDepth;
+    long wallTime;  // ms
+    long peakHeap;  // bytes
+    boolean errors;
+
+    String getKey () {
+      return run + ',' + priorityBase + ',' + sendQueue + ',' + sendSuper;
+    }
+
+    long getStatesPerSec () {
+      return (wallTime > 0) ? (newStates * 1000 / wallTime) : newStates;
+    }
+
+    String toCSV () {
+      return getKey() + ',' + newStates + ',' + visitedStates + ',' + maxDepth + ',' +
+             wallTime + ',' + peakHeap + ',' + getStatesPerSec() + ',' + errors;
+    }
+  }
+
+  /**
+   * counts states while JPF searches
+   */
+  static class StateCounter extends SearchListenerAdapter {
+    long newStates;
+    long visitedStates;
+    int maxDepth;
+
+    public void stateAdvanced (Search search) {
+      if (search.isNewState()) {
+        newStates++;
+      } else {
+        visitedStates++;
+      }
+      int depth = search.getDepth();
+      if (depth > maxDepth) {
+        maxDepth = depth;
+      }
+    }
+  }
+
+  Config config;
+  File baseDir;
+  String[] runs;
+  String[] priorityBases;
+  boolean[] sendQueues;
+  boolean[] sendSupers;
+  String[] extraArgs;
+
+  File resultFile;
+  File baselineFile;
+  double tolerance;
+  double timeTolerance;
+  long minTime;
+
+  public PerfHarness (Config conf) {
+    config = conf;
+    baseDir = new File(conf.getString("sc.perf.basedir", "."));
+
+    runs = getList(conf, "sc.perf.runs", DEFAULT_RUNS);
+    priorityBases = getList(conf, "sc.perf.priority_base", new String[] {"queue", "local", "top", "total"});
+    sendQueues = getBooleans(conf, "sc.perf.send_queue");
+    sendSupers = getBooleans(conf, "sc.perf.send_super");
+    extraArgs = getList(conf, "sc.perf.args", new String[0]);
+
+    resultFile = new File(conf.getString("sc.perf.results", "perf-results.csv"));
+    String baseline = conf.getString("sc.perf.baseline");
+    if (baseline != null) {
+      baselineFile = new File(baseline);
+    }
+    tolerance = conf.getDouble("sc.perf.tolerance", 0.05);
+    timeTolerance = conf.getDouble("sc.perf.time_tolerance", 0.5);
+    minTime = conf.getLong("sc.perf.min_time", 500);
+  }
+
+  static String[] getList (Config conf, String key, String[] defaultValues) {
+    String[] v = conf.getStringArray(key);
+    return (v != null && v.length > 0) ? v : defaultValues;
+  }
+
+  static boolean[] getBooleans (Config conf, String key) {
+    String[] v = getList(conf, key, new String[] {"true", "false"});
+    boolean[] b = new boolean[v.length];
+    for (int i=0; i<v.length; i++) {
+      b[i] = Boolean.parseBoolean(v[i]);
+    }
+    return b;
+  }
+
+  public void start (String[] args) {
+    ArrayList<Result> results = new ArrayList<Result>();
+
+    for (String run : runs) {
+      for (String priorityBase : priorityBases) {
+        for (boolean sendQueue : sendQueues) {
+          for (boolean sendSuper : sendSupers) {
+            Result r = runJPF(run, priorityBase, sendQueue, sendSuper);
+            System.out.println("@@ " + r.toCSV());
+            results.add(r);
+          }
+        }
+      }
+    }
+
+    try {
+      writeResults(results);
+    } catch (IOException x) {
+      System.err.println("error writing results: " + x.getMessage());
+    }
+
+    int nRegressions = 0;
+    if (baselineFile != null) {
+      try {
+        nRegressions = compare(results, readResults(baselineFile));
+      } catch (IOException x) {
+        System.err.println("error reading baseline: " + x.getMessage());
+      }
+    }
+
+    System.out.println("@@ " + results.size() + " runs, " + nRegressions + " regressions, results in " + resultFile);
+    if (nRegressions > 0) {
+      System.exit(1);
+    }
+  }
+
+  String[] getJPFArgs (String run, String priorityBase, boolean sendQueue, boolean sendSuper) {
+    ArrayList<String> args = new ArrayList<String>();
+
+    if (run.endsWith(".jpf")) {
+      args.add(new File(baseDir, run).getPath());
+    } else {
+      // a top level example, with the jpfESAS settings
+      args.add("+target=gov.nasa.jpf.sc.StateMachine");
+      args.add("+target.args=" + run);
+      args.add("+classpath=${jpf-statechart}/build/examples");
+      args.add("+native_classpath=${jpf-statechart}/build/examples");
+      args.add("+choice.class=.jvm.choice.sc.SCEventGenerator");
+      args.add("+choice.exclude=completion");
+      File script = new File(baseDir, "src/examples/" + run + ".es");
+      if (script.isFile()) {
+        args.add("+sc.script=" + script.getPath());
+      }
+    }
+
+    args.add("+sc.priority_base=" + priorityBase);
+    args.add("+sc.send_queue=" + sendQueue);
+    args.add("+sc.send_super=" + sendSuper);
+    args.add("+log.info=");  // we measure the search, not the log output
+    args.add("+sc.history=0");
+
+    for (String a : extraArgs) {
+      args.add(a);
+    }
+    return args.toArray(new String[args.size()]);
+  }
+
+  Result runJPF (String run, String priorityBase, boolean sendQueue, boolean sendSuper) {
+    Result r = new Result();
+    r.run = run;
+    r.priorityBase = priorityBase;
+    r.sendQueue = sendQueue;
+    r.sendSuper = sendSuper;
+
+    Config conf = JPF.createConfig(getJPFArgs(run, priorityBase, sendQueue, sendSuper));
+    StateCounter counter = new StateCounter();
+
+    System.gc();
+    List<MemoryPoolMXBean> pools = getHeapPools();
+    long t = System.currentTimeMillis();
+
+    try {
+      JPF jpf = new JPF(conf);
+      jpf.addListener(counter);
+      jpf.run();
+      r.errors = jpf.foundErrors();
+
+    } catch (Throwable x) {
+      // count it as an error, the run is probably broken anyways
+      System.err.println("@@ run failed: " + run + " : " + x);
+      r.errors = true;
+    }
+
+    r.wallTime = System.currentTimeMillis() - t;
+    r.peakHeap = getPeakHeap(pools);
+    r.newStates = counter.newStates;
+    r.visitedStates = counter.visitedStates;
+    r.maxDepth = counter.maxDepth;
+
+    return r;
+  }
+
+  static List<MemoryPoolMXBean> getHeapPools () {
+    ArrayList<MemoryPoolMXBean> list = new ArrayList<MemoryPoolMXBean>();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+        pool.resetPeakUsage();
+        list.add(pool);
+      }
+    }
+    return list;
+  }
+
+  // sum of the pool peaks - an upper bound, the pools don't peak at the same time
+  static long getPeakHeap (List<MemoryPoolMXBean> pools) {
+    long peak = 0;
+    for (MemoryPoolMXBean pool : pools) {
+      peak += pool.getPeakUsage().getUsed();
+    }
+    return peak;
+  }
+
+  //--- results and baseline
+
+  void writeResults (List<Result> results) throws IOException {
+    PrintWriter pw = new PrintWriter(new FileWriter(resultFile));
+    try {
+      pw.println(HEADER);
+      for (Result r : results) {
+        pw.println(r.toCSV());
+      }
+    } finally {
+      pw.close();
+    }
+  }
+
+  static HashMap<String,Result> readResults (File file) throws IOException {
+    HashMap<String,Result> map = new HashMap<String,Result>();
+    BufferedReader br = new BufferedReader(new FileReader(file));
+    try {
+      String line = br.readLine();
+      if (line == null || !line.equals(HEADER)) {
+        throw new IOException("not a result file: " + file);
+      }
+
+      while ((line = br.readLine()) != null) {
+        String[] f = line.split(",");
+        if (f.length != 11) {
+          continue; // ignore what we don't understand
+        }
+        Result r = new Result();
+        r.run = f[0];
+        r.priorityBase = f[1];
+        r.sendQueue = Boolean.parseBoolean(f[2]);
+        r.sendSuper = Boolean.parseBoolean(f[3]);
+        r.newStates = Long.parseLong(f[4]);
+        r.visitedStates = Long.parseLong(f[5]);
+        r.maxDepth = Integer.parseInt(f[6]);
+        r.wallTime = Long.parseLong(f[7]);
+        r.peakHeap = Long.parseLong(f[8]);
+        // f[9] (states/sec) is derived
+        r.errors = Boolean.parseBoolean(f[10]);
+        map.put(r.getKey(), r);
+      }
+    } finally {
+      br.close();
+    }
+    return map;
+  }
+
+  int compare (List<Result> results, HashMap<String,Result> baseline) {
+    int n = 0;
+
+    for (Result r : results) {
+      Result b = baseline.get(r.getKey());
+      if (b == null) {
+        System.out.println("@@ no baseline: " + r.getKey());
+        continue;
+      }
+
+      n += check(r, "new_states", r.newStates, b.newStates, tolerance);
+      n += check(r, "visited_states", r.visitedStates, b.visitedStates, tolerance);
+      n += check(r, "max_depth", r.maxDepth, b.maxDepth, tolerance);
+      if (b.wallTime >= minTime) {
+        n += check(r, "wall_ms", r.wallTime, b.wallTime, timeTolerance);
+        n += check(r, "peak_heap", r.peakHeap, b.peakHeap, timeTolerance);
+      }
+      if (r.errors != b.errors) {
+        System.out.println("@@ REGRESSION " + r.getKey() + " errors: " + b.errors + " -> " + r.errors);
+        n++;
+      }
+    }
+
+    return n;
+  }
+
+  static int check (Result r, String what, long value, long base, double tolerance) {
+    if (value > base * (1.0 + tolerance)) {
+      System.out.println("@@ REGRESSION " + r.getKey() + ' ' + what + ": " + base + " -> " + value);
+      return 1;
+    }
+    return 0;
+  }
+
+  public static void main (String[] args) {
+    Config conf = JPF.createConfig(args);
+    PerfHarness harness = new PerfHarness(conf);
+    harness.start(args);
+  }
+}
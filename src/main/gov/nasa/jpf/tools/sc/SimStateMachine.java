@@ -19,16 +19,17 @@
 package gov.nasa.jpf.tools.sc;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
-import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.HashSet;
@@ -46,9 +47,19 @@ import gov.nasa.jpf.jvm.choice.sc.SCEventSingleChoice;
 import gov.nasa.jpf.jvm.choice.sc.SCScriptEnvironment;
 import gov.nasa.jpf.jvm.choice.sc.SentSCEvent;
 import gov.nasa.jpf.sc.EventSpec;
+import gov.nasa.jpf.sc.MachineSnapshot;
 import gov.nasa.jpf.sc.PendingEventQueue;
 import gov.nasa.jpf.sc.State;
-import gov.nasa.jpf.sc.StateMachine;
+import gov.nasa.jpf.sc.runtime.ColumnTraceWriter;
+import gov.nasa.jpf.sc.runtime.EmbeddedStateMachine;
+import gov.nasa.jpf.sc.runtime.EventSource;
+import gov.nasa.jpf.sc.runtime.GuardProfile;
+import gov.nasa.jpf.sc.runtime.JfrEvents;
+import gov.nasa.jpf.sc.runtime.LogRing;
+import gov.nasa.jpf.sc.runtime.NameMatcher;
+import gov.nasa.jpf.sc.runtime.QueueMetrics;
+import gov.nasa.jpf.sc.runtime.StateEvent;
+import gov.nasa.jpf.sc.runtime.StepProfiler;
 import gov.nasa.jpf.util.StringSetMatcher;
 import gov.nasa.jpf.util.script.ESParser;
 import gov.nasa.jpf.util.script.Event;
@@ -58,8 +69,11 @@ import gov.nasa.jpf.util.script.Event;
  * SimStateMachine uses the same model classes like JPF, so make sure
  * you have the model classes in the classpath when you run it. There
  * is an interactive mode that lets you choose the next event on every step
+ *
+ * trigger and action execution is inherited from EmbeddedStateMachine, this
+ * adds scripts, choice generators and our ad hoc property checks
  */
-public class SimStateMachine extends StateMachine implements JPFShell {
+public class SimStateMachine extends EmbeddedStateMachine implements JPFShell, QueueMetrics.Listener {
 
   static final String ALL = "<all>";
 
@@ -83,27 +97,101 @@ public class SimStateMachine extends StateMachine implements JPFShell {
   BufferedReader in; // for input commands
   PrintWriter out = new PrintWriter(new OutputStreamWriter(System.out)); // for simplistic logging
 
+  // synchronous until we know the configured level, see initialize()
+  LogRing logRing = new LogRing(out, "[SC] ", LogRing.FINE);
+
   // some ad hoc property checks
   boolean checkNoActiveStates;
   boolean checkNoUnhandledEvents;
   HashSet<String> neverVisit;
   HashSet<String> alwaysVisit;
-  int maxSteps;
   
   // this is where we get our events from (usually scripted)
   SCScriptEnvironment scriptEnv;
 
 
   SCEventGenerator curCG;
-  SCEvent curEvent;
 
-  boolean guardedCompletion;
+  // if this is a forked child, this is where its log goes
+  StringWriter forkLog;
+
+  // binary trace support
+  long seed;
+  TraceRecorder traceRecorder;
+  TraceReplayer traceReplayer;
   
   public SimStateMachine (Config config){
     if (!initialize( config)){
       throw new RuntimeException("statemachine did not initialize");
     }
   }
+
+  /**
+   * the fork ctor - this shares the configuration of the parent, but has its
+   * own master state instance, gets its events from the provided source,
+   * and never asks for user input
+   */
+  protected SimStateMachine (SimStateMachine parent, State master, EventSource eventSource) {
+    checkNoActiveStates = parent.checkNoActiveStates;
+    checkNoUnhandledEvents = parent.checkNoUnhandledEvents;
+    neverVisit = parent.neverVisit;
+    alwaysVisit = parent.alwaysVisit;
+    maxSteps = parent.maxSteps;
+    consumeOnce = parent.consumeOnce;
+
+    forkLog = new StringWriter();
+    out = new PrintWriter(forkLog);
+    logRing.close();
+    logRing = new LogRing(out, "[SC] ", parent.logRing.getLevel());
+    logging = parent.logging;
+
+    this.eventSource = eventSource;
+    setMasterState(master);
+  }
+
+  /**
+   * create a child machine that continues from the current configuration of
+   * this one, processing the events of the provided source. The child gets a
+   * new master state instance (so it doesn't interfere with our run), its
+   * configuration is copied from a snapshot, and the model specific fields
+   * are copied by the optional StateCopier.
+   *
+   * This has to be called between steps, from the thread that runs this
+   * machine. The child can then run on any thread (see ForkRunner)
+   */
+  public SimStateMachine fork (StateCopier copier, EventSource eventSource) {
+    MachineSnapshot snapshot = snapshot();
+
+    State master = createMasterState(masterState.getClass().getName());
+    if (master == null) {
+      throw new RuntimeException("cannot fork, masterState did not instantiate: " +
+                                 masterState.getClass().getName());
+    }
+
+    SimStateMachine child = new SimStateMachine(this, master, eventSource);
+    child.restore(snapshot);
+
+    if (copier != null) {
+      for (int i=0; i<getNumberOfStates(); i++) {
+        copier.copy(getState(i), child.getState(i));
+      }
+    }
+
+    return child;
+  }
+
+  public boolean isFork() {
+    return (forkLog != null);
+  }
+
+  public String getForkLog() {
+    if (forkLog != null) {
+      out.flush();
+      return forkLog.toString();
+    } else {
+      return null;
+    }
+  }
   
   public void start(String[] args){
     arguments = args;
@@ -120,6 +208,12 @@ public class SimStateMachine extends StateMachine implements JPFShell {
   protected boolean initialize (Config conf) {
     int i=0;
     String[] args = conf.getTargetArgs();
+
+    // 'fine' also logs the active states and sent events, 'info' only
+    // steps and transitions. Formatting and output is done asynchronously
+    logRing.close();
+    logRing = new LogRing(out, "[SC] ", LogRing.parseLevel(conf.getString("sc.log_level")),
+                          conf.getInt("sc.log_buffer", 1024));
     
     if (args.length >= 1) {
       
@@ -179,19 +273,81 @@ public class SimStateMachine extends StateMachine implements JPFShell {
       sendSuper = conf.getBoolean("sc.send_super", true);
       selfPriority = conf.getBoolean("sc.self_priority", true);
 
+      // these are static, so we have to reset them if there are several runs per VM.
+      // default is state pendingEvents queue order
       String priorityBase = conf.getString("sc.priority_base");
-      if ("local".equals(priorityBase)) {
-        localPriorities = true;
-      } else if ("top".equals(priorityBase)) {
-        topPriority = true;
-      } else if ("total".equals(priorityBase)) {
-        totalOrder = true;
-      } else {
-        // default is state pendingEvents queue order
-      }
+      localPriorities = "local".equals(priorityBase);
+      topPriority = "top".equals(priorityBase);
+      totalOrder = "total".equals(priorityBase);
       
       maxSteps = conf.getInt("sc.max_steps", -1);
 
+      // event routing policy
+      consumeOnce = conf.getBoolean("sc.consume_once", false);
+
+      // binary traces - a replay uses the recorded seed and runs non-interactive
+      seed = conf.getLong("sc.seed", 42);
+      try {
+        String traceFile = conf.getString("sc.trace.replay");
+        if (traceFile != null) {
+          traceReplayer = new TraceReplayer(traceFile);
+          if (!traceReplayer.getMasterType().equals(master.getClass().getName())) {
+            log("trace was recorded for different masterState: " + traceReplayer.getMasterType());
+            return false;
+          }
+          seed = traceReplayer.getSeed();
+          runInteractive = false;
+        }
+
+        traceFile = conf.getString("sc.trace.record");
+        if (traceFile != null) {
+          traceRecorder = new TraceRecorder(traceFile, seed, master.getClass().getName());
+        }
+
+        // columnar step trace for offline analysis of long runs
+        traceFile = conf.getString("sc.trace.columns");
+        if (traceFile != null) {
+          columnTrace = new ColumnTraceWriter(new File(traceFile), this,
+                  conf.getInt("sc.trace.block_rows", ColumnTraceWriter.DEFAULT_BLOCK_ROWS));
+        }
+      } catch (IOException x) {
+        log("error opening trace file: " + x.getMessage());
+        return false;
+      }
+      random.setSeed(seed);
+
+      // dwell and trigger/action latency histograms, printed at the end
+      if (conf.getBoolean("sc.profile", false)) {
+        setProfiler(new StepProfiler(conf.getInt("sc.profile.precision", 3)));
+      }
+
+      // which guards waste the most work, printed at the end
+      if (conf.getBoolean("sc.guard_profile", false)) {
+        setGuardProfile(new GuardProfile());
+      }
+
+      // the last steps, dumped if the run fails (0 turns it off)
+      setHistorySize(conf.getInt("sc.history", 32));
+
+      // pending event queue depths and ages, with alarms for runaway sends
+      if (conf.getBoolean("sc.queue_metrics", false)) {
+        QueueMetrics qm = new QueueMetrics();
+        qm.setMaxDepth(conf.getInt("sc.queue.max_depth", 0));
+        qm.setMaxAge(conf.getLong("sc.queue.max_age", 0) * 1000000L); // in ms
+        qm.setListener(this);
+        setQueueMetrics(qm);
+      }
+
+      // JFR events while a flight recording is running
+      if (conf.getBoolean("sc.jfr", false)) {
+        setJfrEvents(true);
+      }
+
+      // watch the run with JMX tools (gov.nasa.jpf.sc:type=StateMachine)
+      if (conf.getBoolean("sc.jmx", false)) {
+        registerMBean();
+      }
+
       showMachine = conf.getBoolean("sc.show_machine", false);
 
       if (runInteractive) { // <2do> abstract so that we can use it in a UI
@@ -232,6 +388,7 @@ public class SimStateMachine extends StateMachine implements JPFShell {
         return 0; // automatically return the only choice
       }
       
+      logRing.flush();
       out.print("[SC] enter command: " + cg.toShortString() + " >");
       out.flush();
 
@@ -251,6 +408,7 @@ public class SimStateMachine extends StateMachine implements JPFShell {
           }
           
           if (r <= 0 || r > n) {
+            logRing.flush();
             out.print("[SC] illegal input (valid numbers [1.." + n + "] or 'q' for quit), try again:");
             out.flush();
           } else {
@@ -270,27 +428,6 @@ public class SimStateMachine extends StateMachine implements JPFShell {
     }
   }
 
-  public String getEventId (){
-    if (curEvent != null){
-      return curEvent.getId();
-    } else {
-      return null;
-    }
-  }
-
-  public Object[] getEventArguments (){
-    if (curEvent != null){
-      Object[] args = curEvent.getArguments();
-      if (args != null){
-        return args;
-      } else {
-        return new Object[0];
-      }
-    } else {
-      return null;
-    }
-  }
-
   ArrayList<SCEvent> getAlphabet (State first,
                                   StringSetMatcher receiverMatcher, StringSetMatcher idMatcher){
     ArrayList<State> states = new ArrayList<State>();
@@ -390,18 +527,6 @@ public class SimStateMachine extends StateMachine implements JPFShell {
     return null;
   }
 
-  boolean hasCompletionTrigger() {
-    for (State s = activeStates; s!=null; s=s.getNext()) {
-      Class<?> cls = s.getClass();
-      try {
-        if (cls.getDeclaredMethod(SCEvent.COMPLETION) != null){
-          return true;
-        }
-      } catch (NoSuchMethodException x) {}
-    }
-    return false;
-  }
-
   boolean hasTimeTrigger() {
     for (State s = activeStates; s!=null; s=s.getNext()) {
       for (State state = s; state!= null; state = state.getSuperState()) {
@@ -617,6 +742,10 @@ public class SimStateMachine extends StateMachine implements JPFShell {
    */  
   SCEventGenerator createCGFromPendingEvents (String id) {
     ArrayList<SCEvent> list = new ArrayList<SCEvent>();
+    JfrEvents.PendingEvent pe = isJfrRecording() ? new JfrEvents.PendingEvent() : null;
+    if (pe != null) {
+      pe.begin();
+    }
     
     if (totalOrder) { // this is not a real choice, it only returns one event max
       addFirstTopPriorityPendingEvent(list);
@@ -652,12 +781,21 @@ public class SimStateMachine extends StateMachine implements JPFShell {
       }  
     }
 
+    if (pe != null) {
+      pe.end();
+      commitPendingEvent(pe, list.isEmpty() ? null : list.get(0), list.size());
+    }
+
     return createCGFromEvents(id,list);
   }
 
   
   // we only do the logging here
   public void sendEvent (State target, String eventName, Object[] args){
+    if (!logRing.isLoggable(LogRing.FINE)) {
+      return;
+    }
+
     StringBuilder sb = new StringBuilder();
     sb.append("send ");
     sb.append(eventName);
@@ -672,13 +810,23 @@ public class SimStateMachine extends StateMachine implements JPFShell {
     sb.append(" to: ");
     sb.append(target.getName() != null ? target.getName() : "ALL");
 
-    log(sb.toString());
+    logRing.log(LogRing.FINE, sb.toString());
   }
 
 
   static final String CG_ID = "getEnablingEvent";
 
   protected boolean getEnablingEvent() {
+    if (isFork()) { // forks don't have choices, they just process their events
+      curCG = null;
+      return super.getEnablingEvent();
+    }
+
+    if (traceReplayer != null && !traceReplayer.hasMoreSteps()) {
+      log("end of replayed trace");
+      return false;
+    }
+
     SCEventGenerator cg = null;
     String[] stateNames = getStateNames(activeStates);
     BitSet isReEntered = getReEnteredStates(activeStates);
@@ -726,11 +874,23 @@ public class SimStateMachine extends StateMachine implements JPFShell {
     curCG = cg;
     if (cg != null) {
 
-      int r = getNextEvent(cg);
+      int r;
+      if (traceReplayer != null) {
+        r = (cg.getTotalNumberOfChoices() > 0) ? traceReplayer.selectChoice(step+1, cg) : -1;
+      } else {
+        r = getNextEvent(cg);
+      }
+
       if (r >=0 ){
         cg.reset();
         cg.select(r+1);
-        log("processing event: " + cg.getNextChoice());
+
+        selectEvent(cg.getNextChoice());
+        if (logRing.isLoggable(LogRing.INFO)) { // events are mutable, format them here
+          logRing.log(LogRing.INFO, "processing event: ", curEvent.toString());
+        }
+      } else {
+        selectEvent(null);
       }
 
       return true;
@@ -739,116 +899,89 @@ public class SimStateMachine extends StateMachine implements JPFShell {
     }
   }
 
-  protected void executeEntryAction (State state) {
-    try {
-      state.executeEntryAction();
-    } catch (Throwable t) {
-      executionError(t);
+  /**
+   * this time we get the event from the current choice generator
+   */
+  protected StateEvent getCurrentEvent () {
+    if (isFork()) {
+      return curEvent;
     }
-  }
 
-  protected void executeExitAction (State state) {
-    try {
-      state.executeExitAction();
-    } catch (Throwable t) {
-      executionError(t);
-    }
+    assert curCG != null;
+    curEvent = curCG.getNextChoice();
+    return curEvent;
   }
 
-  protected void executeDoAction (State state) {
-    try {
-      state.executeDoAction();
-    } catch (Throwable t) {
-      executionError(t);
+  protected void executionError (Throwable t) {
+    if (t instanceof InvocationTargetException) {
+      t = t.getCause();
     }
-  }
 
-  /**
-   * check if the method name is in the wait event list. If it is, remove
-   * it.
-   *
-   * @return true if the wait list is empty
-   */
+    if (isFork()) { // that's for our ForkRunner to report
+      super.executionError(t);
+    }
 
-  boolean checkUnBlocked (State s, Method m) {
-    EventSpec e = s.getWaitEvent();
-    EventSpec prev = null;
+    closeTraces(); // failed runs are the ones we want to replay
+    logRing.close();
+    if (observers != null) {
+      observers.close();
+    }
+    if (history != null) {
+      dumpHistory(out);
+    }
+    t.printStackTrace();
+    System.exit(1);
+  }
 
-    while (e != null) {
-      if (e.matches(m)) {
-        if (prev == null) {
-          s.removeWaitEvent();
-          return (s.getWaitEvent() == null);
-        } else {
-          prev.setNext(e.getNext());
-          return false;
-        }
+  protected void historyOnError (Throwable t) {
+    if (!isFork()) {
+      closeTraces(); // this escapes run()
+      logRing.close();
+      if (observers != null) {
+        observers.close();
+      }
+      if (history != null) {
+        out.println("step history at " + t);
+        dumpHistory(out);
       }
-
-      e = e.getNext();
     }
-
-    return true;
   }
 
   /**
-   * returns true if the current event has a matching signal trigger, which does not
-   * necessarily mean the guards hold and we have a transition
+   * write the buffered tails of the trace files. Called at the end of the
+   * run, and on errors before we bail out
    */
-  protected void executeTrigger(State state) {
-
-    assert curCG != null;
-    SCEvent event = curCG.getNextChoice();
-    curEvent = event;
-
-    if (event != null) {
-      if (isMatchingReceiver(state,event)) {
-
-        while (state != null) {
-          // we can't look this up directly because we don't know about the return type
-          // note that we look this up in the enclosing *and* the class hierarchy
-          for (Method m : state.getClass().getMethods()) {
-            if (isMatchingMethod(m, event)) {
-
-              if (checkUnBlocked(state, m)) {
-                try {
-                  log("state ", state.getFieldName(), " executes trigger: ", m.toString());
-
-                  m.setAccessible(true); // we don't want IllegalAccessExceptions here
-                  // we don't have to convert anything here (autoboxing)
-                  m.invoke(state, event.getArguments());
-                  return;
-                } catch (Throwable t) {
-                  executionError (t);
-                }
-              }
-            }
-          }
-
-          if (event.isCompletion()) {
-            return; // no recursive lookup
-          } else {
-            state = state.getSuperState();
-          }
-        }
+  void closeTraces () {
+    if (traceRecorder != null) {
+      try {
+        traceRecorder.close();
+      } catch (IOException x) {
+        log("error closing trace: " + x.getMessage());
       }
+      traceRecorder = null;
     }
-  }
-  
-  protected void setEnablingEventProcessed( ) {
-    if (curEvent != null) {
-      curEvent.setProcessed();
-      log("event processed: " + curEvent);
+    if (columnTrace != null) {
+      try {
+        columnTrace.close();
+      } catch (IOException x) {
+        log("error closing column trace: " + x.getMessage());
+      }
+      columnTrace = null;
     }
   }
-  
-  void executionError (Throwable t) {
-    if (t instanceof InvocationTargetException) {
-      t = t.getCause();
-    }
 
-    t.printStackTrace();
-    System.exit(1);
+  //--- QueueMetrics.Listener
+
+  public void depthExceeded (QueueMetrics metrics, State state, int depth) {
+    logRing.flush();
+    out.println("queue alarm at step " + step + ": " + depth + " events pending for " + state.getName());
+    out.flush();
+  }
+
+  public void ageExceeded (QueueMetrics metrics, State state, long ageNanos) {
+    logRing.flush();
+    out.printf("queue alarm at step %d: event pending for %s since %.3f ms%n", step, state.getName(), ageNanos / 1e6);
+    out.flush();
   }
 
   //--- our ad hoc property checks
@@ -858,7 +991,40 @@ public class SimStateMachine extends StateMachine implements JPFShell {
     }
   }
 
+  protected void checkTrace () {
+    try {
+      if (traceRecorder != null) {
+        traceRecorder.recordStep(step, curEvent, nextActives);
+      }
+    } catch (IOException x) {
+      executionError(x);
+    }
+
+    if (traceReplayer != null) {
+      traceReplayer.verifyConfig(step, nextActives);
+    }
+
+    traceStep();
+  }
+
   protected void checkTermination () {
+    closeTraces();
+    if (observers != null) {
+      observers.close();
+    }
+    logRing.close();
+
+    if (profiler != null) {
+      profiler.printOn(out);
+    }
+    if (queueMetrics != null) {
+      queueMetrics.printOn(out, this);
+    }
+    if (guardProfile != null) {
+      guardProfile.printOn(out);
+    }
+    unregisterMBean();
+
     if (checkNoActiveStates) {
       assert (activeStates == null) : "active states at end of run: " + getStateNameList(activeStates);
     }
@@ -869,6 +1035,18 @@ public class SimStateMachine extends StateMachine implements JPFShell {
   }
 
   protected void checkStep (int nFired) {
+    if (isFork()) {
+      super.checkStep(nFired);
+      return;
+    }
+
+    checkTrace();
+    publishConfiguration();
+
+    if (guardProfile != null && curEvent != null) {
+      guardProfile.stepEnded(curEvent.isCompletion(), nFired);
+    }
+
     if (nFired == 0){
       SCEvent e = curCG.getNextChoice();
       if (e.isCompletion()){ // we had a guarded completion, try signals
@@ -902,41 +1080,9 @@ public class SimStateMachine extends StateMachine implements JPFShell {
 
   //----- helper methods
 
-  boolean isMatchingMethod (Method m, SCEvent e) {
-
-    if (m.getName().equals(e.getMethodName())){
-      Type[] argTypes = m.getGenericParameterTypes();
-      Object[] args = e.getArguments();
-      if (args == null) {
-        if (argTypes.length != 0){
-          return false;
-        } else {
-          return true;
-        }
-      }
-      if (args.length != argTypes.length) {
-        return false;
-      }
-      for (int i=0; i<argTypes.length; i++) {
-
-        if (args[i].getClass().isInstance(argTypes[i])) {
-          return false;
-        }
-      }
-      return true;
-    }
-    return false;
-  }
-
-  boolean isMatchingReceiver (State s, SCEvent e) {
-    String[] rc = e.getReceiverConstraints();
-    if (rc != null) {
-      StringSetMatcher sm = new StringSetMatcher(rc);
-      String sName = s.getFieldName();
-      return sm.matchesAny(sName);
-    }
-
-    return true;
+  protected boolean isMatchingReceiver (State s, StateEvent e) {
+    NameMatcher nm = e.getReceiverMatcher();
+    return (nm == null) || nm.matchesAny(s.getFieldName());
   }
 
   String[] getStateNames (State activeStates) {
@@ -968,9 +1114,14 @@ public class SimStateMachine extends StateMachine implements JPFShell {
     }
   };
   
+  public boolean supportsLogging () {
+    return logRing.isLoggable(LogRing.INFO);
+  }
+
   public void logAppend (String msg) {
-    StringBuilder buffer = logBuffer.get();
-    buffer.append(msg);
+    if (logRing.isLoggable(LogRing.INFO)) {
+      logBuffer.get().append(msg);
+    }
   }
   
   public void log () {
@@ -981,26 +1132,33 @@ public class SimStateMachine extends StateMachine implements JPFShell {
     }
   }
   
+  // the parts are concatenated by the LogRing writer thread
+
   public void log (String message) {
-    out.print("[SC] ");
-    out.println(message);
-    out.flush();
+    logRing.log(LogRing.INFO, message);
   }
 
   public void log (String s1, String s2) {
-    log(s1 + s2);
+    logRing.log(LogRing.INFO, s1, s2);
   }
 
   public void log (String s1, String s2, String s3) {
-    log(s1 + s2 + s3);
+    logRing.log(LogRing.INFO, s1, s2, s3);
   }
 
   public void log (String s1, String s2, String s3, String s4) {
-    log(s1 + s2 + s3 + s4);
+    logRing.log(LogRing.INFO, s1, s2, s3, s4);
   }
 
   void logActive () {
-    log("------------ next step: " + step);
+    if (!logRing.isLoggable(LogRing.INFO)) {
+      return; // don't box the step number for nothing
+    }
+    logRing.log(LogRing.INFO, "------------ next step: ", Integer.valueOf(step));
+
+    if (!logRing.isLoggable(LogRing.FINE)) {
+      return;
+    }
 
     for (State activeState = activeStates; activeState != null; activeState = activeState.getNext()) {
       StringBuilder sb = new StringBuilder(100);
@@ -1052,7 +1210,7 @@ public class SimStateMachine extends StateMachine implements JPFShell {
       }
       sb.append('}');
 
-      log(sb.toString());
+      logRing.log(LogRing.FINE, sb.toString());
     }
   }
 
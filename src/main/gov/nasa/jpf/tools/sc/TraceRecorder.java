@@ -0,0 +1,75 @@
+//
+// Copyright  (C) 2007 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+package gov.nasa.jpf.tools.sc;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import gov.nasa.jpf.sc.State;
+import gov.nasa.jpf.sc.runtime.JournalCodec;
+import gov.nasa.jpf.sc.runtime.StateEvent;
+
+/**
+ * records a SimStateMachine run as a compact binary trace: the RNG seed,
+ * and for each step the chosen event and the resulting configuration (the
+ * ids of the next active states). We use the same record format as the
+ * runtime EventJournal, see JournalCodec
+ *
+ * set with 'sc.trace.record=<file>', replay with 'sc.trace.replay=<file>'
+ */
+public class TraceRecorder {
+
+  DataOutputStream out;
+  JournalCodec codec = new JournalCodec();
+  int[] config = new int[16];
+
+  public TraceRecorder (String fileName, long seed, String masterType) throws IOException {
+    out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName), 8192));
+    write(codec.encodeReset());
+    write(codec.encodeHeader(seed, masterType));
+  }
+
+  void write (ByteBuffer b) throws IOException {
+    out.write(b.array(), b.arrayOffset() + b.position(), b.remaining());
+  }
+
+  public void recordStep (int step, StateEvent e, State nextActives) throws IOException {
+    if (e != null) {
+      write(codec.encodeEvent(step, JournalCodec.getKind(e), e.getId(), e.getArguments()));
+    }
+
+    int n = 0;
+    for (State s = nextActives; s != null; s = s.getNext()) {
+      if (n == config.length) {
+        int[] a = new int[n*2];
+        System.arraycopy(config, 0, a, 0, n);
+        config = a;
+      }
+      config[n++] = s.getId();
+    }
+    write(codec.encodeConfig(step, config, n));
+  }
+
+  public void close () throws IOException {
+    out.close();
+  }
+}
@@ -0,0 +1,146 @@
+//
+// Copyright  (C) 2007 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+package gov.nasa.jpf.tools.sc;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import gov.nasa.jpf.jvm.choice.sc.SCEvent;
+import gov.nasa.jpf.jvm.choice.sc.SCEventGenerator;
+import gov.nasa.jpf.sc.State;
+import gov.nasa.jpf.sc.runtime.JournalCodec;
+
+/**
+ * feeds a trace written by TraceRecorder back into a SimStateMachine. For
+ * each step we select the choice that matches the recorded event, and
+ * after the step we check if we ended up in the recorded configuration.
+ * Any mismatch is reported as a TraceDivergence
+ */
+public class TraceReplayer {
+
+  public static class TraceDivergence extends RuntimeException {
+    public TraceDivergence (String msg) {
+      super(msg);
+    }
+  }
+
+  long seed;
+  String masterType;
+  ArrayList<JournalCodec.Entry> entries = new ArrayList<JournalCodec.Entry>();
+  int next;
+
+  int[] config = new int[16];
+
+  public TraceReplayer (String fileName) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)));
+    try {
+      JournalCodec codec = new JournalCodec();
+      JournalCodec.Entry e = codec.decode(in);
+      if (e == null || e.type != JournalCodec.HEADER) {
+        throw new IOException("not a statechart trace: " + fileName);
+      }
+      seed = e.seed;
+      masterType = e.id;
+
+      while ((e = codec.decode(in)) != null) {
+        entries.add(e);
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  public long getSeed() {
+    return seed;
+  }
+
+  public String getMasterType() {
+    return masterType;
+  }
+
+  public boolean hasMoreSteps() {
+    return next < entries.size();
+  }
+
+  /**
+   * @return the index of the choice that matches the recorded event for
+   * this step, or -1 if the trace is exhausted
+   */
+  public int selectChoice (int step, SCEventGenerator cg) {
+    if (next >= entries.size()) {
+      return -1;
+    }
+
+    JournalCodec.Entry e = entries.get(next);
+    if (e.type != JournalCodec.EVENT) {
+      throw new TraceDivergence("step " + step + ": no recorded event, found " + e);
+    }
+    if (e.step != step) {
+      throw new TraceDivergence("step " + step + ": recorded event is for step " + e.step);
+    }
+    next++;
+
+    SCEvent[] choices = cg.getSCEvents();
+    for (int i=0; i<choices.length; i++) {
+      SCEvent c = choices[i];
+      if (c.getId().equals(e.id) && Arrays.equals(c.getArguments(), e.args)) {
+        return i;
+      }
+    }
+
+    throw new TraceDivergence("step " + step + ": recorded event " + e +
+                              " not in choices " + cg.toShortString());
+  }
+
+  public void verifyConfig (int step, State nextActives) {
+    if (next >= entries.size()) {
+      throw new TraceDivergence("step " + step + ": no recorded configuration");
+    }
+
+    JournalCodec.Entry e = entries.get(next++);
+    if (e.type != JournalCodec.CONFIG || e.step != step) {
+      throw new TraceDivergence("step " + step + ": expected configuration record, found " + e);
+    }
+
+    int n = 0;
+    for (State s = nextActives; s != null; s = s.getNext()) {
+      if (n == config.length) {
+        int[] a = new int[n*2];
+        System.arraycopy(config, 0, a, 0, n);
+        config = a;
+      }
+      config[n++] = s.getId();
+    }
+
+    boolean match = (n == e.config.length);
+    for (int i=0; match && i<n; i++) {
+      match = (config[i] == e.config[i]);
+    }
+
+    if (!match) {
+      throw new TraceDivergence("step " + step + ": configuration " +
+                                Arrays.toString(Arrays.copyOf(config, n)) +
+                                " does not match recorded " + Arrays.toString(e.config));
+    }
+  }
+}
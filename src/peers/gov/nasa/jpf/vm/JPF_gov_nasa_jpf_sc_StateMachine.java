@@ -219,6 +219,11 @@ public class JPF_gov_nasa_jpf_sc_StateMachine extends NativePeer {
     getMachine(env,objRef).executeTrigger(env,objRef,stateRef);
   }
 
+  @MJI
+  public boolean isEnablingEventConsumed____Z (MJIEnv env, int objRef) {
+    return getMachine(env,objRef).isEnablingEventConsumed(env,objRef);
+  }
+
   @MJI
   public int getEventId____Ljava_lang_String_2 (MJIEnv env, int objRef){
     return getMachine(env,objRef).getEventId(env,objRef);
@@ -241,8 +246,18 @@ public class JPF_gov_nasa_jpf_sc_StateMachine extends NativePeer {
   }
 
 
+  @MJI
+  public boolean supportsLogging____Z (MJIEnv env, int objRef) {
+    return getMachine(env,objRef).supportsLogging(env,objRef);
+  }
+
+  // all log methods check the level before they touch the JPF heap
+
   @MJI
   public void log__Ljava_lang_String_2__ (MJIEnv env, int objref, int r1) {
+    if (!log.isLoggable(Level.INFO)) {
+      return;
+    }
     String s1 = env.getStringObject(r1);
     log.info(s1);
   }
@@ -250,6 +265,9 @@ public class JPF_gov_nasa_jpf_sc_StateMachine extends NativePeer {
   // these are mostly here to avoid dynamic object allocation during logging
   @MJI
   public void log__Ljava_lang_String_2Ljava_lang_String_2__ (MJIEnv env, int objref, int r1, int r2) {
+    if (!log.isLoggable(Level.INFO)) {
+      return;
+    }
     String s1 = env.getStringObject(r1);
     String s2 = env.getStringObject(r2);
     log.info(s1+s2);
@@ -258,6 +276,9 @@ public class JPF_gov_nasa_jpf_sc_StateMachine extends NativePeer {
   @MJI
   public void log__Ljava_lang_String_2Ljava_lang_String_2Ljava_lang_String_2__
                            (MJIEnv env, int objref, int r1, int r2, int r3) {
+    if (!log.isLoggable(Level.INFO)) {
+      return;
+    }
     String s1 = env.getStringObject(r1);
     String s2 = env.getStringObject(r2);
     String s3 = env.getStringObject(r3);
@@ -267,6 +288,9 @@ public class JPF_gov_nasa_jpf_sc_StateMachine extends NativePeer {
   @MJI
   public void log__Ljava_lang_String_2Ljava_lang_String_2Ljava_lang_String_2Ljava_lang_String_2__
                                (MJIEnv env, int objref, int r1, int r2, int r3, int r4) {
+    if (!log.isLoggable(Level.INFO)) {
+      return;
+    }
     String s1 = env.getStringObject(r1);
     String s2 = env.getStringObject(r2);
     String s3 = env.getStringObject(r3);
@@ -300,6 +324,9 @@ public class JPF_gov_nasa_jpf_sc_StateMachine extends NativePeer {
   
   @MJI
   public void logAppend__Ljava_lang_String_2__ (MJIEnv env, int objRef, int msgRef) {
+    if (!log.isLoggable(Level.INFO)) {
+      return;
+    }
     StringBuilder buffer = getLogBuffer(env.getThreadInfo());
     String s = env.getStringObject(msgRef);
     buffer.append(s);
@@ -307,6 +334,9 @@ public class JPF_gov_nasa_jpf_sc_StateMachine extends NativePeer {
 
   @MJI
   public void log____(MJIEnv env, int objRef) {
+    if (!log.isLoggable(Level.INFO)) {
+      return;
+    }
     StringBuilder buffer = getLogBuffer(env.getThreadInfo());    
     if (buffer != null && (buffer.length() > 0)) {
       log.info(buffer.toString());
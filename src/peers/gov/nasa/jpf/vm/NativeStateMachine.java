@@ -73,6 +73,13 @@ public class NativeStateMachine {
   // the currently dispatched event
   SCEvent curEvent;
 
+  // per-step stamps of states that were already offered the current event
+  // (indexed by State.id), so that orthogonal siblings don't look up the
+  // same superState triggers again. nEvents is just a running number, we
+  // don't need it to be backtracked
+  int nEvents;
+  int[] offered = new int[64];
+
 
   // property check data
   static int[] neverVisit;
@@ -93,6 +100,8 @@ public class NativeStateMachine {
   
   static int maxSteps;
 
+  static boolean consumeOnce; // don't offer events that were handled to the remaining active states
+
   //--- internal stuff
 
   // a little helper to avoid using State objects in Script section lookup
@@ -489,6 +498,24 @@ public class NativeStateMachine {
     }
   }
 
+  // decode the inline primitive payload of an EventSpec (see EventSpec.boxSlot)
+  Object[] getSlotArguments (MJIEnv env, int eRef, String slotTypes) {
+    Object[] args = new Object[slotTypes.length()];
+
+    for (int i=0; i<args.length; i++) {
+      long v = env.getLongField(eRef, "v" + i);
+      switch (slotTypes.charAt(i)) {
+      case 'I': args[i] = Integer.valueOf((int)v); break;
+      case 'Z': args[i] = Boolean.valueOf(v != 0); break;
+      case 'D': args[i] = Double.valueOf(Double.longBitsToDouble(v)); break;
+      default:
+        throw new IllegalArgumentException("unknown event slot type: " + slotTypes.charAt(i));
+      }
+    }
+
+    return args;
+  }
+
   SCEvent createSCEventFromPending (MJIEnv env, int eRef, int stateRef){
     // NOTE - we can't recycle the EventSpec here (put it back into the
     // pendingEvents.processedEvent pool) because this is called before
@@ -497,7 +524,13 @@ public class NativeStateMachine {
     // we can get premature state matching
     
     String eventName = env.getStringObject(env.getReferenceField(eRef, "name"));
-    Object[] args = env.getArgumentArray(env.getReferenceField(eRef, "args"));
+    Object[] args;
+    int typesRef = env.getReferenceField(eRef, "slotTypes");
+    if (typesRef != MJIEnv.NULL) {
+      args = getSlotArguments(env, eRef, env.getStringObject(typesRef));
+    } else {
+      args = env.getArgumentArray(env.getReferenceField(eRef, "args"));
+    }
     String receiverName = getStateName(env,stateRef);
 
     // since this is an explicitly sent event, we have to encode the receiver
@@ -822,23 +855,21 @@ public class NativeStateMachine {
     sendSuper = conf.getBoolean("sc.send_super", true);
     selfPriority = conf.getBoolean("sc.self_priority", true);
     
+    // these are static, so we have to reset them if there are several runs per VM.
+    // default is state pendingEvents queue order
     String priorityBase = conf.getString("sc.priority_base");
-    if ("local".equals(priorityBase)) {
-      localPriorities = true;
-    } else if ("top".equals(priorityBase)) {
-      topPriority = true;
-    } else if ("total".equals(priorityBase)) {
-      totalOrder = true;
-    } else {
-      // default is state pendingEvents queue order
-    }
+    localPriorities = "local".equals(priorityBase);
+    topPriority = "top".equals(priorityBase);
+    totalOrder = "total".equals(priorityBase);
 
     showMachine = conf.getBoolean("sc.show_machine", false);
-    if (showMachine) {
+    if (showMachine && log.isLoggable(Level.INFO)) {
       showMachine(env, objRef);
     }
     
     maxSteps = conf.getInt("sc.max_steps", -1);
+
+    consumeOnce = conf.getBoolean("sc.consume_once", false);
   }
 
   // <2do> this isn't yet thought out, but we should have some way to
@@ -1043,6 +1074,14 @@ public class NativeStateMachine {
       env.setBooleanField(objRef,"forceNewState",false);
       env.setBooleanField(objRef, "wasGuardedCompletionStep", false);
 
+      nEvents++;
+
+      // CG choices are re-used when we backtrack, so we have to reset
+      SCEvent e = cg.getNextChoice();
+      if (e != null) {
+        e.setConsumed(false);
+      }
+
       // EventSpec recycling (pendingEvents.head -> pendingEvents.processedEvent)
       // normally this would be done in setEnablingEventProcessed(), but we
       // might have an activeState sending the same event during this step, which
@@ -1064,6 +1103,10 @@ public class NativeStateMachine {
     // we get here, because it might cause premature state matching. Since
     // the event itself isn't in the state space, we have to keep the
     // EventSpec/target state in there until we're done with matching
+    if (!log.isLoggable(Level.INFO)) {
+      return; // all we do here is logging, don't bother to look up the CG
+    }
+
     SCEventGenerator cg = null; // <2do> replace this once SystemState provides a better API
     for (ChoiceGenerator<?> c = env.getSystemState().getChoiceGenerator(); c != null; c = c.getPreviousChoiceGenerator()){
       if (CG_ID.equals(c.getId()) && c instanceof SCEventGenerator){
@@ -1135,6 +1178,23 @@ public class NativeStateMachine {
     return true; // nothing to wait for
   }
 
+  boolean wasOffered (MJIEnv env, int stateRef) {
+    int i = env.getIntField(stateRef, "id");
+
+    if (i >= offered.length) {
+      int[] a = new int[Math.max(i+1, offered.length*2)];
+      System.arraycopy(offered, 0, a, 0, offered.length);
+      offered = a;
+    }
+
+    if (offered[i] == nEvents) {
+      return true;
+    } else {
+      offered[i] = nEvents;
+      return false;
+    }
+  }
+
   static final String TRIGGER_ACTION = "[TriggerAction]";
 
   /**
@@ -1158,6 +1218,10 @@ public class NativeStateMachine {
         return; // cg might be an empty SCEventFromAlphabet
       }
 
+      if (consumeOnce && e.isConsumed()) {
+        return; // already handled by another active state
+      }
+
       if (!e.isCompletion()){
         // completion events are kind of artificial, so only set
         // curEvent if it was a real one
@@ -1167,6 +1231,10 @@ public class NativeStateMachine {
       if (isMatchingReceiver(env,stateRef,e)){
 
         while (stateRef != -1) { // we recursively look this up on both the enclosing and class hierarchy
+          if (wasOffered(env, stateRef)) {
+            return; // a sibling region already walked up from here
+          }
+
           ClassInfo ci = env.getClassInfo(stateRef);
 
           if ((scriptEnv != null) && !checkEvent(env,stateRef,e,true)){
@@ -1185,11 +1253,13 @@ public class NativeStateMachine {
               // with argument types, we better make sure we don't unblock unless
               // we really execute a corresponding trigger method
               if (checkUnBlocked(env, stateRef, mi)) {
+                if (!e.isCompletion()) {
+                  e.setConsumed(true);
+                }
+
             	  //mvrooman how to create a frame
 //                logTrigger(env,stateRef,mi);
 //
-//                e.setConsumed(true);
-//
 //                frame = ci.createDirectCallStackFrame(ti, mi, 0);
 //
 //                frame.pushRef(stateRef);
@@ -1212,6 +1282,18 @@ public class NativeStateMachine {
     }
   }
 
+  public boolean isEnablingEventConsumed (MJIEnv env, int objRef) {
+    if (consumeOnce) {
+      SCEventGenerator cg = env.getSystemState().getLastChoiceGeneratorOfType(SCEventGenerator.class);
+      if (cg != null) {
+        SCEvent e = cg.getNextChoice();
+        return (e != null) && e.isConsumed();
+      }
+    }
+
+    return false;
+  }
+
   public int getEventId (MJIEnv env, int objRef){
     if (curEvent == null){
       return MJIEnv.NULL;
@@ -1272,4 +1354,8 @@ public class NativeStateMachine {
     return (scriptEnv != null);
   }
 
+  public boolean supportsLogging (MJIEnv env, int objRef) {
+    return log.isLoggable(Level.INFO);
+  }
+
 }
@@ -0,0 +1,126 @@
+//
+// Copyright  (C) 2007 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+package gov.nasa.jpf.sc.runtime;
+
+import gov.nasa.jpf.sc.State;
+
+/**
+ * an immutable snapshot of the states a machine is in, as a bitset over the
+ * state ids. A state is 'in' the configuration if it or one of its
+ * (transitive) substates is active, i.e. composite states are included.
+ *
+ * EmbeddedStateMachine publishes a new instance through a volatile
+ * reference at the end of each run-to-completion step, so other threads
+ * can query it without synchronizing with the step thread. Since the
+ * configuration doesn't change in most steps, a new instance is only
+ * published if it does - getStep() is the step that entered it
+ */
+public final class ActiveConfiguration {
+
+  final long[] bits;
+  final int step;
+  final int nActive;
+
+  ActiveConfiguration (long[] bits, int step) {
+    this.bits = bits;
+    this.step = step;
+
+    int n = 0;
+    for (long w : bits) {
+      n += Long.bitCount(w);
+    }
+    nActive = n;
+  }
+
+  /**
+   * compute the configuration from a list of active (leaf) states, using
+   * 'scratch' as working storage. Returns 'prev' if nothing has changed
+   */
+  static ActiveConfiguration compute (State actives, int step,
+                                      long[] scratch, ActiveConfiguration prev) {
+    int words = scratch.length;
+    for (int i=0; i<words; i++) {
+      scratch[i] = 0L;
+    }
+
+    for (State s = actives; s != null; s = s.getNext()) {
+      for (State p = s; p != null; p = p.getSuperState()) {
+        int id = p.getId();
+        long m = 1L << (id & 63);
+        if ((scratch[id >> 6] & m) != 0) {
+          break; // the rest of the parent chain is already in
+        }
+        scratch[id >> 6] |= m;
+      }
+    }
+
+    if (prev != null && prev.bits.length == words) {
+      int i = 0;
+      while (i < words && prev.bits[i] == scratch[i]) i++;
+      if (i == words) {
+        return prev;
+      }
+    }
+
+    return new ActiveConfiguration(scratch.clone(), step);
+  }
+
+  public boolean isIn (State state) {
+    return isIn(state.getId());
+  }
+
+  public boolean isIn (int stateId) {
+    int i = stateId >> 6;
+    return (i < bits.length) && ((bits[i] & (1L << (stateId & 63))) != 0);
+  }
+
+  public int getStep () {
+    return step;
+  }
+
+  public int getNumberOfStates () {
+    return nActive;
+  }
+
+  public int[] getStateIds () {
+    int[] ids = new int[nActive];
+    int n = 0;
+    for (int i=0; i<bits.length; i++) {
+      for (long w = bits[i]; w != 0; w &= (w - 1)) {
+        ids[n++] = (i << 6) + Long.numberOfTrailingZeros(w);
+      }
+    }
+    return ids;
+  }
+
+  public String toString () {
+    StringBuilder sb = new StringBuilder();
+    sb.append("ActiveConfiguration{step=");
+    sb.append(step);
+    sb.append(",ids=");
+    int[] ids = getStateIds();
+    for (int i=0; i<ids.length; i++) {
+      sb.append(i == 0 ? '[' : ',');
+      sb.append(ids[i]);
+    }
+    sb.append(ids.length == 0 ? "[]}" : "]}");
+    return sb.toString();
+  }
+}
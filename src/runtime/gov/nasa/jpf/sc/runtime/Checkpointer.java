@@ -0,0 +1,318 @@
+//
+// Copyright  (C) 2007 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+package gov.nasa.jpf.sc.runtime;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+import gov.nasa.jpf.sc.MachineSnapshot;
+import gov.nasa.jpf.sc.StateMachine;
+
+/**
+ * writes incremental checkpoints of a machine configuration into a memory
+ * mapped file, so that long running embedded machines can be recovered
+ * after a crash.
+ *
+ * the file has a small header and two equally sized halves, only one of
+ * which is active. A half starts with a FULL record, followed by DELTA
+ * records that only contain the states that changed since the previous
+ * checkpoint. Compaction writes a new FULL record into the other half and
+ * then flips the header, so a crash during compaction still leaves us with
+ * the old half. Records are CRC protected, recovery stops at the first torn
+ * record.
+ *
+ * states are identified by the ids StateMachine.registerState() assigns,
+ * i.e. recovery has to use a machine for the same master state type
+ */
+public class Checkpointer {
+
+  static final int MAGIC = 0x53434350; // "SCCP"
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 16;   // magic, version, active half, reserved
+
+  static final byte END = 0;
+  static final byte FULL = 1;
+  static final byte DELTA = 2;
+
+  static final int RECORD_HEADER = 9;  // type, length, crc
+
+  RandomAccessFile raf;
+  FileChannel channel;
+  MappedByteBuffer buf;
+
+  int halfSize;
+  int activeHalf;
+  int pos;          // next record position (absolute)
+
+  MachineSnapshot last;
+  int nDeltas;
+  int compactInterval; // number of deltas before we write a new full record
+  boolean sync;        // force() after each checkpoint
+
+  ByteArrayOutputStream bos = new ByteArrayOutputStream(4096);
+  DataOutputStream out = new DataOutputStream(bos);
+  CRC32 crc = new CRC32();
+  boolean[] changed = new boolean[0]; // per delta, so that we compare only once
+
+  public Checkpointer (File file, int size, int compactInterval) throws IOException {
+    if (size < HEADER_SIZE + 2*RECORD_HEADER + 2) {
+      throw new IllegalArgumentException("checkpoint file size too small: " + size);
+    }
+
+    this.compactInterval = compactInterval;
+
+    raf = new RandomAccessFile(file, "rw");
+    raf.setLength(size);
+    channel = raf.getChannel();
+    buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+    halfSize = (size - HEADER_SIZE) / 2;
+
+    // we always start with a new full record in the inactive half, so that
+    // an existing checkpoint file stays recoverable until we have a new one
+    if (buf.getInt(0) == MAGIC && buf.getInt(4) == VERSION) {
+      activeHalf = buf.getInt(8);
+    } else {
+      buf.putInt(0, MAGIC);
+      buf.putInt(4, VERSION);
+      activeHalf = 1;
+      buf.putInt(8, activeHalf);
+      buf.put(halfStart(0), END);
+      buf.put(halfStart(1), END);
+    }
+  }
+
+  public void setSync (boolean sync) {
+    this.sync = sync;
+  }
+
+  int halfStart (int half) {
+    return HEADER_SIZE + half * halfSize;
+  }
+
+  /**
+   * write a checkpoint of the current configuration. This has to be called
+   * between steps (EmbeddedStateMachine does this from checkStep())
+   */
+  public synchronized void checkpoint (StateMachine machine) throws IOException {
+    MachineSnapshot snapshot = machine.snapshot();
+
+    if (last == null || nDeltas >= compactInterval ||
+        last.getNumberOfStates() != snapshot.getNumberOfStates()) {
+      writeFull(snapshot);
+
+    } else {
+      bos.reset();
+      snapshot.writeHeader(out);
+
+      int n = snapshot.getNumberOfStates();
+      if (changed.length < n) {
+        changed = new boolean[n];
+      }
+      int nChanged = 0;
+      for (int i=0; i<n; i++) {
+        if (changed[i] = snapshot.isStateChanged(last, i)) {
+          nChanged++;
+        }
+      }
+      out.writeInt(nChanged);
+      for (int i=0; i<n; i++) {
+        if (changed[i]) {
+          snapshot.writeState(out, i);
+        }
+      }
+      out.flush();
+
+      if (!append(DELTA)) {
+        writeFull(snapshot); // no more space, compact
+      } else {
+        nDeltas++;
+      }
+    }
+
+    last = snapshot;
+    if (sync) {
+      buf.force();
+    }
+  }
+
+  void writeFull (MachineSnapshot snapshot) throws IOException {
+    bos.reset();
+    snapshot.writeHeader(out);
+    int n = snapshot.getNumberOfStates();
+    out.writeInt(n);
+    for (int i=0; i<n; i++) {
+      snapshot.writeState(out, i);
+    }
+    out.flush();
+
+    int half = 1 - activeHalf;
+    pos = halfStart(half);
+    if (!append(FULL)) {
+      throw new IOException("checkpoint file too small for full record of " +
+                            bos.size() + " bytes");
+    }
+
+    // now we can switch over, this is the only header write
+    buf.force();
+    activeHalf = half;
+    buf.putInt(8, activeHalf);
+
+    nDeltas = 0;
+  }
+
+  boolean append (byte type) {
+    int len = bos.size();
+    int limit = halfStart(activeHalf) + halfSize;
+    if (type == FULL) {
+      limit = halfStart(1 - activeHalf) + halfSize;
+    }
+
+    if (pos + RECORD_HEADER + len + 1 > limit) { // +1 for the END marker
+      return false;
+    }
+
+    byte[] data = bos.toByteArray();
+    crc.reset();
+    crc.update(data, 0, len);
+
+    // write the END marker first and the type last, so that a torn record
+    // is never mistaken for a valid one
+    buf.put(pos + RECORD_HEADER + len, END);
+    buf.putInt(pos + 1, len);
+    buf.putInt(pos + 5, (int)crc.getValue());
+    for (int i=0; i<len; i++) {
+      buf.put(pos + RECORD_HEADER + i, data[i]);
+    }
+    buf.put(pos, type);
+
+    pos += RECORD_HEADER + len;
+    return true;
+  }
+
+  public synchronized void close () throws IOException {
+    buf.force();
+    channel.close();
+    raf.close();
+  }
+
+  //--- recovery
+
+  /**
+   * read the latest full record and all valid deltas that follow it
+   * @return the snapshot or null if there is no valid checkpoint
+   */
+  public static MachineSnapshot recover (File file) throws IOException {
+    if (!file.exists()) {
+      return null;
+    }
+
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      int size = (int)channel.size();
+      if (size < HEADER_SIZE) {
+        return null;
+      }
+      MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+      if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+        return null;
+      }
+
+      int halfSize = (size - HEADER_SIZE) / 2;
+      int half = buf.getInt(8);
+      int pos = HEADER_SIZE + half * halfSize;
+      int limit = pos + halfSize;
+
+      MachineSnapshot snapshot = null;
+      CRC32 crc = new CRC32();
+
+      while (pos + RECORD_HEADER <= limit) {
+        byte type = buf.get(pos);
+        if (type != FULL && type != DELTA) {
+          break;
+        }
+        if (type == FULL && snapshot != null) {
+          break; // can't happen within one half
+        }
+        if (type == DELTA && snapshot == null) {
+          break; // a half always starts with a FULL record
+        }
+
+        int len = buf.getInt(pos + 1);
+        int sum = buf.getInt(pos + 5);
+        if (len < 0 || pos + RECORD_HEADER + len > limit) {
+          break;
+        }
+
+        byte[] data = new byte[len];
+        for (int i=0; i<len; i++) {
+          data[i] = buf.get(pos + RECORD_HEADER + i);
+        }
+        crc.reset();
+        crc.update(data, 0, len);
+        if ((int)crc.getValue() != sum) {
+          break; // torn write
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        if (type == FULL) {
+          snapshot = new MachineSnapshot(in);
+        } else {
+          snapshot.readHeader(in);
+          int nChanged = in.readInt();
+          for (int i=0; i<nChanged; i++) {
+            snapshot.readState(in);
+          }
+        }
+
+        pos += RECORD_HEADER + len;
+      }
+
+      return snapshot;
+
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * restore the machine from the checkpoint file, if there is one
+   * @return true if the machine was restored
+   */
+  public static boolean recover (File file, StateMachine machine) throws IOException {
+    MachineSnapshot snapshot = recover(file);
+    if (snapshot != null) {
+      machine.restore(snapshot);
+      return true;
+    } else {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,304 @@
+//
+// Copyright  (C) 2007 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+package gov.nasa.jpf.sc.runtime;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * memory mapped reader for traces written by ColumnTraceWriter.
+ *
+ * opening the file only reads the block headers (and the state and symbol
+ * tables). Rows are accessed per block through column views that map
+ * directly into the file, so scanning e.g. the event column of a
+ * million steps does not touch the config bitsets or transitions. A torn
+ * block at the end of the file (crashed writer) is ignored
+ */
+public class ColumnTraceReader {
+
+  static class Block {
+    long firstRow;
+    int nRows;
+    int nTrans;
+    MappedByteBuffer buf;  // payload only
+
+    int configPos () {
+      return ColumnTraceWriter.align8(3 * 4 * nRows);
+    }
+  }
+
+  RandomAccessFile raf;
+  FileChannel channel;
+
+  int words;
+  String[] stateNames;
+  ArrayList<String> symbols = new ArrayList<String>();
+  ArrayList<Block> blocks = new ArrayList<Block>();
+  long nRows;
+
+  public ColumnTraceReader (File file) throws IOException {
+    raf = new RandomAccessFile(file, "r");
+    channel = raf.getChannel();
+    long size = channel.size();
+
+    ByteBuffer h = ByteBuffer.allocate(ColumnTraceWriter.BLOCK_HEADER);
+    if (!readFully(h, 0)) {
+      throw new IOException("not a column trace: " + file);
+    }
+    if (h.getInt(0) != ColumnTraceWriter.MAGIC || h.getInt(4) != ColumnTraceWriter.VERSION) {
+      throw new IOException("not a column trace: " + file);
+    }
+    words = h.getInt(8);
+    stateNames = new String[h.getInt(12)];
+
+    long pos = ColumnTraceWriter.HEADER_SIZE;
+    while (pos + ColumnTraceWriter.BLOCK_HEADER <= size) {
+      h.clear();
+      if (!readFully(h, pos)) {
+        break;
+      }
+      int type = h.getInt(0);
+      int len = h.getInt(4);
+      int n = h.getInt(8);
+      pos += ColumnTraceWriter.BLOCK_HEADER;
+
+      if (len < 0 || pos + len > size) {
+        break; // torn block
+      }
+
+      MappedByteBuffer payload = channel.map(FileChannel.MapMode.READ_ONLY, pos, len);
+      pos += len;
+
+      switch (type) {
+      case ColumnTraceWriter.STATES:
+        readStrings(payload, n, stateNames);
+        break;
+      case ColumnTraceWriter.SYMBOLS:
+        String[] a = new String[n];
+        readStrings(payload, n, a);
+        for (String s : a) {
+          symbols.add(s);
+        }
+        break;
+      case ColumnTraceWriter.ROWS:
+        Block b = new Block();
+        b.firstRow = nRows;
+        b.nRows = n;
+        b.nTrans = h.getInt(12);
+        b.buf = payload;
+        blocks.add(b);
+        nRows += n;
+        break;
+      default:
+        throw new IOException("unknown block type " + type + " at " + (pos - len));
+      }
+    }
+  }
+
+  boolean readFully (ByteBuffer b, long pos) throws IOException {
+    while (b.hasRemaining()) {
+      if (channel.read(b, pos + b.position()) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  void readStrings (ByteBuffer payload, int n, String[] a) throws IOException {
+    byte[] data = new byte[payload.remaining()];
+    payload.get(data);
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+    for (int i=0; i<n; i++) {
+      a[i] = in.readUTF();
+    }
+  }
+
+  public void close () throws IOException {
+    blocks.clear();
+    channel.close();
+    raf.close();
+  }
+
+  //--- tables
+
+  public int getNumberOfStates () {
+    return stateNames.length;
+  }
+
+  public String getStateName (int stateId) {
+    return stateNames[stateId];
+  }
+
+  public int getWordsPerRow () {
+    return words;
+  }
+
+  public int getNumberOfSymbols () {
+    return symbols.size();
+  }
+
+  public String getSymbol (int idx) {
+    return (idx >= 0) ? symbols.get(idx) : null;
+  }
+
+  public int getSymbolIndex (String eventId) {
+    return symbols.indexOf(eventId);
+  }
+
+  //--- column access per block
+
+  public long getNumberOfRows () {
+    return nRows;
+  }
+
+  public int getNumberOfBlocks () {
+    return blocks.size();
+  }
+
+  public long getFirstRow (int block) {
+    return blocks.get(block).firstRow;
+  }
+
+  public int getNumberOfRows (int block) {
+    return blocks.get(block).nRows;
+  }
+
+  IntBuffer intColumn (Block b, int pos, int n) {
+    ByteBuffer v = b.buf.duplicate();
+    v.position(pos);
+    v.limit(pos + 4*n);
+    return v.slice().asIntBuffer();
+  }
+
+  public IntBuffer getSteps (int block) {
+    Block b = blocks.get(block);
+    return intColumn(b, 0, b.nRows);
+  }
+
+  /**
+   * symbol indices, -1 if there was no event
+   */
+  public IntBuffer getEvents (int block) {
+    Block b = blocks.get(block);
+    return intColumn(b, 4*b.nRows, b.nRows);
+  }
+
+  /**
+   * for each row, the index (within the block) after the last transition of
+   * that row. Transitions of row i are [firedEnd[i-1], firedEnd[i])
+   */
+  public IntBuffer getFiredEnds (int block) {
+    Block b = blocks.get(block);
+    return intColumn(b, 8*b.nRows, b.nRows);
+  }
+
+  /**
+   * getWordsPerRow() longs per row, bit n is set if state n is active
+   */
+  public LongBuffer getConfigs (int block) {
+    Block b = blocks.get(block);
+    ByteBuffer v = b.buf.duplicate();
+    int pos = b.configPos();
+    v.position(pos);
+    v.limit(pos + 8 * b.nRows * words);
+    return v.slice().asLongBuffer();
+  }
+
+  public IntBuffer getSources (int block) {
+    Block b = blocks.get(block);
+    return intColumn(b, b.configPos() + 8 * b.nRows * words, b.nTrans);
+  }
+
+  public IntBuffer getTargets (int block) {
+    Block b = blocks.get(block);
+    return intColumn(b, b.configPos() + 8 * b.nRows * words + 4 * b.nTrans, b.nTrans);
+  }
+
+  //--- random row access (these don't create views)
+
+  int getBlockIndex (long row) {
+    if (row < 0 || row >= nRows) {
+      throw new IndexOutOfBoundsException("row " + row + " of " + nRows);
+    }
+
+    int lo = 0, hi = blocks.size() - 1;
+    while (lo < hi) {
+      int mid = (lo + hi + 1) >>> 1;
+      if (blocks.get(mid).firstRow <= row) {
+        lo = mid;
+      } else {
+        hi = mid - 1;
+      }
+    }
+    return lo;
+  }
+
+  public int getStep (long row) {
+    Block b = blocks.get(getBlockIndex(row));
+    return b.buf.getInt(4 * (int)(row - b.firstRow));
+  }
+
+  public int getEvent (long row) {
+    Block b = blocks.get(getBlockIndex(row));
+    return b.buf.getInt(4 * (b.nRows + (int)(row - b.firstRow)));
+  }
+
+  public String getEventId (long row) {
+    return getSymbol(getEvent(row));
+  }
+
+  public boolean isActive (long row, int stateId) {
+    Block b = blocks.get(getBlockIndex(row));
+    int r = (int)(row - b.firstRow);
+    long w = b.buf.getLong(b.configPos() + 8 * (r * words + (stateId >> 6)));
+    return (w & (1L << (stateId & 63))) != 0;
+  }
+
+  int firedStart (Block b, int r) {
+    return (r == 0) ? 0 : b.buf.getInt(4 * (2*b.nRows + r - 1));
+  }
+
+  public int getFiredCount (long row) {
+    Block b = blocks.get(getBlockIndex(row));
+    int r = (int)(row - b.firstRow);
+    return b.buf.getInt(4 * (2*b.nRows + r)) - firedStart(b, r);
+  }
+
+  public int getFiredSource (long row, int i) {
+    Block b = blocks.get(getBlockIndex(row));
+    int t = firedStart(b, (int)(row - b.firstRow)) + i;
+    return b.buf.getInt(b.configPos() + 8 * b.nRows * words + 4*t);
+  }
+
+  public int getFiredTarget (long row, int i) {
+    Block b = blocks.get(getBlockIndex(row));
+    int t = firedStart(b, (int)(row - b.firstRow)) + i;
+    return b.buf.getInt(b.configPos() + 8 * b.nRows * words + 4 * (b.nTrans + t));
+  }
+}
@@ -0,0 +1,273 @@
+//
+// Copyright  (C) 2007 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+package gov.nasa.jpf.sc.runtime;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import gov.nasa.jpf.sc.State;
+import gov.nasa.jpf.sc.StateMachine;
+
+/**
+ * writes a columnar step trace for offline analysis of long runs. Each step
+ * becomes a row with the step number, the event id (as a symbol index), the
+ * active configuration as a bitset over state ids, and the transitions that
+ * fired in this step (source, target, where transitions into an end state
+ * have target == source).
+ *
+ * rows are buffered per column and written as blocks, so that
+ * ColumnTraceReader can map a block and scan a single column without
+ * touching the others. Event ids are interned, new symbols go into a
+ * SYMBOLS block ahead of the first ROWS block that uses them.
+ *
+ * file layout (big endian):
+ *
+ *   header:  magic "SCCT", version, words per config row, number of states
+ *   block:   type, payload length, nRows, nTransitions  (16 bytes)
+ *            STATES, SYMBOLS: nRows UTF strings
+ *            ROWS:    int    step[nRows]
+ *                     int    event[nRows]       (-1 for none)
+ *                     int    firedEnd[nRows]    (cumulative, within block)
+ *                     long   config[nRows*words] (8 byte aligned)
+ *                     int    source[nTransitions]
+ *                     int    target[nTransitions]
+ *
+ * this is fed from the triggerFired() and checkStep() hooks of
+ * EmbeddedStateMachine, see setColumnTrace()
+ */
+public class ColumnTraceWriter {
+
+  static final int MAGIC = 0x53434354; // "SCCT"
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 16;
+  static final int BLOCK_HEADER = 16;
+
+  static final int STATES = 1;
+  static final int SYMBOLS = 2;
+  static final int ROWS = 3;
+
+  public static final int DEFAULT_BLOCK_ROWS = 4096;
+
+  FileOutputStream fos;
+  FileChannel channel;
+
+  int blockRows;
+  int words;       // longs per config row
+  int nStates;
+
+  // the columns of the current block
+  int nRows;
+  int[] steps;
+  int[] events;
+  int[] firedEnd;
+  long[] configs;
+
+  int nTrans;
+  int[] sources = new int[256];
+  int[] targets = new int[256];
+
+  HashMap<String,Integer> symbols = new HashMap<String,Integer>();
+  ArrayList<String> newSymbols = new ArrayList<String>();
+
+  ByteBuffer buf;
+
+  public ColumnTraceWriter (File file, StateMachine machine) throws IOException {
+    this(file, machine, DEFAULT_BLOCK_ROWS);
+  }
+
+  public ColumnTraceWriter (File file, StateMachine machine, int blockRows) throws IOException {
+    if (blockRows <= 0) {
+      throw new IllegalArgumentException("illegal block size: " + blockRows);
+    }
+
+    this.blockRows = blockRows;
+    nStates = machine.getNumberOfStates();
+    words = Math.max(1, (nStates + 63) >> 6);
+
+    steps = new int[blockRows];
+    events = new int[blockRows];
+    firedEnd = new int[blockRows];
+    configs = new long[blockRows * words];
+
+    fos = new FileOutputStream(file);
+    channel = fos.getChannel();
+
+    ByteBuffer h = ByteBuffer.allocate(HEADER_SIZE);
+    h.putInt(MAGIC).putInt(VERSION).putInt(words).putInt(nStates);
+    h.flip();
+    write(h);
+
+    ArrayList<String> names = new ArrayList<String>(nStates);
+    for (int i=0; i<nStates; i++) {
+      names.add(machine.getState(i).getName());
+    }
+    writeStrings(STATES, names);
+  }
+
+  /**
+   * record a transition of the current step, call before endStep()
+   */
+  public void addTransition (State src, State tgt) {
+    if (nTrans == sources.length) {
+      sources = grow(sources);
+      targets = grow(targets);
+    }
+    sources[nTrans] = src.getId();
+    targets[nTrans] = tgt.getId();
+    nTrans++;
+  }
+
+  /**
+   * finish the current row. 'actives' is the list of states that are
+   * active after the step (i.e. nextActives, in any order)
+   */
+  public void endStep (int step, StateEvent e, State actives) throws IOException {
+    int row = nRows;
+
+    steps[row] = step;
+    events[row] = (e != null) ? intern(e.getId()) : -1;
+    firedEnd[row] = nTrans;
+
+    int base = row * words;
+    for (int i=0; i<words; i++) {
+      configs[base + i] = 0L;
+    }
+    for (State s = actives; s != null; s = s.getNext()) {
+      int id = s.getId();
+      if (id >= nStates) {
+        throw new RuntimeException("state not registered at trace creation: " + s.getName());
+      }
+      configs[base + (id >> 6)] |= (1L << (id & 63));
+    }
+
+    nRows++;
+    if (nRows == blockRows) {
+      flush();
+    }
+  }
+
+  int intern (String id) {
+    Integer idx = symbols.get(id);
+    if (idx == null) {
+      idx = symbols.size();
+      symbols.put(id, idx);
+      newSymbols.add(id);
+    }
+    return idx;
+  }
+
+  /**
+   * write out the buffered rows as a block. This is called automatically
+   * when a block is full, the last (partial) block is written by close()
+   */
+  public void flush () throws IOException {
+    if (!newSymbols.isEmpty()) {
+      writeStrings(SYMBOLS, newSymbols);
+      newSymbols.clear();
+    }
+
+    if (nRows == 0) {
+      return;
+    }
+
+    int len = align8(3 * 4 * nRows) + 8 * nRows * words + 2 * 4 * nTrans;
+    ByteBuffer b = getBuffer(BLOCK_HEADER + len);
+    b.putInt(ROWS).putInt(len).putInt(nRows).putInt(nTrans);
+
+    b.asIntBuffer().put(steps, 0, nRows);
+    b.position(b.position() + 4*nRows);
+    b.asIntBuffer().put(events, 0, nRows);
+    b.position(b.position() + 4*nRows);
+    b.asIntBuffer().put(firedEnd, 0, nRows);
+    b.position(b.position() + 4*nRows);
+    while (b.position() < BLOCK_HEADER + align8(3 * 4 * nRows)) {
+      b.put((byte)0);
+    }
+
+    b.asLongBuffer().put(configs, 0, nRows * words);
+    b.position(b.position() + 8 * nRows * words);
+    b.asIntBuffer().put(sources, 0, nTrans);
+    b.position(b.position() + 4*nTrans);
+    b.asIntBuffer().put(targets, 0, nTrans);
+    b.position(b.position() + 4*nTrans);
+
+    b.flip();
+    write(b);
+
+    nRows = 0;
+    nTrans = 0;
+  }
+
+  public void close () throws IOException {
+    flush();
+    channel.close();
+    fos.close();
+  }
+
+  void writeStrings (int type, ArrayList<String> list) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bos);
+    for (String s : list) {
+      out.writeUTF(s);
+    }
+    out.flush();
+
+    int len = align8(bos.size());
+    ByteBuffer b = getBuffer(BLOCK_HEADER + len);
+    b.putInt(type).putInt(len).putInt(list.size()).putInt(0);
+    b.put(bos.toByteArray());
+    while (b.position() < BLOCK_HEADER + len) {
+      b.put((byte)0);
+    }
+    b.flip();
+    write(b);
+  }
+
+  ByteBuffer getBuffer (int size) {
+    if (buf == null || buf.capacity() < size) {
+      buf = ByteBuffer.allocate(Math.max(size, 8192));
+    }
+    buf.clear();
+    return buf;
+  }
+
+  void write (ByteBuffer b) throws IOException {
+    while (b.hasRemaining()) {
+      channel.write(b);
+    }
+  }
+
+  static int align8 (int n) {
+    return (n + 7) & ~7;
+  }
+
+  static int[] grow (int[] a) {
+    int[] b = new int[a.length * 2];
+    System.arraycopy(a, 0, b, 0, a.length);
+    return b;
+  }
+}
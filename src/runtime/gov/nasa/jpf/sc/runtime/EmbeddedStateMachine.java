@@ -0,0 +1,1133 @@
+//
+// Copyright  (C) 2007 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+package gov.nasa.jpf.sc.runtime;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.util.HashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import gov.nasa.jpf.sc.EventSpec;
+import gov.nasa.jpf.sc.MachineSnapshot;
+import gov.nasa.jpf.sc.State;
+import gov.nasa.jpf.sc.StateMachine;
+
+/**
+ * JPF independent state machine executor. This is what we use if we embed
+ * state machines into applications, i.e. without having jpf-core in the
+ * classpath. It executes triggers and actions via reflection, and gets its
+ * events from an EventSource (explicitly sent events take precedence)
+ *
+ * this is also the base for gov.nasa.jpf.tools.sc.SimStateMachine, which
+ * adds the scripting, choice generator and property support on top of it
+ */
+public class EmbeddedStateMachine extends StateMachine {
+
+  static Logger logger = Logger.getLogger("gov.nasa.jpf.sc");
+
+  public static final StateEvent COMPLETION_EVENT = StateEvent.createSynthetic(StateEvent.COMPLETION);
+
+  protected EventSource eventSource;
+
+  // the currently processed event
+  protected StateEvent curEvent;
+
+  // the last completion step did not fire, try signals
+  protected boolean guardedCompletion;
+
+  protected int maxSteps = -1;
+
+  // routing policy - if set, an event that was handled by the trigger of one
+  // active state is not offered to the remaining active states of this step
+  protected boolean consumeOnce;
+
+  // a running number of selected events, which we use to stamp the states
+  // that were already offered the current event (indexed by State.getId()),
+  // so that sibling regions don't execute the same superState trigger twice
+  protected int nEvents;
+  int[] offered = new int[64];
+
+  // the trigger names handled by the currently active states (or their
+  // superStates), with the number of active states that handle them. This
+  // is updated upon entry and exit, and lets us skip states that can't
+  // handle the current event without a trigger lookup
+  HashMap<String,int[]> activeHandlers = new HashMap<String,int[]>();
+  boolean[] indexed = new boolean[64];
+
+  // do we drop events from the eventSource that no active state can handle
+  // (opt-in, otherwise unhandled events still count as steps)
+  protected boolean dropUnhandled;
+
+  // optional crash recovery support
+  protected Checkpointer checkpointer;
+  protected int checkpointInterval;
+
+  protected EventJournal journal;
+  protected int replayUntil = -1; // last step that is a replay
+
+  protected ColumnTraceWriter columnTrace;
+
+  protected ObserverBus observers; // created on demand
+
+  // the configuration as seen by other threads, set between steps
+  protected volatile ActiveConfiguration configuration;
+  long[] configBits; // scratch, step thread only
+
+  // optional dwell and action/trigger latency instrumentation
+  protected StepProfiler profiler;
+
+  protected long eventsProcessed;
+  protected MachineMonitor monitor; // JMX view, if registered
+
+  // emit JfrEvents while a flight recording is running
+  protected boolean jfr;
+  boolean jfrRecording; // per step
+  JfrEvents.TriggerFired firedTrigger; // executed, waiting for triggerFired()
+  int stepTransitions;
+
+  // the last steps, dumped on errors
+  protected int historySize;
+  protected StepHistory history;
+
+  // pending event queue depths/ages
+  protected QueueMetrics queueMetrics;
+
+  // offered/executed/fired counts per trigger
+  protected GuardProfile guardProfile;
+
+  protected EmbeddedStateMachine () {
+    // for derived classes that set the master state themselves
+  }
+
+  public EmbeddedStateMachine (State masterState, EventSource eventSource) {
+    this.eventSource = eventSource;
+    setMasterState(masterState);
+  }
+
+  public static EmbeddedStateMachine create (String masterClsName, EventSource eventSource) {
+    State master = createMasterState(masterClsName);
+    if (master == null) {
+      return null;
+    }
+
+    return new EmbeddedStateMachine(master, eventSource);
+  }
+
+  public void setEventSource (EventSource eventSource) {
+    this.eventSource = eventSource;
+  }
+
+  public void setMaxSteps (int maxSteps) {
+    this.maxSteps = maxSteps;
+  }
+
+  public void setConsumeOnce (boolean consumeOnce) {
+    this.consumeOnce = consumeOnce;
+  }
+
+  /**
+   * skip eventSource events that no active state has a trigger for, instead
+   * of processing them as (empty) steps. Note this changes step counts and
+   * what an EventSource sees, so it is off by default
+   */
+  public void setDropUnhandled (boolean dropUnhandled) {
+    this.dropUnhandled = dropUnhandled;
+  }
+
+  /**
+   * write a checkpoint every 'interval' steps
+   */
+  public void setCheckpointer (Checkpointer checkpointer, int interval) {
+    this.checkpointer = checkpointer;
+    this.checkpointInterval = Math.max(1, interval);
+  }
+
+  public void setJournal (EventJournal journal) {
+    this.journal = journal;
+  }
+
+  /**
+   * record each step as a row of a columnar trace. The writer is owned by
+   * the caller, which has to close it at the end of the run
+   */
+  public void setColumnTrace (ColumnTraceWriter columnTrace) {
+    this.columnTrace = columnTrace;
+  }
+
+  /**
+   * record state dwell and trigger/action latencies. Pass null to turn
+   * profiling off
+   */
+  public void setProfiler (StepProfiler profiler) {
+    this.profiler = profiler;
+    if (profiler != null) {
+      long now = System.nanoTime();
+      for (int i=0; i<getNumberOfStates(); i++) {
+        State s = getState(i);
+        if (s.isActive()) {
+          profiler.setActive(s, step, now);
+        }
+      }
+    }
+  }
+
+  public StepProfiler getProfiler () {
+    return profiler;
+  }
+
+  //--- JFR
+
+  /**
+   * emit JfrEvents while there is a running flight recording. Whether there
+   * is one is checked at the beginning of each step
+   */
+  public void setJfrEvents (boolean jfr) {
+    this.jfr = jfr;
+    if (jfr) {
+      JfrEvents.enable();
+    } else {
+      jfrRecording = false;
+      updateTimed();
+    }
+  }
+
+  protected boolean step () {
+    try {
+      if (jfr) {
+        jfrRecording = JfrEvents.isRecording();
+        updateTimed();
+        if (jfrRecording) {
+          JfrEvents.Step e = new JfrEvents.Step();
+          stepTransitions = 0;
+          e.begin();
+          boolean ret = super.step();
+          e.end();
+          if (e.shouldCommit()) {
+            e.step = step;
+            e.event = (curEvent != null) ? curEvent.getId() : null;
+            e.transitions = stepTransitions;
+            e.commit();
+          }
+          return ret;
+        }
+      }
+      return super.step();
+
+    } catch (RuntimeException x) {
+      historyOnError(x);
+      throw x;
+    } catch (Error x) {
+      historyOnError(x);
+      throw x;
+    }
+  }
+
+  /**
+   * we need the eventQueued() notification if anybody is interested in sends,
+   * but only JFR events and queue metrics (pending ages) need them timed
+   */
+  void updateTimed () {
+    timed = jfrRecording || (queueMetrics != null);
+    tracked = (history != null);
+  }
+
+  protected void eventQueued (State src, State tgt, String eventName, int priority, long nanos) {
+    if (queueMetrics != null) {
+      queueMetrics.enqueued(tgt, priority);
+    }
+    if (history != null) {
+      history.addSend(src, tgt, eventName);
+    }
+
+    JfrEvents.Send e = jfrRecording ? new JfrEvents.Send() : null;
+    if (e != null && e.shouldCommit()) {
+      e.step = step;
+      e.event = eventName;
+      e.priority = priority;
+      e.sourceId = src.getId();
+      e.source = src.getName();
+      e.targetId = tgt.getId();
+      e.target = tgt.getName();
+      e.queueTime = nanos;
+      e.commit();
+    }
+  }
+
+  //--- step history
+
+  /**
+   * keep the last 'n' steps, to dump them on errors. This has to be set
+   * before the machine is initialized, 0 turns it off
+   */
+  public void setHistorySize (int n) {
+    historySize = n;
+  }
+
+  public StepHistory getHistory () {
+    return history;
+  }
+
+  public void dumpHistory (PrintWriter pw) {
+    if (history != null) {
+      history.printOn(pw, this);
+    } else {
+      pw.println("no step history");
+      pw.flush();
+    }
+  }
+
+  /**
+   * called when an exception escapes from step(). Dumps the history to
+   * System.err, override to dump somewhere else
+   */
+  protected void historyOnError (Throwable t) {
+    if (history != null) {
+      PrintWriter pw = new PrintWriter(System.err);
+      pw.println("step history at " + t);
+      dumpHistory(pw);
+    }
+  }
+
+  //--- queue metrics
+
+  /**
+   * keep pending event queue metrics. Pass null to turn them off
+   */
+  public void setQueueMetrics (QueueMetrics queueMetrics) {
+    this.queueMetrics = queueMetrics;
+    if (queueMetrics != null && getNumberOfStates() > 0) { // already initialized
+      queueMetrics.reset(this);
+    }
+    updateTimed();
+  }
+
+  public QueueMetrics getQueueMetrics () {
+    return queueMetrics;
+  }
+
+  //--- guard efficacy
+
+  /**
+   * count how often triggers are offered, executed and fire. Pass null to
+   * turn it off
+   */
+  public void setGuardProfile (GuardProfile guardProfile) {
+    this.guardProfile = guardProfile;
+  }
+
+  public GuardProfile getGuardProfile () {
+    return guardProfile;
+  }
+
+  //--- JMX
+
+  /**
+   * register a MachineMXBean for this machine with the platform MBeanServer
+   */
+  public MachineMonitor registerMBean () {
+    if (monitor == null) {
+      monitor = new MachineMonitor(this);
+      monitor.register();
+    }
+    return monitor;
+  }
+
+  public void unregisterMBean () {
+    if (monitor != null) {
+      monitor.unregister();
+      monitor = null;
+    }
+  }
+
+  public long getEventsProcessed () {
+    return eventsProcessed;
+  }
+
+  //--- thread safe configuration queries
+
+  /**
+   * the configuration at the end of the last completed step. This can be
+   * called from any thread
+   */
+  public ActiveConfiguration getActiveConfiguration () {
+    return configuration;
+  }
+
+  /**
+   * is 'state' (or one of its substates) active at the end of the last
+   * completed step. This can be called from any thread
+   */
+  public boolean isIn (State state) {
+    ActiveConfiguration c = configuration;
+    return (c != null) && c.isIn(state);
+  }
+
+  /**
+   * called from the step thread between steps, when the configuration is in
+   * nextActives
+   */
+  protected void publishConfiguration () {
+    int words = Math.max(1, (getNumberOfStates() + 63) >> 6);
+    if (configBits == null || configBits.length != words) {
+      configBits = new long[words];
+    }
+    configuration = ActiveConfiguration.compute(nextActives, step, configBits, configuration);
+  }
+
+  protected void initialize () {
+    if (historySize > 0) {
+      history = new StepHistory(historySize, getNumberOfStates());
+    }
+    updateTimed();
+    super.initialize();
+    publishConfiguration();
+  }
+
+  //--- observers
+
+  public ObserverBus getObserverBus () {
+    if (observers == null) {
+      observers = new ObserverBus(this);
+    }
+    return observers;
+  }
+
+  /**
+   * observers that get called synchronously from the step loop
+   */
+  public void addObserver (MachineObserver o) {
+    getObserverBus().addObserver(o);
+    observed = true;
+  }
+
+  /**
+   * observers that get called from the ObserverBus thread
+   */
+  public void addAsyncObserver (MachineObserver o) {
+    getObserverBus().addAsyncObserver(o);
+    observed = true;
+  }
+
+  public void removeObserver (MachineObserver o) {
+    if (observers != null) {
+      observers.removeObserver(o);
+      observed = !observers.isEmpty();
+    }
+  }
+
+  /**
+   * stop the async observer thread once the machine is done
+   */
+  protected void checkTermination () {
+    if (observers != null) {
+      observers.close();
+    }
+  }
+
+  /**
+   * set a JournalReplay as event source, and enter replay mode until we have
+   * processed its last step
+   */
+  public void setReplay (JournalReplay replay) {
+    this.eventSource = replay;
+    this.replayUntil = replay.getLastStep();
+  }
+
+  public boolean isReplaying () {
+    return step <= replayUntil;
+  }
+
+  public int getStep() {
+    return step;
+  }
+
+  //--- event selection
+
+  protected boolean getEnablingEvent() {
+    StateEvent e = null;
+
+    if ((maxSteps >= 0) && (step >= maxSteps)) {
+      log("max step count reached, terminating");
+      return false;
+    }
+
+    if (!guardedCompletion && hasCompletionTrigger()) {
+      e = COMPLETION_EVENT;
+
+    } else {
+      guardedCompletion = false;
+
+      e = getPendingEvent();  // explicitly sent events have precedence
+      if (e == null && eventSource != null) {
+        while ((e = eventSource.getNextEvent(this)) != null && !isHandled(e)) {
+          if (logging) {
+            log("dropping unhandled event: ", e.toString());
+          }
+        }
+      }
+    }
+
+    selectEvent(e);
+    if (e != null) {
+      if (logging) {
+        log("processing event: ", e.toString());
+      }
+      return true;
+    } else {
+      return false;
+    }
+  }
+
+  /**
+   * our (only) policy for explicitly sent events: use the first event with
+   * the highest priority of all active states and their parents. For
+   * the same priority, the activeStates order counts (= makeInitial(..) order).
+   * See SimStateMachine for the configurable policies
+   */
+  protected StateEvent getPendingEvent () {
+    if (jfrRecording) {
+      JfrEvents.PendingEvent e = new JfrEvents.PendingEvent();
+      e.begin();
+      StateEvent se = selectPendingEvent();
+      e.end();
+      commitPendingEvent(e, se, (se != null) ? 1 : 0);
+      return se;
+    }
+    return selectPendingEvent();
+  }
+
+  protected boolean isJfrRecording () {
+    return jfrRecording;
+  }
+
+  /**
+   * commit a (begin/end timed) PendingEvent, 'se' being the first of the
+   * 'candidates' selected pending events. Nothing is emitted if there were none
+   */
+  protected void commitPendingEvent (JfrEvents.PendingEvent e, StateEvent se, int candidates) {
+    if (se != null && e.shouldCommit()) {
+      e.step = step;
+      e.event = se.getId();
+      e.priority = se.getEventSpec().getPriority();
+      e.stateId = se.getReceiver().getId();
+      e.state = se.getReceiver().getName();
+      e.candidates = candidates;
+      e.commit();
+    }
+  }
+
+  StateEvent selectPendingEvent () {
+    int topPriority = Integer.MIN_VALUE;
+    EventSpec eTop = null;
+    State stateTop = null;
+
+    for (State activeState = activeStates; activeState != null; activeState = activeState.getNext()) {
+      for (State state=activeState; state != null; state = state.getSuperState()){
+        EventSpec e = state.getPendingEventQueue().peekFirst();
+
+        if (e != null) {
+          int prio = e.getPriority();
+          if (prio > topPriority) { // use substate if priority is the same
+            topPriority = prio;
+            eTop = e;
+            stateTop = state;
+          }
+        }
+      }
+    }
+
+    if (eTop != null) {
+      return new SentStateEvent(stateTop, eTop);
+    } else {
+      return null;
+    }
+  }
+
+  /**
+   * set the event that is processed in the next step. This has to be called
+   * by all getEnablingEvent() implementations
+   */
+  protected void selectEvent (StateEvent e) {
+    curEvent = e;
+    nEvents++;
+
+    if (e != null) {
+      e.setConsumed(false);
+    }
+  }
+
+  /**
+   * check if the current event was already offered to this state during
+   * this step, and mark it as offered otherwise
+   */
+  protected boolean wasOffered (State state) {
+    int i = state.getId();
+
+    if (i >= offered.length) {
+      int[] a = new int[Math.max(i+1, offered.length*2)];
+      System.arraycopy(offered, 0, a, 0, offered.length);
+      offered = a;
+    }
+
+    if (offered[i] == nEvents) {
+      return true;
+    } else {
+      offered[i] = nEvents;
+      return false;
+    }
+  }
+
+  //--- snapshot support
+
+  protected boolean wasGuardedCompletion () {
+    return guardedCompletion;
+  }
+
+  protected void restored (MachineSnapshot snapshot) {
+    guardedCompletion = snapshot.wasGuardedCompletion();
+    curEvent = null;
+
+    // rebuild the handler index from the restored configuration
+    activeHandlers.clear();
+    indexed = new boolean[indexed.length];
+    long now = System.nanoTime();
+    if (profiler != null) {
+      profiler.clearActive();
+    }
+    for (int i=0; i<getNumberOfStates(); i++) {
+      State s = getState(i);
+      if (s.isActive()) {
+        addHandlers(s);
+        if (profiler != null) {
+          profiler.setActive(s, step, now);
+        }
+      }
+    }
+    if (queueMetrics != null) {
+      queueMetrics.reset(this);
+    }
+
+    publishConfiguration();
+  }
+
+  //--- the handler index
+
+  void addHandlers (State state) {
+    int i = state.getId();
+    if (i >= indexed.length) {
+      boolean[] a = new boolean[Math.max(i+1, indexed.length*2)];
+      System.arraycopy(indexed, 0, a, 0, indexed.length);
+      indexed = a;
+    }
+
+    if (!indexed[i]) { // entry actions can be executed for already active states
+      indexed[i] = true;
+
+      for (String mName : TriggerTable.getTable(state.getClass()).getNames()) {
+        int[] count = activeHandlers.get(mName);
+        if (count == null) {
+          count = new int[1];
+          activeHandlers.put(mName, count);
+        }
+        count[0]++;
+      }
+    }
+  }
+
+  /**
+   * a superState that was exited by setEndState(parent) is still active, and
+   * State.enterParent() doesn't enter it again if we go into another of its
+   * subStates. Since the index has to follow isActive, we add it back when
+   * one of its subStates is entered
+   */
+  void addParentHandlers (State state) {
+    for (State s = state.getSuperState(); s != null && s.isActive(); s = s.getSuperState()) {
+      int i = s.getId();
+      if (i < indexed.length && indexed[i]) {
+        break; // setEndState() exits a contiguous chain, so the rest is indexed
+      }
+      addHandlers(s);
+    }
+  }
+
+  void removeHandlers (State state) {
+    int i = state.getId();
+    if ((i < indexed.length) && indexed[i]) {
+      indexed[i] = false;
+
+      for (String mName : TriggerTable.getTable(state.getClass()).getNames()) {
+        activeHandlers.get(mName)[0]--;
+      }
+    }
+  }
+
+  protected boolean hasActiveHandler (String mName) {
+    int[] count = activeHandlers.get(mName);
+    return (count != null) && (count[0] > 0);
+  }
+
+  /**
+   * is there any active state that might process this event. Completions and
+   * timeouts are always handled, we don't want to loose those
+   */
+  protected boolean isHandled (StateEvent e) {
+    if (!dropUnhandled || e.isCompletion() || e.isTimeout()) {
+      return true;
+    } else {
+      return hasActiveHandler(e.getMethodName());
+    }
+  }
+
+  /**
+   * check if this state or any of its superStates has a trigger for the
+   * current event, so that the step loop can skip the executeTrigger() call
+   */
+  protected boolean isTriggerCandidate (State state) {
+    StateEvent e = curEvent;
+
+    if (e != null) {
+      String mName = e.getMethodName();
+      if (!hasActiveHandler(mName)) {
+        return false;
+      }
+
+      for (State s = state; s != null; s = s.getSuperState()) {
+        if (TriggerTable.getTable(s.getClass()).handles(mName)) {
+          return true;
+        }
+        if (e.isCompletion()) {
+          break; // completions are not looked up in superStates
+        }
+      }
+      return false;
+    }
+
+    return true;
+  }
+
+  protected StateEvent getCurrentEvent () {
+    return curEvent;
+  }
+
+  protected void setEnablingEventProcessed( ) {
+    if (curEvent != null) {
+      curEvent.setProcessed();
+      eventsProcessed++;
+
+      if (queueMetrics != null) {
+        EventSpec es = curEvent.getEventSpec();
+        if (es != null) {
+          queueMetrics.dequeued(curEvent.getReceiver(), es, System.nanoTime());
+        }
+      }
+
+      // replayed events are already in the journal
+      if (journal != null && !isReplaying()) {
+        journal.append(step, curEvent);
+      }
+      if (logging) log("event processed: ", curEvent.toString());
+    }
+  }
+
+  protected boolean isEnablingEventConsumed () {
+    return consumeOnce && (curEvent != null) && curEvent.isConsumed();
+  }
+
+  protected void checkStep (int nFired) {
+    if (nFired == 0){
+      if (curEvent != null && curEvent.isCompletion()){ // we had a guarded completion, try signals
+        guardedCompletion = true;
+      }
+    }
+    if (guardProfile != null && curEvent != null) {
+      guardProfile.stepEnded(curEvent.isCompletion(), nFired);
+    }
+
+    traceStep();
+    publishConfiguration();
+
+    if (checkpointer != null && (step % checkpointInterval) == 0) {
+      try {
+        checkpointer.checkpoint(this);
+      } catch (IOException x) {
+        executionError(x);
+      }
+    }
+  }
+
+  protected void triggerFired (State src, State tgt) {
+    if (history != null) {
+      history.addTransition(src, tgt);
+    }
+    if (jfrRecording) {
+      stepTransitions++;
+      JfrEvents.TriggerFired e = firedTrigger;
+      if (e != null) {
+        firedTrigger = null;
+        e.sourceId = src.getId();
+        e.source = src.getName();
+        e.targetId = tgt.getId();
+        e.target = tgt.getName();
+        e.commit();
+      }
+    }
+    if (columnTrace != null) {
+      columnTrace.addTransition(src, tgt);
+    }
+    if (observed) {
+      observers.transitionFired(step, src, tgt);
+    }
+  }
+
+  protected void eventSent (State src, State tgt, String eventName, Object[] args) {
+    if (observed) {
+      observers.eventSent(step, src, tgt, eventName, args);
+    }
+  }
+
+  protected void traceStep () {
+    if (history != null) {
+      history.endStep(step, curEvent, nextActives);
+    }
+    if (queueMetrics != null && queueMetrics.getMaxAge() > 0) {
+      queueMetrics.checkAges(this, System.nanoTime());
+    }
+    if (columnTrace != null) {
+      try {
+        columnTrace.endStep(step, curEvent, nextActives);
+      } catch (IOException x) {
+        executionError(x);
+      }
+    }
+  }
+
+  public String getEventId (){
+    if (curEvent != null){
+      return curEvent.getId();
+    } else {
+      return null;
+    }
+  }
+
+  public Object[] getEventArguments (){
+    if (curEvent != null){
+      Object[] args = curEvent.getArguments();
+      if (args != null){
+        return args;
+      } else {
+        return new Object[0];
+      }
+    } else {
+      return null;
+    }
+  }
+
+  protected boolean hasCompletionTrigger() {
+    for (State s = activeStates; s!=null; s=s.getNext()) {
+      Class<?> cls = s.getClass();
+      try {
+        if (cls.getDeclaredMethod(StateEvent.COMPLETION) != null){
+          return true;
+        }
+      } catch (NoSuchMethodException x) {}
+    }
+    return false;
+  }
+
+  //--- trigger and action execution
+
+  protected void executeEntryAction (State state) {
+    addHandlers(state);
+    addParentHandlers(state);
+    long t0 = (profiler != null) ? System.nanoTime() : 0;
+    JfrEvents.EntryAction e = jfrRecording ? new JfrEvents.EntryAction() : null;
+    if (e != null) {
+      e.begin();
+    }
+    try {
+      state.executeEntryAction();
+    } catch (Throwable t) {
+      executionError(t);
+    }
+    if (e != null) {
+      e.end();
+      if (e.shouldCommit()) {
+        e.step = step;
+        e.stateId = state.getId();
+        e.state = state.getName();
+        e.commit();
+      }
+    }
+    if (profiler != null) {
+      profiler.stateEntered(state, step, t0, System.nanoTime() - t0);
+    }
+    if (observed) {
+      observers.stateEntered(step, state);
+    }
+  }
+
+  protected void executeExitAction (State state) {
+    removeHandlers(state);
+    long t0 = (profiler != null) ? System.nanoTime() : 0;
+    JfrEvents.ExitAction e = jfrRecording ? new JfrEvents.ExitAction() : null;
+    if (e != null) {
+      e.begin();
+    }
+    try {
+      state.executeExitAction();
+    } catch (Throwable t) {
+      executionError(t);
+    }
+    if (e != null) {
+      e.end();
+      if (e.shouldCommit()) {
+        e.step = step;
+        e.stateId = state.getId();
+        e.state = state.getName();
+        e.commit();
+      }
+    }
+    if (profiler != null) {
+      profiler.stateExited(state, step, t0, System.nanoTime() - t0);
+    }
+    if (observed) {
+      observers.stateExited(step, state);
+    }
+  }
+
+  protected void executeDoAction (State state) {
+    try {
+      state.executeDoAction();
+    } catch (Throwable t) {
+      executionError(t);
+    }
+  }
+
+  /**
+   * check if the method name is in the wait event list. If it is, remove
+   * it.
+   *
+   * @return true if the wait list is empty
+   */
+  protected boolean checkUnBlocked (State s, Method m) {
+    EventSpec e = s.getWaitEvent();
+    EventSpec prev = null;
+
+    while (e != null) {
+      if (e.matches(m)) {
+        if (prev == null) {
+          s.removeWaitEvent();
+          return (s.getWaitEvent() == null);
+        } else {
+          prev.setNext(e.getNext());
+          return false;
+        }
+      }
+
+      e = e.getNext();
+    }
+
+    return true;
+  }
+
+  /**
+   * look up a matching trigger method for the current event in the state
+   * and (recursively) its super states, and execute it. Note this does not
+   * necessarily mean the guards hold and we have a transition
+   */
+  protected void executeTrigger (State state) {
+    StateEvent event = getCurrentEvent();
+    firedTrigger = null;
+
+    if (event != null) {
+      if (consumeOnce && event.isConsumed()) {
+        return; // already handled by another region
+      }
+
+      if (isMatchingReceiver(state,event)) {
+
+        while (state != null) {
+          if (wasOffered(state)) {
+            // a sibling region already walked up from here, and so did we
+            // for the rest of the superState chain
+            return;
+          }
+
+          // we can't look this up directly because we don't know about the return type
+          // note that we look this up in the enclosing *and* the class hierarchy
+          Method[] triggers = TriggerTable.getTable(state.getClass()).getTriggers(event.getMethodName());
+          if (guardProfile != null && triggers.length > 0) {
+            guardProfile.triggerOffered(state.getName(), event.getMethodName());
+          }
+          for (Method m : triggers) {
+            if (isMatchingMethod(m, event)) {
+
+              if (checkUnBlocked(state, m)) {
+                try {
+                  if (logging) log("state ", state.getFieldName(), " executes trigger: ", m.toString());
+
+                  // we don't have to convert anything here (autoboxing)
+                  long t0 = (profiler != null || guardProfile != null) ? System.nanoTime() : 0;
+                  JfrEvents.TriggerFired e = jfrRecording ? new JfrEvents.TriggerFired() : null;
+                  if (e != null) {
+                    e.begin();
+                  }
+                  m.invoke(state, event.getArguments());
+                  if (t0 != 0) {
+                    long dt = System.nanoTime() - t0;
+                    if (profiler != null) {
+                      profiler.triggerExecuted(state, m.getName(), dt);
+                    }
+                    if (guardProfile != null) {
+                      guardProfile.triggerExecuted(state.getName(), m.getName(), hasNextState(), dt);
+                    }
+                  }
+                  if (e != null) {
+                    // committed by triggerFired() if the trigger set a next state
+                    e.end();
+                    if (e.shouldCommit()) {
+                      e.step = step;
+                      e.event = event.getId();
+                      firedTrigger = e;
+                    }
+                  }
+
+                  // completions are per state, so they never get consumed
+                  if (!event.isCompletion()) {
+                    event.setConsumed(true);
+                  }
+                  return;
+                } catch (Throwable t) {
+                  executionError (t);
+                }
+              }
+            }
+          }
+
+          if (event.isCompletion()) {
+            return; // no recursive lookup
+          } else {
+            state = state.getSuperState();
+          }
+        }
+      }
+    }
+  }
+
+  protected boolean isMatchingMethod (Method m, StateEvent e) {
+
+    if (m.getName().equals(e.getMethodName())){
+      Object[] args = e.getArguments();
+      if (args == null) {
+        // getParameterCount() doesn't copy the parameter types
+        return (m.getParameterCount() == 0);
+      }
+      Type[] argTypes = m.getGenericParameterTypes();
+      if (args.length != argTypes.length) {
+        return false;
+      }
+      for (int i=0; i<argTypes.length; i++) {
+
+        if (args[i].getClass().isInstance(argTypes[i])) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return false;
+  }
+
+  protected boolean isMatchingReceiver (State s, StateEvent e) {
+    NameMatcher nm = e.getReceiverMatcher();
+    return (nm == null) || nm.matchesAny(s.getFieldName());
+  }
+
+  /**
+   * embedded machines don't get to decide if the application should exit,
+   * so we just pass this up
+   */
+  protected void executionError (Throwable t) {
+    if (t instanceof InvocationTargetException) {
+      t = t.getCause();
+    }
+
+    if (t instanceof RuntimeException) {
+      throw (RuntimeException)t;
+    } else if (t instanceof Error) {
+      throw (Error)t;
+    } else {
+      throw new RuntimeException("state machine execution failed", t);
+    }
+  }
+
+  //--- logging, based on java.util.logging so that we don't need JPF for it
+
+  private static final ThreadLocal<StringBuilder> logBuffer = new ThreadLocal<StringBuilder>() {
+    protected StringBuilder initialValue() {
+      return new StringBuilder();
+    }
+  };
+
+  public boolean supportsLogging () {
+    return logger.isLoggable(Level.INFO);
+  }
+
+  public void logAppend (String msg) {
+    if (logger.isLoggable(Level.INFO)) {
+      logBuffer.get().append(msg);
+    }
+  }
+
+  public void log () {
+    StringBuilder buffer = logBuffer.get();
+    if (buffer.length() > 0) {
+      log(buffer.toString());
+      buffer.setLength(0);
+    }
+  }
+
+  public void log (String message) {
+    if (logger.isLoggable(Level.INFO)) {
+      logger.info(message);
+    }
+  }
+
+  public void log (String s1, String s2) {
+    if (logger.isLoggable(Level.INFO)) {
+      logger.info(s1 + s2);
+    }
+  }
+
+  public void log (String s1, String s2, String s3) {
+    if (logger.isLoggable(Level.INFO)) {
+      logger.info(s1 + s2 + s3);
+    }
+  }
+
+  public void log (String s1, String s2, String s3, String s4) {
+    if (logger.isLoggable(Level.INFO)) {
+      logger.info(s1 + s2 + s3 + s4);
+    }
+  }
+}
@@ -0,0 +1,368 @@
+//
+// Copyright  (C) 2007 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+package gov.nasa.jpf.sc.runtime;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * append-only journal of processed events. The step thread only encodes
+ * records into the current buffer, full buffers are handed to a background
+ * writer that writes all buffers it finds in one batch and then forces the
+ * file once (group commit). If the step thread doesn't fill the current
+ * buffer within the commit interval, the writer takes it over itself, so
+ * records never wait longer than that (plus one write)
+ *
+ * all buffers come from a fixed pool of 'nBuffers'. If the writer falls
+ * behind and the pool is exhausted, append() blocks until a buffer is
+ * written (backpressure - we don't drop journal records, and we don't
+ * allocate). Records that don't fit into a buffer are copied and written
+ * directly, without taking a buffer from the pool
+ *
+ * see JournalCodec for the format, and JournalReplay for recovery
+ */
+public class EventJournal {
+
+  static Logger logger = Logger.getLogger("gov.nasa.jpf.sc");
+
+  static final ByteBuffer CLOSE = ByteBuffer.allocate(0);
+  static final long MIN_POLL_NANOS = 1000000; // for commitMillis 0
+
+  File file;
+  RandomAccessFile raf;
+  FileChannel channel;
+
+  JournalCodec codec = new JournalCodec();
+
+  int bufferSize;
+  ArrayBlockingQueue<ByteBuffer> free;
+  ArrayBlockingQueue<ByteBuffer> full; // pool buffers, oversized records and CLOSE
+  ByteBuffer cur; // guarded by 'lock', the writer can take it over
+  final ReentrantLock lock = new ReentrantLock();
+
+
+  long commitNanos;
+  long curStart;     // when did we put the first record into 'cur'
+  boolean sync;
+
+  Thread writer;
+  volatile IOException writeError;
+
+  // some statistics
+  long nRecords;
+  long nOverflows; // oversized records
+  long nStalls;    // appends that had to wait for a free buffer
+  volatile long nBatches;
+
+  /**
+   * open a journal for appending. A torn tail from a previous crash is cut
+   * off, and we start a new symbol segment
+   */
+  public EventJournal (File file, int bufferSize, int nBuffers, long commitMillis, boolean sync)
+         throws IOException {
+    this.file = file;
+    this.bufferSize = bufferSize;
+    this.commitNanos = TimeUnit.MILLISECONDS.toNanos(commitMillis);
+    this.sync = sync;
+
+    long validLength = getValidLength(file);
+
+    raf = new RandomAccessFile(file, "rw");
+    channel = raf.getChannel();
+    channel.truncate(validLength);
+    channel.position(validLength);
+
+    free = new ArrayBlockingQueue<ByteBuffer>(nBuffers);
+    full = new ArrayBlockingQueue<ByteBuffer>(nBuffers + 2);
+    for (int i=0; i<nBuffers; i++) {
+      free.add(ByteBuffer.allocateDirect(bufferSize));
+    }
+    cur = free.poll();
+
+    writer = new Thread("sc-journal-writer") {
+      public void run() {
+        writeLoop();
+      }
+    };
+    writer.setDaemon(true);
+    writer.start();
+
+    put(codec.encodeReset());
+  }
+
+  //--- the step thread side
+
+  /**
+   * append a processed event. This only blocks if all buffers are waiting
+   * to be written
+   */
+  public void append (int step, StateEvent e) {
+    if (writeError != null) {
+      throw new RuntimeException("event journal write failed", writeError);
+    }
+
+    ByteBuffer rec = codec.encodeEvent(step, JournalCodec.getKind(e), e.getId(), e.getArguments());
+    lock.lock();
+    try {
+      putLocked(rec);
+      nRecords++;
+
+      if (System.nanoTime() - curStart > commitNanos) {
+        flushLocked();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  void put (ByteBuffer rec) {
+    lock.lock();
+    try {
+      putLocked(rec);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  void putLocked (ByteBuffer rec) {
+    if (cur.remaining() < rec.remaining()) {
+      flushLocked();
+
+      if (cur.remaining() < rec.remaining()) { // record bigger than our buffers
+        // the codec reuses 'rec', so we have to copy it. It goes directly to
+        // the writer, after the buffer we just flushed
+        ByteBuffer b = ByteBuffer.allocate(rec.remaining());
+        b.put(rec);
+        enqueue(b);
+        nOverflows++;
+        return;
+      }
+    }
+
+    if (cur.position() == 0) {
+      curStart = System.nanoTime();
+    }
+    cur.put(rec);
+  }
+
+  void enqueue (ByteBuffer b) {
+    try {
+      full.put(b);
+    } catch (InterruptedException ix) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("interrupted while waiting for event journal writer");
+    }
+  }
+
+  /**
+   * hand the current buffer over to the writer (doesn't wait for the write,
+   * unless we have to wait for a free buffer)
+   */
+  public void flush () {
+    lock.lock();
+    try {
+      flushLocked();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  void flushLocked () {
+    if (cur.position() > 0) {
+      enqueue(cur);
+
+      cur = free.poll();
+      if (cur == null) {
+        nStalls++;
+        try {
+          cur = free.take(); // backpressure, the writer returns it after the write
+        } catch (InterruptedException ix) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException("interrupted while waiting for event journal buffer");
+        }
+      }
+    }
+  }
+
+  /**
+   * called by the writer if it didn't get a buffer within the commit
+   * interval. We only hand over 'cur' if it is old enough and we have a
+   * replacement, otherwise the step thread will do it. If the step thread
+   * holds the lock it is not idle (and might wait for us), so we don't block
+   */
+  void commitIdle () {
+    if (lock.tryLock()) {
+      try {
+        if (cur.position() > 0 && (System.nanoTime() - curStart) >= commitNanos) {
+          ByteBuffer b = free.poll();
+          if (b != null) {
+            full.offer(cur); // can't fail, there is a slot for every pool buffer
+            cur = b;
+          }
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * flush, wait for the writer to finish and close the file
+   */
+  public void close () throws IOException {
+    flush();
+    enqueue(CLOSE);
+    try {
+      writer.join();
+    } catch (InterruptedException ix) {
+      Thread.currentThread().interrupt();
+    }
+
+    channel.force(false);
+    channel.close();
+    raf.close();
+
+    if (writeError != null) {
+      throw writeError;
+    }
+  }
+
+  public long getNumberOfRecords() {
+    return nRecords;
+  }
+
+  public long getNumberOfBatches() {
+    return nBatches;
+  }
+
+  public long getNumberOfOverflows() {
+    return nOverflows;
+  }
+
+  public long getNumberOfStalls() {
+    return nStalls;
+  }
+
+  //--- the writer thread side
+
+  void writeLoop () {
+    ArrayList<ByteBuffer> batch = new ArrayList<ByteBuffer>();
+
+    try {
+      while (true) {
+        ByteBuffer b = full.poll(Math.max(commitNanos, MIN_POLL_NANOS), TimeUnit.NANOSECONDS);
+        if (b == null) { // nothing came in, see if the step thread is idle
+          commitIdle();
+          continue;
+        }
+        batch.add(b);
+        full.drainTo(batch); // group commit everything that is ready
+
+        boolean done = false;
+        for (ByteBuffer buf : batch) {
+          if (buf == CLOSE) {
+            done = true;
+            continue;
+          }
+
+          buf.flip();
+          while (buf.hasRemaining()) {
+            channel.write(buf);
+          }
+          buf.clear();
+
+          if (buf.isDirect()) {
+            free.offer(buf); // oversized record copies are not pool buffers
+          }
+        }
+
+        if (sync) {
+          channel.force(false);
+        }
+        nBatches++;
+        batch.clear();
+
+        if (done) {
+          return;
+        }
+      }
+
+    } catch (InterruptedException ix) {
+      // we are shutting down
+    } catch (IOException iox) {
+      writeError = iox;
+      logger.log(Level.SEVERE, "event journal write failed: " + file, iox);
+    }
+  }
+
+  //--- recovery support
+
+  /**
+   * @return the number of bytes of valid records in the file
+   */
+  public static long getValidLength (File file) throws IOException {
+    if (!file.exists()) {
+      return 0;
+    }
+
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      JournalCodec codec = new JournalCodec();
+      while (codec.decode(in) != null);
+      return codec.getValidLength();
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * read all event entries of a journal file
+   */
+  public static ArrayList<JournalCodec.Entry> read (File file) throws IOException {
+    ArrayList<JournalCodec.Entry> list = new ArrayList<JournalCodec.Entry>();
+
+    if (file.exists()) {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      try {
+        JournalCodec codec = new JournalCodec();
+        JournalCodec.Entry e;
+        while ((e = codec.decode(in)) != null) {
+          list.add(e);
+        }
+      } finally {
+        in.close();
+      }
+    }
+
+    return list;
+  }
+}
@@ -0,0 +1,60 @@
+//
+// Copyright  (C) 2007 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+package gov.nasa.jpf.sc.runtime;
+
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * a simple thread safe EventSource for embedded machines. Events can be posted
+ * from any thread, the machine blocks until there is a new event or the
+ * queue gets closed
+ */
+public class EventQueue implements EventSource {
+
+  // our end-of-events marker
+  static final StateEvent CLOSED = new StateEvent("<closed>");
+
+  LinkedBlockingQueue<StateEvent> queue = new LinkedBlockingQueue<StateEvent>();
+
+  public void post (String eventName, Object... args) {
+    queue.add(new StateEvent(eventName, args));
+  }
+
+  public void post (StateEvent e) {
+    queue.add(e);
+  }
+
+  public void close () {
+    queue.add(CLOSED);
+  }
+
+  public StateEvent getNextEvent (EmbeddedStateMachine machine) {
+    try {
+      StateEvent e = queue.take();
+      if (e == CLOSED) {
+        return null;
+      }
+      return e;
+
+    } catch (InterruptedException ix) {
+      return null;
+    }
+  }
+}
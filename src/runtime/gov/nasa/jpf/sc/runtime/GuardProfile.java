@@ -0,0 +1,217 @@
+//
+// Copyright  (C) 2007 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+package gov.nasa.jpf.sc.runtime;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * guard efficacy statistics. Per (state, trigger method) we count how often
+ * the current event was offered to the trigger, how often the trigger was
+ * executed (i.e. wasn't blocked by a wait), and how often it actually
+ * fired a transition, plus the cost of executions that didn't fire. Per
+ * step we count events that didn't fire anything, and guarded completions
+ *
+ * this is used by EmbeddedStateMachine (cost in nanoseconds) and by the
+ * GuardEfficacy JPF listener (cost in executed instructions), so keys are
+ * state names, not State objects
+ */
+public class GuardProfile {
+
+  /**
+   * what we know about one trigger of one state
+   */
+  public static class TriggerStats {
+    final String state;
+    final String trigger;
+
+    long offered;
+    long executed;
+    long fired;
+    long cost;       // of all executions
+    long wastedCost; // of executions that didn't fire
+
+    TriggerStats (String state, String trigger) {
+      this.state = state;
+      this.trigger = trigger;
+    }
+
+    public String getState () {
+      return state;
+    }
+
+    public String getTrigger () {
+      return trigger;
+    }
+
+    public long getOffered () {
+      return offered;
+    }
+
+    public long getExecuted () {
+      return executed;
+    }
+
+    public long getFired () {
+      return fired;
+    }
+
+    public long getCost () {
+      return cost;
+    }
+
+    public long getWastedCost () {
+      return wastedCost;
+    }
+
+    /**
+     * fraction of executions that fired, 0 if it never executed
+     */
+    public double getEfficacy () {
+      return (executed > 0) ? (double)fired / executed : 0.0;
+    }
+  }
+
+  final String costUnit;
+
+  // state name -> trigger name -> stats
+  final HashMap<String,HashMap<String,TriggerStats>> stats = new HashMap<String,HashMap<String,TriggerStats>>();
+
+  long steps;
+  long nonFiringSteps;    // the event didn't fire any transition
+  long guardedCompletions; // of those, completion events
+
+  public GuardProfile (String costUnit) {
+    this.costUnit = costUnit;
+  }
+
+  public GuardProfile () {
+    this("nsec");
+  }
+
+  public TriggerStats getStats (String state, String trigger) {
+    HashMap<String,TriggerStats> map = stats.get(state);
+    if (map == null) {
+      map = new HashMap<String,TriggerStats>();
+      stats.put(state, map);
+    }
+
+    TriggerStats ts = map.get(trigger);
+    if (ts == null) {
+      ts = new TriggerStats(state, trigger);
+      map.put(trigger, ts);
+    }
+    return ts;
+  }
+
+  //--- the machine (or listener) interface
+
+  public void triggerOffered (String state, String trigger) {
+    getStats(state, trigger).offered++;
+  }
+
+  public void triggerExecuted (String state, String trigger, boolean fired, long cost) {
+    TriggerStats ts = getStats(state, trigger);
+    ts.executed++;
+    ts.cost += cost;
+    if (fired) {
+      ts.fired++;
+    } else {
+      ts.wastedCost += cost;
+    }
+  }
+
+  public void stepEnded (boolean completion, int nFired) {
+    steps++;
+    if (nFired == 0) {
+      nonFiringSteps++;
+      if (completion) {
+        guardedCompletions++;
+      }
+    }
+  }
+
+  //--- queries
+
+  public long getSteps () {
+    return steps;
+  }
+
+  public long getNonFiringSteps () {
+    return nonFiringSteps;
+  }
+
+  public long getGuardedCompletions () {
+    return guardedCompletions;
+  }
+
+  /**
+   * all stats, sorted by descending wasted cost (the most wasteful guards first)
+   */
+  public ArrayList<TriggerStats> getAllStats () {
+    ArrayList<TriggerStats> list = new ArrayList<TriggerStats>();
+    for (HashMap<String,TriggerStats> map : stats.values()) {
+      list.addAll(map.values());
+    }
+
+    Collections.sort(list, new Comparator<TriggerStats>() {
+      public int compare (TriggerStats a, TriggerStats b) {
+        if (a.wastedCost != b.wastedCost) {
+          return (a.wastedCost > b.wastedCost) ? -1 : 1;
+        }
+        long wa = a.executed - a.fired;
+        long wb = b.executed - b.fired;
+        if (wa != wb) {
+          return (wa > wb) ? -1 : 1;
+        }
+        int c = a.state.compareTo(b.state);
+        return (c != 0) ? c : a.trigger.compareTo(b.trigger);
+      }
+    });
+    return list;
+  }
+
+  public void reset () {
+    stats.clear();
+    steps = 0;
+    nonFiringSteps = 0;
+    guardedCompletions = 0;
+  }
+
+  public void printOn (PrintWriter pw) {
+    pw.println("guard efficacy (cost in " + costUnit + "):");
+    pw.printf("  %-40s %-16s %9s %9s %9s %7s %12s %12s%n",
+              "state", "trigger", "offered", "executed", "fired", "fire%", "wasted", "avg wasted");
+
+    for (TriggerStats ts : getAllStats()) {
+      long nWasted = ts.executed - ts.fired;
+      pw.printf("  %-40s %-16s %9d %9d %9d %6.1f%% %12d %12d%n",
+                ts.state, ts.trigger, ts.offered, ts.executed, ts.fired, ts.getEfficacy() * 100,
+                ts.wastedCost, (nWasted > 0) ? ts.wastedCost / nWasted : 0);
+    }
+
+    pw.println("  steps: " + steps + ", without transition: " + nonFiringSteps +
+               ", guarded completions: " + guardedCompletions);
+    pw.flush();
+  }
+}
@@ -0,0 +1,212 @@
+//
+// Copyright  (C) 2007 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+package gov.nasa.jpf.sc.runtime;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder event types for EmbeddedStateMachine executions, so
+ * that statechart activity can be correlated with GC, lock and I/O events
+ * of the same recording. The types are (all in category 'Statechart'):
+ *
+ *   gov.nasa.jpf.sc.Step          - one step(), with the processed event
+ *   gov.nasa.jpf.sc.TriggerFired  - a trigger that fired, duration is the trigger method
+ *   gov.nasa.jpf.sc.EntryAction   - entry action of a state
+ *   gov.nasa.jpf.sc.ExitAction    - exit action of a state
+ *   gov.nasa.jpf.sc.Send          - sendEvent(), with the PendingEventQueue insertion time
+ *   gov.nasa.jpf.sc.PendingEvent  - selection of the next pending event(s), also by SimStateMachine
+ *
+ * the machine only creates events while a recording is running, otherwise
+ * each hook costs a boolean check. We find out about recordings through a
+ * FlightRecorderListener that is installed by enable()
+ */
+public class JfrEvents {
+
+  static volatile boolean recording;
+  static boolean listening;
+
+  public static synchronized void enable () {
+    if (!listening) {
+      listening = true;
+      FlightRecorder.addListener(new FlightRecorderListener() {
+        public void recordingStateChanged (Recording r) {
+          update();
+        }
+      });
+      update();
+    }
+  }
+
+  static void update () {
+    boolean isRunning = false;
+    if (FlightRecorder.isInitialized()) {
+      for (Recording r : FlightRecorder.getFlightRecorder().getRecordings()) {
+        if (r.getState() == RecordingState.RUNNING) {
+          isRunning = true;
+        }
+      }
+    }
+    recording = isRunning;
+  }
+
+  public static boolean isRecording () {
+    return recording;
+  }
+
+  //--- the event types
+
+  @Name("gov.nasa.jpf.sc.Step")
+  @Label("Statechart Step")
+  @Category("Statechart")
+  @StackTrace(false)
+  public static class Step extends Event {
+    @Label("Step")
+    int step;
+
+    @Label("Event")
+    String event;
+
+    @Label("Transitions")
+    int transitions;
+  }
+
+  @Name("gov.nasa.jpf.sc.TriggerFired")
+  @Label("Statechart Trigger Fired")
+  @Description("a trigger method that set a next state, duration is its execution time")
+  @Category("Statechart")
+  @StackTrace(false)
+  public static class TriggerFired extends Event {
+    @Label("Step")
+    int step;
+
+    @Label("Event")
+    String event;
+
+    @Label("Source Id")
+    int sourceId;
+
+    @Label("Source")
+    String source;
+
+    @Label("Target Id")
+    int targetId;
+
+    @Label("Target")
+    String target;
+  }
+
+  @Name("gov.nasa.jpf.sc.EntryAction")
+  @Label("Statechart Entry Action")
+  @Category("Statechart")
+  @StackTrace(false)
+  public static class EntryAction extends Event {
+    @Label("Step")
+    int step;
+
+    @Label("State Id")
+    int stateId;
+
+    @Label("State")
+    String state;
+  }
+
+  @Name("gov.nasa.jpf.sc.ExitAction")
+  @Label("Statechart Exit Action")
+  @Category("Statechart")
+  @StackTrace(false)
+  public static class ExitAction extends Event {
+    @Label("Step")
+    int step;
+
+    @Label("State Id")
+    int stateId;
+
+    @Label("State")
+    String state;
+  }
+
+  @Name("gov.nasa.jpf.sc.Send")
+  @Label("Statechart Send")
+  @Category("Statechart")
+  @StackTrace(false)
+  public static class Send extends Event {
+    @Label("Step")
+    int step;
+
+    @Label("Event")
+    String event;
+
+    @Label("Priority")
+    int priority;
+
+    @Label("Source Id")
+    int sourceId;
+
+    @Label("Source")
+    String source;
+
+    @Label("Target Id")
+    int targetId;
+
+    @Label("Target")
+    String target;
+
+    @Label("Queue Time")
+    @Description("time to insert the event into the PendingEventQueue of the target")
+    @Timespan(Timespan.NANOSECONDS)
+    long queueTime;
+  }
+
+  @Name("gov.nasa.jpf.sc.PendingEvent")
+  @Label("Statechart Pending Event")
+  @Description("selection of the highest priority pending event of the active states")
+  @Category("Statechart")
+  @StackTrace(false)
+  public static class PendingEvent extends Event {
+    @Label("Step")
+    int step;
+
+    @Label("Event")
+    String event;
+
+    @Label("Priority")
+    int priority;
+
+    @Label("State Id")
+    int stateId;
+
+    @Label("State")
+    String state;
+
+    @Label("Candidates")
+    @Description("number of pending events the selection policy returned (SimStateMachine can return several)")
+    int candidates;
+  }
+}
@@ -0,0 +1,430 @@
+//
+// Copyright  (C) 2007 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+package gov.nasa.jpf.sc.runtime;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+/**
+ * compact binary encoding of processed events. Event ids are written only
+ * once per segment as symbol definitions, events just refer to the symbol
+ * index. Records are length prefixed and CRC protected:
+ *
+ *   record  := len:int payload crc:int
+ *   payload := RESET | SYMBOL idx:int utf | EVENT step:int kind:byte sym:int nArgs:byte arg*
+ *            | HEADER seed:long utf | CONFIG step:int n:int stateId:int*
+ *   arg     := 'N' | 'S' utf | 'I' int | 'Z' byte | 'D' double | 'J' long
+ *            | 'F' float | 'B' byte | 'H' short | 'C' char | 'E' utf utf
+ *
+ * (utf is a short length followed by UTF-8 bytes, enums are stored as class
+ * and constant name). Other argument types are rejected, we don't want to
+ * replay triggers with args that were turned into Strings. HEADER and CONFIG records
+ * are only used by traces (see gov.nasa.jpf.tools.sc.TraceRecorder), journals
+ * just contain events. This is not thread safe, each writer or reader needs
+ * its own codec
+ */
+public class JournalCodec {
+
+  public static final byte RESET = 'R';
+  public static final byte SYMBOL = 'S';
+  public static final byte EVENT = 'E';
+  public static final byte HEADER = 'H';
+  public static final byte CONFIG = 'C';
+
+  // event kinds
+  public static final byte EXTERNAL = 0;
+  public static final byte SENT = 1;
+  public static final byte COMPLETION = 2;
+  public static final byte TIMEOUT = 3;
+
+  static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /**
+   * a decoded event record
+   */
+  public static class Entry {
+    public byte type = EVENT;
+    public int step;
+    public byte kind;
+    public String id;
+    public Object[] args;
+
+    public long seed;     // HEADER
+    public int[] config;  // CONFIG
+
+    public StateEvent toStateEvent() {
+      return new StateEvent(id, args);
+    }
+
+    public String toString() {
+      return step + ":" + toStateEvent();
+    }
+  }
+
+  HashMap<String,Integer> symbols = new HashMap<String,Integer>();
+  ArrayList<String> symbolList = new ArrayList<String>();
+
+  // number of bytes of valid records we have decoded so far
+  long validLength;
+
+  ByteBuffer out = ByteBuffer.allocate(256);
+  int recordStart;
+  CRC32 crc = new CRC32();
+
+  //--- encoding
+
+  /**
+   * the kind depends on where the event came from, not on its name. An
+   * EventSource can post a "timeout" too, which has to be replayed like any
+   * other EXTERNAL event. Only completions and timeouts the machine created
+   * itself are re-created during replay
+   */
+  public static byte getKind (StateEvent e) {
+    if (e.getEventSpec() != null) {
+      return SENT;
+    } else if (e.isSynthetic()) {
+      return e.isTimeout() ? TIMEOUT : COMPLETION;
+    } else {
+      return EXTERNAL;
+    }
+  }
+
+  void ensure (int n) {
+    if (out.remaining() < n) {
+      ByteBuffer b = ByteBuffer.allocate(Math.max(out.capacity()*2, out.position() + n));
+      out.flip();
+      b.put(out);
+      out = b;
+    }
+  }
+
+  void beginRecord () {
+    ensure(4);
+    recordStart = out.position();
+    out.putInt(0); // patched in endRecord
+  }
+
+  void endRecord () {
+    int len = out.position() - recordStart - 4;
+    out.putInt(recordStart, len);
+
+    crc.reset();
+    crc.update(out.array(), recordStart + 4, len);
+    ensure(4);
+    out.putInt((int)crc.getValue());
+  }
+
+  void putUTF (String s) {
+    byte[] b = s.getBytes(UTF8);
+    ensure(2 + b.length);
+    out.putShort((short)b.length);
+    out.put(b);
+  }
+
+  void putArg (Object o) {
+    ensure(9);
+    if (o == null) {
+      out.put((byte)'N');
+    } else if (o instanceof String) {
+      out.put((byte)'S');
+      putUTF((String)o);
+    } else if (o instanceof Integer) {
+      out.put((byte)'I');
+      out.putInt(((Integer)o).intValue());
+    } else if (o instanceof Boolean) {
+      out.put((byte)'Z');
+      out.put(((Boolean)o).booleanValue() ? (byte)1 : (byte)0);
+    } else if (o instanceof Double) {
+      out.put((byte)'D');
+      out.putDouble(((Double)o).doubleValue());
+    } else if (o instanceof Long) {
+      out.put((byte)'J');
+      out.putLong(((Long)o).longValue());
+    } else if (o instanceof Float) {
+      out.put((byte)'F');
+      out.putFloat(((Float)o).floatValue());
+    } else if (o instanceof Byte) {
+      out.put((byte)'B');
+      out.put(((Byte)o).byteValue());
+    } else if (o instanceof Short) {
+      out.put((byte)'H');
+      out.putShort(((Short)o).shortValue());
+    } else if (o instanceof Character) {
+      out.put((byte)'C');
+      out.putChar(((Character)o).charValue());
+    } else if (o instanceof Enum) {
+      out.put((byte)'E');
+      putUTF(((Enum<?>)o).getDeclaringClass().getName());
+      putUTF(((Enum<?>)o).name());
+    }
+  }
+
+  public static boolean isEncodable (Object o) {
+    return (o == null) || (o instanceof String) || (o instanceof Integer) || (o instanceof Boolean)
+        || (o instanceof Double) || (o instanceof Long) || (o instanceof Float) || (o instanceof Byte)
+        || (o instanceof Short) || (o instanceof Character) || (o instanceof Enum);
+  }
+
+  /**
+   * start a new segment, i.e. forget all symbols. This is the first record
+   * whenever we (re)open a journal
+   * @return the encoded record(s), valid until the next encode call
+   */
+  public ByteBuffer encodeReset () {
+    out.clear();
+    symbols.clear();
+    symbolList.clear();
+
+    beginRecord();
+    ensure(1);
+    out.put(RESET);
+    endRecord();
+
+    out.flip();
+    return out;
+  }
+
+  /**
+   * @return the encoded record(s), valid until the next encode call
+   */
+  public ByteBuffer encodeEvent (int step, byte kind, String id, Object[] args) {
+    int nArgs = (args != null) ? args.length : 0;
+    for (int i=0; i<nArgs; i++) { // check before we define any symbol
+      if (!isEncodable(args[i])) {
+        throw new IllegalArgumentException("cannot encode argument of event " + id + ": " +
+                                           args[i].getClass().getName());
+      }
+    }
+
+    out.clear();
+
+    Integer sym = symbols.get(id);
+    if (sym == null) {
+      sym = Integer.valueOf(symbols.size());
+      symbols.put(id, sym);
+
+      beginRecord();
+      ensure(5);
+      out.put(SYMBOL);
+      out.putInt(sym.intValue());
+      putUTF(id);
+      endRecord();
+    }
+
+    beginRecord();
+    ensure(11);
+    out.put(EVENT);
+    out.putInt(step);
+    out.put(kind);
+    out.putInt(sym.intValue());
+    out.put((byte)nArgs);
+    for (int i=0; i<nArgs; i++) {
+      putArg(args[i]);
+    }
+    endRecord();
+
+    out.flip();
+    return out;
+  }
+
+  /**
+   * @return the encoded record, valid until the next encode call
+   */
+  public ByteBuffer encodeHeader (long seed, String masterType) {
+    out.clear();
+
+    beginRecord();
+    ensure(9);
+    out.put(HEADER);
+    out.putLong(seed);
+    putUTF(masterType);
+    endRecord();
+
+    out.flip();
+    return out;
+  }
+
+  /**
+   * @return the encoded record, valid until the next encode call
+   */
+  public ByteBuffer encodeConfig (int step, int[] stateIds, int n) {
+    out.clear();
+
+    beginRecord();
+    ensure(9 + 4*n);
+    out.put(CONFIG);
+    out.putInt(step);
+    out.putInt(n);
+    for (int i=0; i<n; i++) {
+      out.putInt(stateIds[i]);
+    }
+    endRecord();
+
+    out.flip();
+    return out;
+  }
+
+  //--- decoding
+
+  static String getUTF (ByteBuffer b) {
+    int len = b.getShort() & 0xffff;
+    byte[] a = new byte[len];
+    b.get(a);
+    return new String(a, UTF8);
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  static Object getEnum (String clsName, String name) throws IOException {
+    try {
+      Class<?> cls;
+      try {
+        cls = Class.forName(clsName);
+      } catch (ClassNotFoundException x) {
+        cls = Class.forName(clsName, true, Thread.currentThread().getContextClassLoader());
+      }
+      return Enum.valueOf((Class<Enum>)cls, name);
+
+    } catch (ClassNotFoundException x) {
+      throw new IOException("unknown enum argument type: " + clsName);
+    } catch (IllegalArgumentException x) {
+      throw new IOException("unknown enum constant: " + clsName + '.' + name);
+    }
+  }
+
+  static Object getArg (ByteBuffer b) throws IOException {
+    byte tag = b.get();
+    switch (tag) {
+    case 'N': return null;
+    case 'S': return getUTF(b);
+    case 'I': return Integer.valueOf(b.getInt());
+    case 'Z': return Boolean.valueOf(b.get() != 0);
+    case 'D': return Double.valueOf(b.getDouble());
+    case 'J': return Long.valueOf(b.getLong());
+    case 'F': return Float.valueOf(b.getFloat());
+    case 'B': return Byte.valueOf(b.get());
+    case 'H': return Short.valueOf(b.getShort());
+    case 'C': return Character.valueOf(b.getChar());
+    case 'E': return getEnum(getUTF(b), getUTF(b));
+    default:
+      throw new IOException("unknown argument tag: " + tag);
+    }
+  }
+
+  /**
+   * read the next event record, processing symbol and reset records on the way
+   * @return the entry, or null if we are at the end of the valid records
+   */
+  public long getValidLength() {
+    return validLength;
+  }
+
+  public Entry decode (DataInputStream in) throws IOException {
+    while (true) {
+      byte[] payload = readRecord(in);
+      if (payload == null) {
+        return null;
+      }
+
+      ByteBuffer b = ByteBuffer.wrap(payload);
+      byte type = b.get();
+
+      if (type == RESET) {
+        symbols.clear();
+        symbolList.clear();
+
+      } else if (type == SYMBOL) {
+        int idx = b.getInt();
+        String s = getUTF(b);
+        while (symbolList.size() <= idx) {
+          symbolList.add(null);
+        }
+        symbolList.set(idx, s);
+
+      } else if (type == EVENT) {
+        Entry e = new Entry();
+        e.step = b.getInt();
+        e.kind = b.get();
+        e.id = symbolList.get(b.getInt());
+        int nArgs = b.get();
+        if (nArgs > 0) {
+          e.args = new Object[nArgs];
+          for (int i=0; i<nArgs; i++) {
+            e.args[i] = getArg(b);
+          }
+        }
+        return e;
+
+      } else if (type == HEADER) {
+        Entry e = new Entry();
+        e.type = HEADER;
+        e.seed = b.getLong();
+        e.id = getUTF(b);
+        return e;
+
+      } else if (type == CONFIG) {
+        Entry e = new Entry();
+        e.type = CONFIG;
+        e.step = b.getInt();
+        e.config = new int[b.getInt()];
+        for (int i=0; i<e.config.length; i++) {
+          e.config[i] = b.getInt();
+        }
+        return e;
+
+      } else {
+        throw new IOException("unknown journal record type: " + type);
+      }
+    }
+  }
+
+  /**
+   * @return the payload of the next record, or null if there is no complete
+   * and valid one (end of journal or torn write)
+   */
+  byte[] readRecord (DataInputStream in) throws IOException {
+    try {
+      int len = in.readInt();
+      if (len <= 0 || len > (1<<24)) {
+        return null;
+      }
+      byte[] payload = new byte[len];
+      in.readFully(payload);
+      int sum = in.readInt();
+
+      crc.reset();
+      crc.update(payload, 0, len);
+      if ((int)crc.getValue() != sum) {
+        return null;
+      }
+
+      validLength += len + 8;
+      return payload;
+
+    } catch (EOFException x) {
+      return null;
+    }
+  }
+}
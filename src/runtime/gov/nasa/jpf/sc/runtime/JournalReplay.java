@@ -0,0 +1,77 @@
+//
+// Copyright  (C) 2007 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+package gov.nasa.jpf.sc.runtime;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * an EventSource that first replays the external events of a journal, and
+ * then continues with a live source. Sent events and the completions and
+ * timeouts the machine creates itself don't have to be replayed, they are
+ * re-created by the replayed actions (see JournalCodec.getKind()).
+ *
+ * while the machine is at or below the last journaled step it is in
+ * replay mode (StateMachine.isReplaying()), so that models can suppress
+ * side effects that already happened before the restart
+ */
+public class JournalReplay implements EventSource {
+
+  List<JournalCodec.Entry> entries;
+  int next;
+  int lastStep = -1;
+
+  EventSource live;
+
+  /**
+   * @param fromStep skip all entries up to this step (e.g. when starting
+   * from a restored checkpoint). Use 0 to replay from the beginning
+   */
+  public JournalReplay (File journal, int fromStep, EventSource live) throws IOException {
+    this.live = live;
+    entries = EventJournal.read(journal);
+
+    for (JournalCodec.Entry e : entries) {
+      if (e.step > lastStep) {
+        lastStep = e.step;
+      }
+    }
+
+    while (next < entries.size() && entries.get(next).step <= fromStep) {
+      next++;
+    }
+  }
+
+  public int getLastStep() {
+    return lastStep;
+  }
+
+  public StateEvent getNextEvent (EmbeddedStateMachine machine) {
+    while (next < entries.size()) {
+      JournalCodec.Entry e = entries.get(next++);
+      if (e.type == JournalCodec.EVENT && e.kind == JournalCodec.EXTERNAL) {
+        return e.toStateEvent();
+      }
+    }
+
+    return (live != null) ? live.getNextEvent(machine) : null;
+  }
+}
@@ -0,0 +1,157 @@
+//
+// Copyright  (C) 2007 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+package gov.nasa.jpf.sc.runtime;
+
+/**
+ * a fixed memory histogram for non-negative long values (latencies, step
+ * counts). Buckets are log-linear: each power of two range is split into
+ * 2^precision linear sub-buckets, so the relative error of the reported
+ * values is below 2^-precision, and the bucket array never grows.
+ * With precision 3 that is 488 buckets and < 12.5% error.
+ *
+ * record() is meant to be called from one thread (the step thread). Other
+ * threads can read, but might see counts that don't add up yet
+ */
+public class LogLinearHistogram {
+
+  final int precision;
+  final int subBuckets;
+  final long[] counts;
+
+  long totalCount;
+  long sum;
+  long min = Long.MAX_VALUE;
+  long max;
+
+  public LogLinearHistogram (int precision) {
+    if (precision < 1 || precision > 10) {
+      throw new IllegalArgumentException("histogram precision out of range [1..10]: " + precision);
+    }
+    this.precision = precision;
+    subBuckets = 1 << precision;
+    counts = new long[(64 - precision) << precision];
+  }
+
+  public LogLinearHistogram () {
+    this(3);
+  }
+
+  int getIndex (long v) {
+    if (v < subBuckets) {
+      return (int) v;
+    }
+    int m = 63 - Long.numberOfLeadingZeros(v); // >= precision
+    int b = m - precision + 1;
+    return (b << precision) + (int) ((v >>> (m - precision)) & (subBuckets - 1));
+  }
+
+  long getLowerBound (int idx) {
+    if (idx < subBuckets) {
+      return idx;
+    }
+    int b = idx >>> precision;
+    long sub = idx & (subBuckets - 1);
+    return (subBuckets + sub) << (b - 1);
+  }
+
+  long getBucketWidth (int idx) {
+    return (idx < subBuckets) ? 1 : (1L << ((idx >>> precision) - 1));
+  }
+
+  public void record (long v) {
+    if (v < 0) {
+      v = 0;
+    }
+    counts[getIndex(v)]++;
+    totalCount++;
+    sum += v;
+    if (v < min) {
+      min = v;
+    }
+    if (v > max) {
+      max = v;
+    }
+  }
+
+  public void reset () {
+    for (int i=0; i<counts.length; i++) {
+      counts[i] = 0;
+    }
+    totalCount = 0;
+    sum = 0;
+    min = Long.MAX_VALUE;
+    max = 0;
+  }
+
+  public long getCount () {
+    return totalCount;
+  }
+
+  public long getMin () {
+    return (totalCount > 0) ? min : 0;
+  }
+
+  public long getMax () {
+    return max;
+  }
+
+  public double getMean () {
+    return (totalCount > 0) ? (double)sum / totalCount : 0.0;
+  }
+
+  /**
+   * the value below which 'percentile' (0..100) of the recorded values
+   * fall, within the precision of the buckets. Returned values are bucket
+   * midpoints, clipped to the recorded min and max
+   */
+  public long getValueAtPercentile (double percentile) {
+    if (totalCount == 0) {
+      return 0;
+    }
+
+    long rank = (long) Math.ceil((percentile / 100.0) * totalCount);
+    if (rank < 1) {
+      rank = 1;
+    }
+
+    long n = 0;
+    for (int i=0; i<counts.length; i++) {
+      n += counts[i];
+      if (n >= rank) {
+        long v = getLowerBound(i) + (getBucketWidth(i) >> 1);
+        return Math.max(getMin(), Math.min(v, max));
+      }
+    }
+    return max;
+  }
+
+  public String toString () {
+    StringBuilder sb = new StringBuilder();
+    sb.append("n=").append(totalCount);
+    if (totalCount > 0) {
+      sb.append(" min=").append(getMin());
+      sb.append(" p50=").append(getValueAtPercentile(50));
+      sb.append(" p90=").append(getValueAtPercentile(90));
+      sb.append(" p99=").append(getValueAtPercentile(99));
+      sb.append(" max=").append(max);
+    }
+    return sb.toString();
+  }
+}
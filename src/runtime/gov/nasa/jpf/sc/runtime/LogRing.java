@@ -0,0 +1,262 @@
+//
+// Copyright  (C) 2007 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+package gov.nasa.jpf.sc.runtime;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * a level gated logger that hands records to a background thread, which
+ * does the string concatenation and the output. Records are pre-sized
+ * (up to 4 parts) and go into a single producer ring, so logging a
+ * message only costs a few reference stores, and nothing at all if the
+ * level is disabled. If the ring is full, the producer waits - we never
+ * drop log records.
+ *
+ * the producer is the thread that runs the machine, flush() has to be
+ * called before anything else is written to the same PrintWriter (e.g.
+ * interactive prompts), and close() at the end of the run to stop the
+ * writer thread. A ring with capacity 0 writes synchronously
+ *
+ * records are printed later, so the parts have to be immutable (Strings,
+ * boxed numbers etc.). Format mutable objects before logging them
+ */
+public class LogRing implements Runnable {
+
+  public static final int OFF = 0;
+  public static final int INFO = 1;
+  public static final int FINE = 2;
+
+  static final int PARTS = 4;
+
+  final PrintWriter out;
+  final String prefix;
+  final int level;
+
+  final Object[] parts; // PARTS per record
+  final int mask;
+
+  final AtomicLong head = new AtomicLong(); // next record to write (producer)
+  final AtomicLong tail = new AtomicLong(); // next record to print (consumer)
+
+  Thread writer;
+  Thread shutdownHook;
+  volatile boolean done;
+  volatile boolean waiting; // the writer is (about to be) parked
+
+  public static int parseLevel (String s) {
+    if (s == null) {
+      return FINE;
+    } else if ("off".equalsIgnoreCase(s)) {
+      return OFF;
+    } else if ("info".equalsIgnoreCase(s)) {
+      return INFO;
+    } else if ("fine".equalsIgnoreCase(s)) {
+      return FINE;
+    } else {
+      throw new IllegalArgumentException("unknown log level: " + s);
+    }
+  }
+
+  /**
+   * synchronous logger
+   */
+  public LogRing (PrintWriter out, String prefix, int level) {
+    this(out, prefix, level, 0);
+  }
+
+  /**
+   * 'capacity' gets rounded up to the next power of 2
+   */
+  public LogRing (PrintWriter out, String prefix, int level, int capacity) {
+    this.out = out;
+    this.prefix = prefix;
+    this.level = level;
+
+    if (capacity > 0 && level > OFF) {
+      int n = Integer.highestOneBit(capacity);
+      if (n < capacity) {
+        n <<= 1;
+      }
+      parts = new Object[n * PARTS];
+      mask = n - 1;
+
+      writer = new Thread(this, "sc-log");
+      writer.setDaemon(true);
+      writer.start();
+
+      // make sure we don't lose the tail of the log if the run ends with an
+      // exception that takes down the VM
+      shutdownHook = new Thread() {
+        public void run() {
+          flush();
+        }
+      };
+      Runtime.getRuntime().addShutdownHook(shutdownHook);
+
+    } else {
+      parts = null;
+      mask = 0;
+    }
+  }
+
+  public final boolean isLoggable (int lvl) {
+    return lvl <= level;
+  }
+
+  public int getLevel () {
+    return level;
+  }
+
+  public boolean isAsync () {
+    return (parts != null);
+  }
+
+  public void log (int lvl, Object p0, Object p1, Object p2, Object p3) {
+    if (lvl > level) {
+      return;
+    }
+
+    if (parts == null || done) { // synchronous, or already closed
+      synchronized (out) {
+        print(p0, p1, p2, p3);
+        out.flush();
+      }
+      return;
+    }
+
+    long h = head.get();
+    while (h - tail.get() > mask) { // full, wait for the writer
+      LockSupport.unpark(writer);
+      Thread.yield();
+    }
+
+    int i = (int)(h & mask) * PARTS;
+    parts[i] = p0;
+    parts[i+1] = p1;
+    parts[i+2] = p2;
+    parts[i+3] = p3;
+    head.set(h + 1); // has to be ordered before we read 'waiting'
+
+    if (waiting) {
+      LockSupport.unpark(writer);
+    }
+  }
+
+  public void log (int lvl, Object p0) {
+    log(lvl, p0, null, null, null);
+  }
+
+  public void log (int lvl, Object p0, Object p1) {
+    log(lvl, p0, p1, null, null);
+  }
+
+  public void log (int lvl, Object p0, Object p1, Object p2) {
+    log(lvl, p0, p1, p2, null);
+  }
+
+  void print (Object p0, Object p1, Object p2, Object p3) {
+    if (prefix != null) {
+      out.print(prefix);
+    }
+    out.print(p0);
+    if (p1 != null) out.print(p1);
+    if (p2 != null) out.print(p2);
+    if (p3 != null) out.print(p3);
+    out.println();
+  }
+
+  /**
+   * wait until all records so far are printed and the writer is flushed
+   */
+  public void flush () {
+    if (parts == null) {
+      return;
+    }
+
+    long h = head.get();
+    while (tail.get() < h) {
+      if (!writer.isAlive()) {
+        break;
+      }
+      LockSupport.unpark(writer);
+      Thread.yield();
+    }
+    out.flush();
+  }
+
+  /**
+   * flush and stop the writer thread. Can be called more than once
+   */
+  public void close () {
+    if (parts != null && !done) {
+      flush();
+      done = true;
+      LockSupport.unpark(writer);
+      try {
+        writer.join();
+      } catch (InterruptedException x) {
+        Thread.currentThread().interrupt();
+      }
+      try {
+        Runtime.getRuntime().removeShutdownHook(shutdownHook);
+      } catch (IllegalStateException x) {
+        // we are already shutting down
+      }
+    }
+  }
+
+  //--- the consumer side
+
+  public void run () {
+    long t = tail.get();
+
+    while (true) {
+      long h = head.get();
+
+      if (t == h) {
+        if (done) {
+          return;
+        }
+        // announce that we park, and re-check so that we don't miss a record
+        // the producer stored before it saw 'waiting'
+        waiting = true;
+        if (head.get() == t && !done) {
+          LockSupport.park(this);
+        }
+        waiting = false;
+        continue;
+      }
+
+      synchronized (out) {
+        for (; t < h; t++) {
+          int i = (int)(t & mask) * PARTS;
+          print(parts[i], parts[i+1], parts[i+2], parts[i+3]);
+          parts[i] = parts[i+1] = parts[i+2] = parts[i+3] = null;
+        }
+        if (head.get() == h) { // caught up, we batch the flushes
+          out.flush();
+        }
+      }
+      tail.lazySet(t);
+    }
+  }
+}
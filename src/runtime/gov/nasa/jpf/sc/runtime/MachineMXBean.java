@@ -0,0 +1,137 @@
+//
+// Copyright  (C) 2007 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+package gov.nasa.jpf.sc.runtime;
+
+import java.util.Map;
+
+/**
+ * the management interface of a running EmbeddedStateMachine, see
+ * MachineMonitor. Per state values are keyed by State.getName()
+ */
+public interface MachineMXBean {
+
+  String getMasterState ();
+
+  int getStep ();
+
+  long getEventsProcessed ();
+
+  /**
+   * processed events per second since the previous call (or since the
+   * machine was registered), sampled at most once per second
+   */
+  double getEventsPerSecond ();
+
+  /**
+   * names of the states of the last published configuration, including
+   * composite states
+   */
+  String[] getActiveStates ();
+
+  /**
+   * states with non-empty pending event queues
+   */
+  Map<String,Integer> getPendingEvents ();
+
+  /**
+   * states that wait for events
+   */
+  Map<String,Integer> getWaitEvents ();
+
+  /**
+   * how often each state was entered so far (only states that were)
+   */
+  Map<String,Integer> getVisitCounts ();
+
+  //--- pending event queues, all empty/0 if the machine has no QueueMetrics
+
+  /**
+   * current depth of all non-empty pending event queues
+   */
+  Map<String,Integer> getQueueDepths ();
+
+  /**
+   * maximum depth of each pending event queue that was ever used
+   */
+  Map<String,Integer> getQueueHighWaterMarks ();
+
+  /**
+   * pending events of all queues by priority
+   */
+  Map<Integer,Integer> getQueueDepthsByPriority ();
+
+  int getQueueDepth ();
+
+  int getQueueHighWaterMark ();
+
+  long getEventsEnqueued ();
+
+  long getEventsDequeued ();
+
+  /**
+   * sent events per second since the previous call, sampled at most once
+   * per second
+   */
+  double getEnqueueRate ();
+
+  /**
+   * processed sent events per second, sampled like getEnqueueRate()
+   */
+  double getDequeueRate ();
+
+  /**
+   * milliseconds the oldest pending event of each non-empty queue is waiting
+   */
+  Map<String,Double> getPendingAges ();
+
+  /**
+   * milliseconds the oldest pending event of all queues is waiting
+   */
+  double getOldestPendingAge ();
+
+  /**
+   * per queue depth that triggers an alarm, 0 turns it off
+   */
+  int getMaxQueueDepth ();
+
+  void setMaxQueueDepth (int maxDepth);
+
+  /**
+   * pending event age in milliseconds that triggers an alarm, 0 turns it off
+   */
+  double getMaxPendingAge ();
+
+  void setMaxPendingAge (double millis);
+
+  /**
+   * the machine composition with active states marked, like showMachine()
+   */
+  String dumpMachine ();
+
+  /**
+   * the last published configuration
+   */
+  String dumpConfiguration ();
+
+  /**
+   * the last steps, if the machine keeps a StepHistory
+   */
+  String dumpHistory ();
+}
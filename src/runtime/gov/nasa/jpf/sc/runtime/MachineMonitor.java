@@ -0,0 +1,342 @@
+//
+// Copyright  (C) 2007 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+package gov.nasa.jpf.sc.runtime;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import gov.nasa.jpf.sc.EventSpec;
+import gov.nasa.jpf.sc.State;
+
+/**
+ * JMX view of a running EmbeddedStateMachine, so that production instances
+ * can be watched with jconsole/jvisualvm etc. without turning on logging.
+ * The bean is registered with the platform MBeanServer as
+ *
+ *   gov.nasa.jpf.sc:type=StateMachine,name=<master class>,id=<n>
+ *
+ * this is called from JMX threads. Step, event count and active states come
+ * from values the step thread publishes, the per state maps and dumpMachine()
+ * read the states directly and are only approximate while a step executes
+ */
+public class MachineMonitor implements MachineMXBean {
+
+  static AtomicInteger nRegistered = new AtomicInteger();
+
+  final EmbeddedStateMachine machine;
+  ObjectName name;
+
+  // for getEventsPerSecond()
+  long lastSampleTime;
+  long lastSampleCount;
+  double lastRate;
+
+  // for getEnqueueRate()/getDequeueRate()
+  long lastQueueSampleTime;
+  long lastEnqueued, lastDequeued;
+  double lastEnqueueRate, lastDequeueRate;
+
+  public MachineMonitor (EmbeddedStateMachine machine) {
+    this.machine = machine;
+    lastSampleTime = System.nanoTime();
+    lastSampleCount = machine.getEventsProcessed();
+    lastQueueSampleTime = lastSampleTime;
+  }
+
+  public ObjectName getObjectName () {
+    return name;
+  }
+
+  public void register () {
+    try {
+      String clsName = machine.getMasterState().getClass().getName();
+      name = new ObjectName("gov.nasa.jpf.sc:type=StateMachine,name=" + ObjectName.quote(clsName) +
+                            ",id=" + nRegistered.incrementAndGet());
+      MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+      mbs.registerMBean(this, name);
+
+    } catch (Exception x) {
+      throw new RuntimeException("cannot register machine MBean: " + x, x);
+    }
+  }
+
+  public void unregister () {
+    if (name != null) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+      } catch (Exception x) {
+        // already gone, nothing we can do
+      }
+      name = null;
+    }
+  }
+
+  //--- MachineMXBean
+
+  public String getMasterState () {
+    return machine.getMasterState().getClass().getName();
+  }
+
+  public int getStep () {
+    return machine.getStep();
+  }
+
+  public long getEventsProcessed () {
+    return machine.getEventsProcessed();
+  }
+
+  public synchronized double getEventsPerSecond () {
+    long now = System.nanoTime();
+    long dt = now - lastSampleTime;
+
+    if (dt >= 1000000000L) {
+      long n = machine.getEventsProcessed();
+      lastRate = (n - lastSampleCount) * 1e9 / dt;
+      lastSampleTime = now;
+      lastSampleCount = n;
+    }
+    return lastRate;
+  }
+
+  public String[] getActiveStates () {
+    ActiveConfiguration c = machine.getActiveConfiguration();
+    if (c == null) {
+      return new String[0];
+    }
+
+    int[] ids = c.getStateIds();
+    String[] names = new String[ids.length];
+    for (int i=0; i<ids.length; i++) {
+      names[i] = machine.getState(ids[i]).getName();
+    }
+    return names;
+  }
+
+  public Map<String,Integer> getPendingEvents () {
+    TreeMap<String,Integer> map = new TreeMap<String,Integer>();
+    for (int i=0; i<machine.getNumberOfStates(); i++) {
+      State s = machine.getState(i);
+      int n = s.getPendingEventQueue().size();
+      if (n > 0) {
+        map.put(s.getName(), n);
+      }
+    }
+    return map;
+  }
+
+  public Map<String,Integer> getWaitEvents () {
+    TreeMap<String,Integer> map = new TreeMap<String,Integer>();
+    for (int i=0; i<machine.getNumberOfStates(); i++) {
+      State s = machine.getState(i);
+      int n = s.getWaitEventCount();
+      if (n > 0) {
+        map.put(s.getName(), n);
+      }
+    }
+    return map;
+  }
+
+  public Map<String,Integer> getVisitCounts () {
+    TreeMap<String,Integer> map = new TreeMap<String,Integer>();
+    for (int i=0; i<machine.getNumberOfStates(); i++) {
+      State s = machine.getState(i);
+      int n = s.getVisitCount();
+      if (n > 0) {
+        map.put(s.getName(), n);
+      }
+    }
+    return map;
+  }
+
+  public Map<String,Integer> getQueueDepths () {
+    TreeMap<String,Integer> map = new TreeMap<String,Integer>();
+    QueueMetrics qm = machine.getQueueMetrics();
+    if (qm != null) {
+      for (int i=0; i<machine.getNumberOfStates(); i++) {
+        State s = machine.getState(i);
+        int n = qm.getDepth(s);
+        if (n > 0) {
+          map.put(s.getName(), n);
+        }
+      }
+    }
+    return map;
+  }
+
+  public Map<String,Integer> getQueueHighWaterMarks () {
+    TreeMap<String,Integer> map = new TreeMap<String,Integer>();
+    QueueMetrics qm = machine.getQueueMetrics();
+    if (qm != null) {
+      for (int i=0; i<machine.getNumberOfStates(); i++) {
+        State s = machine.getState(i);
+        int n = qm.getHighWater(s);
+        if (n > 0) {
+          map.put(s.getName(), n);
+        }
+      }
+    }
+    return map;
+  }
+
+  public Map<Integer,Integer> getQueueDepthsByPriority () {
+    TreeMap<Integer,Integer> map = new TreeMap<Integer,Integer>();
+    QueueMetrics qm = machine.getQueueMetrics();
+    if (qm != null) {
+      for (int p=EventSpec.PRIO_MIN; p<=EventSpec.PRIO_MAX; p++) {
+        int n = qm.getPriorityDepth(p);
+        if (n > 0) {
+          map.put(p, n);
+        }
+      }
+    }
+    return map;
+  }
+
+  public int getQueueDepth () {
+    QueueMetrics qm = machine.getQueueMetrics();
+    return (qm != null) ? qm.getTotalDepth() : 0;
+  }
+
+  public int getQueueHighWaterMark () {
+    QueueMetrics qm = machine.getQueueMetrics();
+    return (qm != null) ? qm.getTotalHighWater() : 0;
+  }
+
+  public long getEventsEnqueued () {
+    QueueMetrics qm = machine.getQueueMetrics();
+    return (qm != null) ? qm.getTotalEnqueued() : 0;
+  }
+
+  public long getEventsDequeued () {
+    QueueMetrics qm = machine.getQueueMetrics();
+    return (qm != null) ? qm.getTotalDequeued() : 0;
+  }
+
+  void sampleQueueRates () {
+    QueueMetrics qm = machine.getQueueMetrics();
+    if (qm != null) {
+      long now = System.nanoTime();
+      long dt = now - lastQueueSampleTime;
+
+      if (dt >= 1000000000L) {
+        long nEnq = qm.getTotalEnqueued();
+        long nDeq = qm.getTotalDequeued();
+        lastEnqueueRate = (nEnq - lastEnqueued) * 1e9 / dt;
+        lastDequeueRate = (nDeq - lastDequeued) * 1e9 / dt;
+        lastQueueSampleTime = now;
+        lastEnqueued = nEnq;
+        lastDequeued = nDeq;
+      }
+    }
+  }
+
+  public synchronized double getEnqueueRate () {
+    sampleQueueRates();
+    return lastEnqueueRate;
+  }
+
+  public synchronized double getDequeueRate () {
+    sampleQueueRates();
+    return lastDequeueRate;
+  }
+
+  public Map<String,Double> getPendingAges () {
+    TreeMap<String,Double> map = new TreeMap<String,Double>();
+    long now = System.nanoTime();
+    for (int i=0; i<machine.getNumberOfStates(); i++) {
+      State s = machine.getState(i);
+      long age = QueueMetrics.getOldestAge(s, now);
+      if (age > 0) {
+        map.put(s.getName(), age / 1e6);
+      }
+    }
+    return map;
+  }
+
+  public double getOldestPendingAge () {
+    long now = System.nanoTime();
+    long max = 0;
+    for (int i=0; i<machine.getNumberOfStates(); i++) {
+      max = Math.max(max, QueueMetrics.getOldestAge(machine.getState(i), now));
+    }
+    return max / 1e6;
+  }
+
+  public int getMaxQueueDepth () {
+    QueueMetrics qm = machine.getQueueMetrics();
+    return (qm != null) ? qm.getMaxDepth() : 0;
+  }
+
+  public void setMaxQueueDepth (int maxDepth) {
+    QueueMetrics qm = machine.getQueueMetrics();
+    if (qm != null) {
+      qm.setMaxDepth(maxDepth);
+    }
+  }
+
+  public double getMaxPendingAge () {
+    QueueMetrics qm = machine.getQueueMetrics();
+    return (qm != null) ? qm.getMaxAge() / 1e6 : 0;
+  }
+
+  public void setMaxPendingAge (double millis) {
+    QueueMetrics qm = machine.getQueueMetrics();
+    if (qm != null) {
+      qm.setMaxAge((long)(millis * 1e6));
+    }
+  }
+
+  public String dumpMachine () {
+    StringWriter sw = new StringWriter();
+    PrintWriter pw = new PrintWriter(sw);
+    machine.showMachine(pw);
+    pw.flush();
+    return sw.toString();
+  }
+
+  public String dumpHistory () {
+    StringWriter sw = new StringWriter();
+    PrintWriter pw = new PrintWriter(sw);
+    machine.dumpHistory(pw);
+    pw.flush();
+    return sw.toString();
+  }
+
+  public String dumpConfiguration () {
+    ActiveConfiguration c = machine.getActiveConfiguration();
+    if (c == null) {
+      return "no configuration yet";
+    }
+
+    StringBuilder sb = new StringBuilder();
+    sb.append("configuration of step ").append(c.getStep()).append(":\n");
+    for (int id : c.getStateIds()) {
+      sb.append("  ").append(machine.getState(id).getName()).append('\n');
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,44 @@
+//
+// Copyright  (C) 2007 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+package gov.nasa.jpf.sc.runtime;
+
+import gov.nasa.jpf.sc.State;
+import gov.nasa.jpf.sc.StateMachine;
+
+/**
+ * interface for objects that want to be notified about what a machine does,
+ * without subclassing it. Register with EmbeddedStateMachine.addObserver()
+ * (called from the step loop) or addAsyncObserver() (called from the
+ * ObserverBus thread, so slow observers don't hold up the machine).
+ *
+ * 'step' is the machine step the notification belongs to. Transitions into
+ * an end state have tgt == src
+ */
+public interface MachineObserver {
+
+  void transitionFired (StateMachine machine, int step, State src, State tgt);
+
+  void stateEntered (StateMachine machine, int step, State state);
+
+  void stateExited (StateMachine machine, int step, State state);
+
+  void eventSent (StateMachine machine, int step, State src, State tgt,
+                  String eventName, Object[] args);
+}
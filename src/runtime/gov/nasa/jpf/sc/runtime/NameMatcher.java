@@ -0,0 +1,85 @@
+//
+// Copyright  (C) 2007 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+package gov.nasa.jpf.sc.runtime;
+
+/**
+ * minimal, JPF independent name matcher for receiver constraints. Patterns
+ * can contain '*' wildcards, everything else has to match literally. This is
+ * only what we need to check state field names, use
+ * gov.nasa.jpf.util.StringSetMatcher if jpf-core is available
+ */
+public class NameMatcher {
+
+  String[] patterns;
+
+  public NameMatcher (String... patterns) {
+    this.patterns = patterns;
+  }
+
+  public boolean matchesAny (String s) {
+    if (s == null) { // the masterState doesn't have a field name
+      s = "";
+    }
+
+    for (int i=0; i<patterns.length; i++) {
+      if (matches(patterns[i], 0, s, 0)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public static boolean matches (String pattern, String s) {
+    return matches(pattern, 0, s, 0);
+  }
+
+  // plain backtracking glob match, no need to create regex objects
+  static boolean matches (String p, int pi, String s, int si) {
+    int pLen = p.length();
+    int sLen = s.length();
+
+    while (pi < pLen) {
+      char c = p.charAt(pi);
+      if (c == '*') {
+        while (pi < pLen && p.charAt(pi) == '*') {
+          pi++;
+        }
+        if (pi == pLen) {
+          return true;
+        }
+        for (; si < sLen; si++) {
+          if (matches(p, pi, s, si)) {
+            return true;
+          }
+        }
+        return false;
+
+      } else {
+        if (si == sLen || s.charAt(si) != c) {
+          return false;
+        }
+        pi++;
+        si++;
+      }
+    }
+
+    return (si == sLen);
+  }
+}
@@ -0,0 +1,319 @@
+//
+// Copyright  (C) 2007 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+package gov.nasa.jpf.sc.runtime;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import gov.nasa.jpf.sc.State;
+import gov.nasa.jpf.sc.StateMachine;
+
+/**
+ * dispatches machine notifications to the registered MachineObservers.
+ *
+ * synchronous observers are called directly from the step loop. For
+ * asynchronous observers, the machine thread (the single producer) stores
+ * the notification into a pre-allocated ring, from which a daemon thread
+ * fans it out. If the ring is full, we drop the notification and count it,
+ * i.e. slow consumers never stall the machine (see getDroppedCount())
+ *
+ * observer lists are copy-on-write, (un)registration is rare
+ */
+public class ObserverBus implements Runnable {
+
+  static Logger logger = Logger.getLogger("gov.nasa.jpf.sc");
+
+  static final byte TRANSITION = 1;
+  static final byte ENTRY = 2;
+  static final byte EXIT = 3;
+  static final byte SEND = 4;
+
+  static final MachineObserver[] NONE = new MachineObserver[0];
+
+  public static final int DEFAULT_CAPACITY = 4096;
+
+  final StateMachine machine;
+
+  // registration can happen from other threads than the machine thread
+  volatile MachineObserver[] observers = NONE;
+  volatile MachineObserver[] asyncObservers = NONE;
+
+  // the ring, one slot per notification
+  final int capacity;
+  byte[] kinds;
+  int[] steps;
+  State[] srcs;
+  State[] tgts;
+  String[] names;
+  Object[][] args;
+  int mask;
+
+  final AtomicLong head = new AtomicLong();
+  final AtomicLong tail = new AtomicLong();
+  long dropped;
+
+  volatile Thread consumer;
+  volatile boolean done;
+  volatile boolean waiting; // the consumer is (about to be) parked
+
+  public ObserverBus (StateMachine machine) {
+    this(machine, DEFAULT_CAPACITY);
+  }
+
+  /**
+   * 'capacity' is the number of ring slots, rounded up to the next power of 2
+   */
+  public ObserverBus (StateMachine machine, int capacity) {
+    this.machine = machine;
+    this.capacity = capacity;
+  }
+
+  //--- registration
+
+  public synchronized void addObserver (MachineObserver o) {
+    observers = add(observers, o);
+  }
+
+  public synchronized void addAsyncObserver (MachineObserver o) {
+    asyncObservers = add(asyncObservers, o);
+    startConsumer();
+  }
+
+  synchronized void startConsumer () {
+    if (kinds == null) {
+      int n = Integer.highestOneBit(Math.max(capacity, 2));
+      if (n < capacity) {
+        n <<= 1;
+      }
+      kinds = new byte[n];
+      steps = new int[n];
+      srcs = new State[n];
+      tgts = new State[n];
+      names = new String[n];
+      args = new Object[n][];
+      mask = n - 1;
+    }
+
+    if (consumer == null) {
+      done = false;
+      consumer = new Thread(this, "sc-observers");
+      consumer.setDaemon(true);
+      consumer.start();
+    }
+  }
+
+  public synchronized boolean removeObserver (MachineObserver o) {
+    MachineObserver[] a = remove(observers, o);
+    if (a != observers) {
+      observers = a;
+      return true;
+    }
+    a = remove(asyncObservers, o);
+    if (a != asyncObservers) {
+      asyncObservers = a;
+      return true;
+    }
+    return false;
+  }
+
+  public boolean isEmpty () {
+    return (observers.length == 0) && (asyncObservers.length == 0);
+  }
+
+  static MachineObserver[] add (MachineObserver[] a, MachineObserver o) {
+    MachineObserver[] b = new MachineObserver[a.length + 1];
+    System.arraycopy(a, 0, b, 0, a.length);
+    b[a.length] = o;
+    return b;
+  }
+
+  static MachineObserver[] remove (MachineObserver[] a, MachineObserver o) {
+    for (int i=0; i<a.length; i++) {
+      if (a[i] == o) {
+        MachineObserver[] b = new MachineObserver[a.length - 1];
+        System.arraycopy(a, 0, b, 0, i);
+        System.arraycopy(a, i+1, b, i, a.length - i - 1);
+        return b;
+      }
+    }
+    return a;
+  }
+
+  //--- the producer side (machine thread)
+
+  public void transitionFired (int step, State src, State tgt) {
+    for (MachineObserver o : observers) {
+      o.transitionFired(machine, step, src, tgt);
+    }
+    if (asyncObservers.length > 0) {
+      publish(TRANSITION, step, src, tgt, null, null);
+    }
+  }
+
+  public void stateEntered (int step, State state) {
+    for (MachineObserver o : observers) {
+      o.stateEntered(machine, step, state);
+    }
+    if (asyncObservers.length > 0) {
+      publish(ENTRY, step, state, null, null, null);
+    }
+  }
+
+  public void stateExited (int step, State state) {
+    for (MachineObserver o : observers) {
+      o.stateExited(machine, step, state);
+    }
+    if (asyncObservers.length > 0) {
+      publish(EXIT, step, state, null, null, null);
+    }
+  }
+
+  public void eventSent (int step, State src, State tgt, String eventName, Object[] a) {
+    for (MachineObserver o : observers) {
+      o.eventSent(machine, step, src, tgt, eventName, a);
+    }
+    if (asyncObservers.length > 0) {
+      publish(SEND, step, src, tgt, eventName, a);
+    }
+  }
+
+  void publish (byte kind, int step, State src, State tgt, String name, Object[] a) {
+    if (consumer == null) { // we were closed, but the machine got resumed
+      startConsumer();
+    }
+
+    long h = head.get();
+    if (h - tail.get() > mask) {
+      dropped++;
+      return;
+    }
+
+    int i = (int)(h & mask);
+    kinds[i] = kind;
+    steps[i] = step;
+    srcs[i] = src;
+    tgts[i] = tgt;
+    names[i] = name;
+    args[i] = a;
+    head.set(h + 1); // has to be ordered before we read 'waiting'
+
+    if (waiting) { // the ring was empty
+      LockSupport.unpark(consumer);
+    }
+  }
+
+  /**
+   * number of notifications async observers didn't get because the ring
+   * was full. Only meaningful from the machine thread
+   */
+  public long getDroppedCount () {
+    return dropped;
+  }
+
+  /**
+   * wait until async observers have seen everything published so far
+   */
+  public void flush () {
+    if (consumer != null) {
+      long h = head.get();
+      while (tail.get() < h && consumer.isAlive()) {
+        LockSupport.unpark(consumer);
+        Thread.yield();
+      }
+    }
+  }
+
+  /**
+   * deliver what is left in the ring and stop the consumer thread. This is
+   * called when the machine terminates, a later async notification (e.g.
+   * after resume()) starts a new one
+   */
+  public synchronized void close () {
+    if (consumer != null) {
+      flush();
+      done = true;
+      LockSupport.unpark(consumer);
+      try {
+        consumer.join();
+      } catch (InterruptedException x) {
+        Thread.currentThread().interrupt();
+      }
+      consumer = null;
+    }
+  }
+
+  //--- the consumer side
+
+  public void run () {
+    long t = tail.get();
+
+    while (true) {
+      long h = head.get();
+      if (t == h) {
+        if (done) {
+          return;
+        }
+        // announce that we park, and re-check so that we don't miss a
+        // notification the producer stored before it saw 'waiting'
+        waiting = true;
+        if (head.get() == t && !done) {
+          LockSupport.park(this);
+        }
+        waiting = false;
+        continue;
+      }
+
+      MachineObserver[] list = asyncObservers;
+      for (; t < h; t++) {
+        int i = (int)(t & mask);
+        for (MachineObserver o : list) {
+          try {
+            dispatch(o, i);
+          } catch (RuntimeException x) {
+            logger.log(Level.WARNING, "observer failed: " + o, x);
+          }
+        }
+        srcs[i] = tgts[i] = null;
+        names[i] = null;
+        args[i] = null;
+      }
+      tail.lazySet(t);
+    }
+  }
+
+  void dispatch (MachineObserver o, int i) {
+    switch (kinds[i]) {
+    case TRANSITION:
+      o.transitionFired(machine, steps[i], srcs[i], tgts[i]);
+      break;
+    case ENTRY:
+      o.stateEntered(machine, steps[i], srcs[i]);
+      break;
+    case EXIT:
+      o.stateExited(machine, steps[i], srcs[i]);
+      break;
+    case SEND:
+      o.eventSent(machine, steps[i], srcs[i], tgts[i], names[i], args[i]);
+      break;
+    }
+  }
+}
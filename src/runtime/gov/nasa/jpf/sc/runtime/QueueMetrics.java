@@ -0,0 +1,334 @@
+//
+// Copyright  (C) 2007 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+package gov.nasa.jpf.sc.runtime;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+import gov.nasa.jpf.sc.EventSpec;
+import gov.nasa.jpf.sc.PendingEventQueue;
+import gov.nasa.jpf.sc.State;
+
+/**
+ * optional pending event queue instrumentation of EmbeddedStateMachine.
+ * Event storms from self-sends show up as slowly growing State.pendingEvents
+ * queues, so we keep per state and per priority queue depths, high water
+ * marks and enqueue/dequeue counts, and check two thresholds:
+ *
+ *   maxDepth - number of events pending for a single state
+ *   maxAge   - how long an event has been pending (in nanos)
+ *
+ * crossing one of them notifies the Listener. Depth alarms fire when a queue
+ * grows past maxDepth, and are re-armed once it is back under it. Age alarms
+ * fire once per state until it processes an event that is younger again
+ *
+ * counters are updated from the step thread and don't allocate. Queries from
+ * other threads (JMX) are only approximate while a step executes.
+ * Priorities outside EventSpec.PRIO_MIN..PRIO_MAX are counted at the nearest
+ * bound
+ *
+ * <2do> ages are computed by scanning the pending queues, we should keep
+ * the enqueue order if this ever shows up in profiles
+ */
+public class QueueMetrics {
+
+  public static final int N_PRIO = EventSpec.PRIO_MAX - EventSpec.PRIO_MIN + 1;
+
+  /**
+   * gets notified when a threshold is crossed. This is called from the step
+   * thread, so it should not block
+   */
+  public interface Listener {
+    void depthExceeded (QueueMetrics metrics, State state, int depth);
+    void ageExceeded (QueueMetrics metrics, State state, long ageNanos);
+  }
+
+  // per state, indexed by State.getId()
+  int[] depth;
+  int[] highWater;
+  long[] enqueued;
+  long[] dequeued;
+  boolean[] ageAlarm;
+
+  // per priority, indexed by (priority - EventSpec.PRIO_MIN)
+  final int[] prioDepth = new int[N_PRIO];
+  final int[] prioHighWater = new int[N_PRIO];
+
+  int totalDepth;
+  int totalHighWater;
+  long totalEnqueued;
+  long totalDequeued;
+
+  int maxDepth;    // 0: no depth alarms
+  long maxAge;     // nanos, 0: no age alarms
+  Listener listener;
+
+  public QueueMetrics () {
+    this(64);
+  }
+
+  public QueueMetrics (int nStates) {
+    depth = new int[nStates];
+    highWater = new int[nStates];
+    enqueued = new long[nStates];
+    dequeued = new long[nStates];
+    ageAlarm = new boolean[nStates];
+  }
+
+  public void setMaxDepth (int maxDepth) {
+    this.maxDepth = maxDepth;
+  }
+
+  public int getMaxDepth () {
+    return maxDepth;
+  }
+
+  public void setMaxAge (long nanos) {
+    this.maxAge = nanos;
+  }
+
+  public long getMaxAge () {
+    return maxAge;
+  }
+
+  public void setListener (Listener listener) {
+    this.listener = listener;
+  }
+
+  static int prioIndex (int priority) {
+    if (priority < EventSpec.PRIO_MIN) {
+      return 0;
+    } else if (priority > EventSpec.PRIO_MAX) {
+      return N_PRIO-1;
+    } else {
+      return priority - EventSpec.PRIO_MIN;
+    }
+  }
+
+  void ensureCapacity (int id) {
+    if (id >= depth.length) {
+      int n = Math.max(id+1, depth.length*2);
+      depth = Arrays.copyOf(depth, n);
+      highWater = Arrays.copyOf(highWater, n);
+      enqueued = Arrays.copyOf(enqueued, n);
+      dequeued = Arrays.copyOf(dequeued, n);
+      ageAlarm = Arrays.copyOf(ageAlarm, n);
+    }
+  }
+
+  //--- step thread updates
+
+  public void enqueued (State tgt, int priority) {
+    int id = tgt.getId();
+    ensureCapacity(id);
+
+    int d = ++depth[id];
+    if (d > highWater[id]) {
+      highWater[id] = d;
+    }
+    enqueued[id]++;
+
+    int p = prioIndex(priority);
+    if (++prioDepth[p] > prioHighWater[p]) {
+      prioHighWater[p] = prioDepth[p];
+    }
+
+    if (++totalDepth > totalHighWater) {
+      totalHighWater = totalDepth;
+    }
+    totalEnqueued++;
+
+    if (maxDepth > 0 && d == maxDepth+1 && listener != null) {
+      listener.depthExceeded(this, tgt, d);
+    }
+  }
+
+  /**
+   * 'now' is the System.nanoTime() of processing, to compute the age of
+   * 'e' from its queue time
+   */
+  public void dequeued (State tgt, EventSpec e, long now) {
+    int id = tgt.getId();
+    ensureCapacity(id);
+
+    if (depth[id] > 0) {
+      depth[id]--;
+    }
+    dequeued[id]++;
+
+    int p = prioIndex(e.getPriority());
+    if (prioDepth[p] > 0) {
+      prioDepth[p]--;
+    }
+
+    if (totalDepth > 0) {
+      totalDepth--;
+    }
+    totalDequeued++;
+
+    if (maxAge > 0) {
+      long t = e.getQueueTime();
+      if (t != 0 && (now - t) > maxAge) {
+        if (!ageAlarm[id]) {
+          ageAlarm[id] = true;
+          if (listener != null) {
+            listener.ageExceeded(this, tgt, now - t);
+          }
+        }
+      } else {
+        ageAlarm[id] = false;
+      }
+    }
+  }
+
+  /**
+   * check the ages of all pending events, so that we also see queues that
+   * are never processed. Called at the end of each step if there is a maxAge
+   */
+  public void checkAges (EmbeddedStateMachine machine, long now) {
+    if (maxAge > 0 && listener != null && totalDepth > 0) {
+      int n = Math.min(machine.getNumberOfStates(), depth.length);
+      for (int id=0; id<n; id++) {
+        if (depth[id] > 0 && !ageAlarm[id]) {
+          State s = machine.getState(id);
+          long age = getOldestAge(s, now);
+          if (age > maxAge) {
+            ageAlarm[id] = true;
+            listener.ageExceeded(this, s, age);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * recompute the depths from the queues, e.g. after a snapshot was restored.
+   * Counters and high water marks are kept
+   */
+  public void reset (EmbeddedStateMachine machine) {
+    int nStates = machine.getNumberOfStates();
+    ensureCapacity(nStates-1);
+
+    Arrays.fill(depth, 0);
+    Arrays.fill(prioDepth, 0);
+    Arrays.fill(ageAlarm, false);
+    totalDepth = 0;
+
+    for (int id=0; id<nStates; id++) {
+      for (EventSpec e = machine.getState(id).getPendingEventQueue().peekFirst(); e != null; e = e.getNext()) {
+        depth[id]++;
+        prioDepth[prioIndex(e.getPriority())]++;
+        totalDepth++;
+      }
+    }
+  }
+
+  //--- queries
+
+  public int getDepth (State s) {
+    int id = s.getId();
+    return (id < depth.length) ? depth[id] : 0;
+  }
+
+  public int getHighWater (State s) {
+    int id = s.getId();
+    return (id < highWater.length) ? highWater[id] : 0;
+  }
+
+  public long getEnqueued (State s) {
+    int id = s.getId();
+    return (id < enqueued.length) ? enqueued[id] : 0;
+  }
+
+  public long getDequeued (State s) {
+    int id = s.getId();
+    return (id < dequeued.length) ? dequeued[id] : 0;
+  }
+
+  public int getPriorityDepth (int priority) {
+    return prioDepth[prioIndex(priority)];
+  }
+
+  public int getPriorityHighWater (int priority) {
+    return prioHighWater[prioIndex(priority)];
+  }
+
+  public int getTotalDepth () {
+    return totalDepth;
+  }
+
+  public int getTotalHighWater () {
+    return totalHighWater;
+  }
+
+  public long getTotalEnqueued () {
+    return totalEnqueued;
+  }
+
+  public long getTotalDequeued () {
+    return totalDequeued;
+  }
+
+  /**
+   * nanos the oldest pending event of 's' is waiting, 0 if there is none
+   * (or it was queued while the machine wasn't timed)
+   */
+  public static long getOldestAge (State s, long now) {
+    PendingEventQueue q = s.getPendingEventQueue();
+    long oldest = 0;
+    for (EventSpec e = q.peekFirst(); e != null; e = e.getNext()) {
+      long t = e.getQueueTime();
+      if (t != 0 && (oldest == 0 || t < oldest)) {
+        oldest = t;
+      }
+    }
+    return (oldest != 0) ? now - oldest : 0;
+  }
+
+  public void printOn (PrintWriter pw, EmbeddedStateMachine machine) {
+    long now = System.nanoTime();
+
+    pw.println("pending event queues:");
+    pw.printf("  %-40s %6s %6s %10s %10s %10s%n", "state", "depth", "max", "enqueued", "dequeued", "age[ms]");
+    for (int id=0; id<machine.getNumberOfStates() && id<depth.length; id++) {
+      if (enqueued[id] > 0) {
+        State s = machine.getState(id);
+        pw.printf("  %-40s %6d %6d %10d %10d %10.3f%n", s.getName(), depth[id], highWater[id],
+                  enqueued[id], dequeued[id], getOldestAge(s, now) / 1e6);
+      }
+    }
+
+    pw.printf("  %-40s %6d %6d %10d %10d%n", "total", totalDepth, totalHighWater, totalEnqueued, totalDequeued);
+
+    pw.print("  by priority (depth/max):");
+    for (int p=N_PRIO-1; p>=0; p--) {
+      if (prioHighWater[p] > 0) {
+        pw.print(' ');
+        pw.print(p + EventSpec.PRIO_MIN);
+        pw.print('=');
+        pw.print(prioDepth[p]);
+        pw.print('/');
+        pw.print(prioHighWater[p]);
+      }
+    }
+    pw.println();
+    pw.flush();
+  }
+}
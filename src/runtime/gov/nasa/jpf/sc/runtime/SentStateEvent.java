@@ -0,0 +1,53 @@
+//
+// Copyright  (C) 2007 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+package gov.nasa.jpf.sc.runtime;
+
+import gov.nasa.jpf.sc.EventSpec;
+import gov.nasa.jpf.sc.State;
+
+/**
+ * an explicitly sent event (not from the EventSource). Once processed, we
+ * remove the EventSpec from the pending queue of the receiver
+ */
+public class SentStateEvent extends StateEvent {
+
+  // the target state and the event spec this was created from
+  State state;
+  EventSpec eventSpec;
+
+  public SentStateEvent (State state, EventSpec eventSpec) {
+    super(state.getFieldName(), eventSpec.getName(), eventSpec.getArgs());
+
+    this.state = state;
+    this.eventSpec = eventSpec;
+  }
+
+  public State getReceiver() {
+    return state;
+  }
+
+  public EventSpec getEventSpec() {
+    return eventSpec;
+  }
+
+  public void setProcessed () {
+    state.getPendingEventQueue().remove(eventSpec);
+  }
+}
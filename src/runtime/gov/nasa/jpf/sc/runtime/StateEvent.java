@@ -0,0 +1,260 @@
+//
+// Copyright  (C) 2007 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+package gov.nasa.jpf.sc.runtime;
+
+import gov.nasa.jpf.sc.EventSpec;
+import gov.nasa.jpf.sc.State;
+
+/**
+ * the JPF independent part of enabling events, i.e. what we need to execute
+ * trigger methods. This is the base for gov.nasa.jpf.jvm.choice.sc.SCEvent,
+ * but can be used on its own if we run state machines without jpf-core
+ * in the classpath (e.g. embedded in a service)
+ */
+public class StateEvent {
+
+  public static final char RC_CHAR = ':';
+
+  public static final String WILDCARD = "*";
+  public static final String COMPLETION = "completion";
+  public static final String TIMEOUT = "timeout";
+
+  protected String id;
+  protected Object[] arguments;
+  protected int line;
+
+  protected boolean isConsumed;
+
+  // created by the machine itself (completion, timeout), i.e. not by an
+  // EventSource. This is what decides if we have to journal/replay it
+  protected boolean isSynthetic;
+
+  // parsed receiver constraints, re-created if the id changes
+  String matcherId;
+  NameMatcher receiverMatcher;
+
+  public static String createId (String receiver, String eventName) {
+    if (receiver != null) {
+      // <2do> this is not yet correct - a*:foo() should only match a.foo() or
+      // a.b.foo(), but not aaa.foo()
+      return receiver + WILDCARD + RC_CHAR + eventName;
+    } else {
+      return WILDCARD + RC_CHAR + eventName;
+    }
+  }
+
+  public static StateEvent createSynthetic (String id) {
+    StateEvent e = new StateEvent(id);
+    e.isSynthetic = true;
+    return e;
+  }
+
+  protected StateEvent () {
+    // for derived classes that initialize the fields themselves
+  }
+
+  public StateEvent (String receiver, String eventName, Object... args) {
+    this(createId(receiver, eventName), args);
+  }
+
+  public StateEvent (String id, Object... arguments){
+    this.id = id;
+
+    if ((arguments != null) && (arguments.length == 0)){
+      this.arguments = null;
+    } else {
+      this.arguments = arguments;
+    }
+  }
+
+  public String[] getReceiverConstraints() {
+    int idx = id.indexOf(RC_CHAR);
+    if (idx < 0) {
+      return null;
+
+    } else {
+      String rc = id.substring(0, idx);
+      String[] rec = rc.split("[|]");
+      return rec;
+    }
+  }
+
+  /**
+   * the (cached) matcher for our receiver constraints, or null if the event
+   * isn't constrained. This gets called for every active state on every
+   * step, so we don't want to split the id each time
+   */
+  public NameMatcher getReceiverMatcher() {
+    if (matcherId != id) {
+      String[] rc = getReceiverConstraints();
+      if (rc == null || (rc.length == 1 && WILDCARD.equals(rc[0]))) {
+        receiverMatcher = null;
+      } else {
+        receiverMatcher = new NameMatcher(rc);
+      }
+      matcherId = id;
+    }
+    return receiverMatcher;
+  }
+
+  public String getEventName() {
+    int idx = id.indexOf(RC_CHAR);
+    if (idx < 0) {
+      return id;
+    } else {
+      return id.substring(idx+1);
+    }
+  }
+
+  public void setLine (int line) {
+    this.line = line;
+  }
+
+  public int getLine() {
+    return line;
+  }
+
+  public boolean isConsumed() {
+    return isConsumed;
+  }
+
+  public void setConsumed(boolean b) {
+    isConsumed = b;
+  }
+
+  public int hashCode() {
+    // a little bit improvised..
+    int hc = id.hashCode() << 16;
+
+    if (arguments != null){
+      for (int i=0; i<arguments.length; i++){
+        hc += (arguments[i].hashCode() >>16);
+      }
+    }
+
+    return hc;
+  }
+
+  /**
+   * we consider type, id and arguments as equality, line is a hint
+   * (wouldn't map to a different method)
+   */
+  public boolean equals (Object other) {
+    if (other == null || getClass() != other.getClass()) {
+      return false;
+    }
+    StateEvent e = (StateEvent)other;
+
+    if (!id.equals(e.id)) {
+      return false;
+    }
+
+    if (arguments == e.arguments) {
+      return true;
+    }
+    if ((arguments == null) != (e.arguments == null)) {
+      return false;
+    }
+    if (arguments.length != e.arguments.length) {
+      return false;
+    }
+    for (int i=0; i<arguments.length; i++) {
+      if (!arguments[i].equals(e.arguments[i])) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public boolean isWildcard() {
+    return (id.indexOf('*') >= 0);
+  }
+
+  public boolean isCompletion() {
+    return COMPLETION.equals(id);
+  }
+
+  public boolean isSynthetic() {
+    return isSynthetic;
+  }
+
+  public boolean isTimeout() {
+    return TIMEOUT.equals(id);
+  }
+
+  public Object[] getArguments() {
+    return arguments;
+  }
+
+  public String getMethodName () {
+    return getEventName();
+  }
+
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(id);
+
+    sb.append('(');
+    if (arguments != null) {
+      for (int i=0; i<arguments.length; i++){
+        if (i > 0) {
+          sb.append(',');
+        }
+
+        Object a = arguments[i];
+        if (a instanceof String) {
+          sb.append('"');
+          sb.append(a);
+          sb.append('"');
+        } else {
+          sb.append(a);
+        }
+      }
+    }
+    sb.append(')');
+
+    return sb.toString();
+  }
+
+  /**
+   * the state whose PendingEventQueue holds this event, null if it wasn't
+   * explicitly sent
+   */
+  public State getReceiver() {
+    return null;
+  }
+
+  /**
+   * the queued EventSpec this was created from, null if it wasn't
+   * explicitly sent
+   */
+  public EventSpec getEventSpec() {
+    return null;
+  }
+
+  public void setProcessed () {
+    //nothing, overridden by subclasses
+  }
+}
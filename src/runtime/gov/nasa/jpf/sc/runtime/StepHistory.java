@@ -0,0 +1,236 @@
+//
+// Copyright  (C) 2007 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+package gov.nasa.jpf.sc.runtime;
+
+import java.io.PrintWriter;
+
+import gov.nasa.jpf.sc.State;
+import gov.nasa.jpf.sc.StateMachine;
+
+/**
+ * a ring buffer of the last N steps - processed event, resulting active
+ * states, fired transitions and sent events - that can be dumped when a
+ * run fails, or on demand. Everything is pre-allocated, so recording
+ * doesn't allocate and the history can stay on permanently (unlike full
+ * logging). We only keep references to the processed events, their
+ * descriptions are created when the history is dumped.
+ *
+ * per step, we keep up to 'maxTransitions' transitions and 'maxSends' sent
+ * events, and just count the rest. Dumps from other threads than the step
+ * thread can show a partially updated step
+ */
+public class StepHistory {
+
+  public static final int DEFAULT_TRANSITIONS = 8;
+  public static final int DEFAULT_SENDS = 8;
+
+  final int capacity;
+  final int slots;  // one more than capacity, for the step in progress
+  final int maxTransitions;
+  final int maxSends;
+  final int words;  // config bitset words per step
+
+  final int[] steps;
+  final StateEvent[] events;
+  final long[] configs;
+
+  final int[] nTransitions;
+  final int[] transitionSources;
+  final int[] transitionTargets;
+
+  final int[] nSends;
+  final int[] sendSources;
+  final int[] sendTargets;
+  final String[] sendNames;
+
+  int cur;     // slot of the step in progress
+  long nSteps; // total number of recorded steps
+
+  public StepHistory (int capacity, int nStates, int maxTransitions, int maxSends) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("history capacity has to be > 0: " + capacity);
+    }
+    this.capacity = capacity;
+    slots = capacity + 1;
+    this.maxTransitions = maxTransitions;
+    this.maxSends = maxSends;
+    words = Math.max(1, (nStates + 63) >> 6);
+
+    steps = new int[slots];
+    events = new StateEvent[slots];
+    configs = new long[slots * words];
+
+    nTransitions = new int[slots];
+    transitionSources = new int[slots * maxTransitions];
+    transitionTargets = new int[slots * maxTransitions];
+
+    nSends = new int[slots];
+    sendSources = new int[slots * maxSends];
+    sendTargets = new int[slots * maxSends];
+    sendNames = new String[slots * maxSends];
+  }
+
+  public StepHistory (int capacity, int nStates) {
+    this(capacity, nStates, DEFAULT_TRANSITIONS, DEFAULT_SENDS);
+  }
+
+  public int getCapacity () {
+    return capacity;
+  }
+
+  //--- recording, from the step thread
+
+  public void addTransition (State src, State tgt) {
+    int n = nTransitions[cur]++;
+    if (n < maxTransitions) {
+      int i = cur * maxTransitions + n;
+      transitionSources[i] = src.getId();
+      transitionTargets[i] = tgt.getId();
+    }
+  }
+
+  public void addSend (State src, State tgt, String eventName) {
+    int n = nSends[cur]++;
+    if (n < maxSends) {
+      int i = cur * maxSends + n;
+      sendSources[i] = src.getId();
+      sendTargets[i] = tgt.getId();
+      sendNames[i] = eventName;
+    }
+  }
+
+  /**
+   * store the event and the active (leaf) states of the finished step, and
+   * start the next one
+   */
+  public void endStep (int step, StateEvent event, State actives) {
+    steps[cur] = step;
+    events[cur] = event;
+
+    int base = cur * words;
+    for (int i=0; i<words; i++) {
+      configs[base + i] = 0L;
+    }
+    for (State s = actives; s != null; s = s.getNext()) {
+      int id = s.getId();
+      if (id < (words << 6)) {
+        configs[base + (id >> 6)] |= (1L << id);
+      }
+    }
+
+    nSteps++;
+    cur = (cur + 1) % slots;
+
+    // clear the slot for the next step
+    nTransitions[cur] = 0;
+    nSends[cur] = 0;
+    for (int i = cur * maxSends, n = i + maxSends; i < n; i++) {
+      sendNames[i] = null;
+    }
+    events[cur] = null;
+  }
+
+  public void clear () {
+    for (int i=0; i<slots; i++) {
+      nTransitions[i] = 0;
+      nSends[i] = 0;
+      events[i] = null;
+    }
+    for (int i=0; i<sendNames.length; i++) {
+      sendNames[i] = null;
+    }
+    cur = 0;
+    nSteps = 0;
+  }
+
+  //--- dump
+
+  static String getName (StateMachine machine, int id) {
+    State s = machine.getState(id);
+    return (s != null) ? s.getName() : ("#" + id);
+  }
+
+  /**
+   * print the recorded steps, oldest first, plus what the current step did
+   * so far (which is where the error happened if we are called from within
+   * a step)
+   */
+  public void printOn (PrintWriter pw, StateMachine machine) {
+    int n = (int) Math.min(nSteps, capacity);
+    pw.println("===================================== last " + n + " steps:");
+
+    for (int k = n; k > 0; k--) {
+      int slot = (cur - k + slots) % slots;
+      pw.print("step ");
+      pw.print(steps[slot]);
+      pw.print(" : ");
+      pw.println((events[slot] != null) ? events[slot].toString() : "<none>");
+      printActivity(pw, machine, slot);
+
+      pw.print("  active: ");
+      boolean first = true;
+      int base = slot * words;
+      for (int w=0; w<words; w++) {
+        for (long bits = configs[base + w]; bits != 0; bits &= bits - 1) {
+          if (!first) {
+            pw.print(", ");
+          }
+          first = false;
+          pw.print(getName(machine, (w << 6) + Long.numberOfTrailingZeros(bits)));
+        }
+      }
+      pw.println();
+    }
+
+    if (nTransitions[cur] > 0 || nSends[cur] > 0) {
+      pw.println("current step:");
+      printActivity(pw, machine, cur);
+    }
+    pw.flush();
+  }
+
+  void printActivity (PrintWriter pw, StateMachine machine, int slot) {
+    int nt = nTransitions[slot];
+    for (int j=0; j<Math.min(nt, maxTransitions); j++) {
+      int i = slot * maxTransitions + j;
+      pw.print("  fired: ");
+      pw.print(getName(machine, transitionSources[i]));
+      pw.print(" => ");
+      pw.println(getName(machine, transitionTargets[i]));
+    }
+    if (nt > maxTransitions) {
+      pw.println("  fired: .. " + (nt - maxTransitions) + " more");
+    }
+
+    int ns = nSends[slot];
+    for (int j=0; j<Math.min(ns, maxSends); j++) {
+      int i = slot * maxSends + j;
+      pw.print("  sent: ");
+      pw.print(sendNames[i]);
+      pw.print(" from ");
+      pw.print(getName(machine, sendSources[i]));
+      pw.print(" to ");
+      pw.println(getName(machine, sendTargets[i]));
+    }
+    if (ns > maxSends) {
+      pw.println("  sent: .. " + (ns - maxSends) + " more");
+    }
+  }
+}
@@ -0,0 +1,234 @@
+//
+// Copyright  (C) 2007 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+package gov.nasa.jpf.sc.runtime;
+
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import gov.nasa.jpf.sc.State;
+
+/**
+ * optional step loop instrumentation of EmbeddedStateMachine. Per state,
+ * we record how long it stays active (in steps and nanoseconds), and the
+ * latency of its entry and exit actions and of each of its trigger methods,
+ * all in fixed memory LogLinearHistograms.
+ *
+ * the profiler is updated from the step thread. Histograms are created when
+ * a state or trigger is first seen, after that recording doesn't allocate
+ *
+ * <2do> states that are still active at the end of a run have no dwell yet
+ */
+public class StepProfiler {
+
+  /**
+   * what we know about one state
+   */
+  public static class StateProfile {
+    final State state;
+
+    boolean active;
+    int enterStep;
+    long enterTime;
+
+    final LogLinearHistogram dwellSteps;
+    final LogLinearHistogram dwellTime;
+    final LogLinearHistogram entryTime;
+    final LogLinearHistogram exitTime;
+
+    // trigger method name -> latency
+    final HashMap<String,LogLinearHistogram> triggerTime = new HashMap<String,LogLinearHistogram>();
+
+    StateProfile (State state, int precision) {
+      this.state = state;
+      dwellSteps = new LogLinearHistogram(precision);
+      dwellTime = new LogLinearHistogram(precision);
+      entryTime = new LogLinearHistogram(precision);
+      exitTime = new LogLinearHistogram(precision);
+    }
+
+    public State getState () {
+      return state;
+    }
+
+    public LogLinearHistogram getDwellSteps () {
+      return dwellSteps;
+    }
+
+    public LogLinearHistogram getDwellTime () {
+      return dwellTime;
+    }
+
+    public LogLinearHistogram getEntryTime () {
+      return entryTime;
+    }
+
+    public LogLinearHistogram getExitTime () {
+      return exitTime;
+    }
+
+    public LogLinearHistogram getTriggerTime (String trigger) {
+      return triggerTime.get(trigger);
+    }
+
+    public Map<String,LogLinearHistogram> getTriggerTimes () {
+      return triggerTime;
+    }
+  }
+
+  final int precision;
+  StateProfile[] profiles = new StateProfile[64]; // indexed by State.getId()
+
+  public StepProfiler (int precision) {
+    this.precision = precision;
+  }
+
+  public StepProfiler () {
+    this(3);
+  }
+
+  StateProfile getOrCreateProfile (State state) {
+    int id = state.getId();
+    if (id >= profiles.length) {
+      StateProfile[] a = new StateProfile[Math.max(id+1, profiles.length*2)];
+      System.arraycopy(profiles, 0, a, 0, profiles.length);
+      profiles = a;
+    }
+
+    StateProfile p = profiles[id];
+    if (p == null) {
+      p = new StateProfile(state, precision);
+      profiles[id] = p;
+    }
+    return p;
+  }
+
+  //--- the EmbeddedStateMachine interface
+
+  /**
+   * 'now' is the time before the entry action was executed, 'nanos' how
+   * long it took
+   */
+  public void stateEntered (State state, int step, long now, long nanos) {
+    StateProfile p = getOrCreateProfile(state);
+    p.entryTime.record(nanos);
+
+    if (!p.active) { // entry actions can be executed for already active states
+      p.active = true;
+      p.enterStep = step;
+      p.enterTime = now;
+    }
+  }
+
+  public void stateExited (State state, int step, long now, long nanos) {
+    StateProfile p = getOrCreateProfile(state);
+    p.exitTime.record(nanos);
+
+    if (p.active) {
+      p.active = false;
+      p.dwellSteps.record(step - p.enterStep);
+      p.dwellTime.record(now - p.enterTime);
+    }
+  }
+
+  public void triggerExecuted (State state, String trigger, long nanos) {
+    StateProfile p = getOrCreateProfile(state);
+    LogLinearHistogram h = p.triggerTime.get(trigger);
+    if (h == null) {
+      h = new LogLinearHistogram(precision);
+      p.triggerTime.put(trigger, h);
+    }
+    h.record(nanos);
+  }
+
+  /**
+   * after a restore, the active flags have to be re-initialized from the
+   * machine (the restored dwell starts now)
+   */
+  public void clearActive () {
+    for (StateProfile p : profiles) {
+      if (p != null) {
+        p.active = false;
+      }
+    }
+  }
+
+  public void setActive (State state, int step, long now) {
+    StateProfile p = getOrCreateProfile(state);
+    p.active = true;
+    p.enterStep = step;
+    p.enterTime = now;
+  }
+
+  //--- queries
+
+  /**
+   * null if we haven't seen this state yet
+   */
+  public StateProfile getProfile (State state) {
+    int id = state.getId();
+    return (id < profiles.length) ? profiles[id] : null;
+  }
+
+  public void reset () {
+    for (int i=0; i<profiles.length; i++) {
+      profiles[i] = null;
+    }
+  }
+
+  /**
+   * one block per state, times in microseconds
+   */
+  public void printOn (PrintWriter pw) {
+    pw.println("state profile (times in usec):");
+
+    for (StateProfile p : profiles) {
+      if (p != null) {
+        pw.print("  ");
+        pw.println(p.state.getName());
+        printSteps(pw, "dwell [steps]", p.dwellSteps);
+        printTime(pw, "dwell", p.dwellTime);
+        printTime(pw, "entry", p.entryTime);
+        printTime(pw, "exit", p.exitTime);
+        for (Map.Entry<String,LogLinearHistogram> e : p.triggerTime.entrySet()) {
+          printTime(pw, e.getKey() + "()", e.getValue());
+        }
+      }
+    }
+    pw.flush();
+  }
+
+  static void printSteps (PrintWriter pw, String what, LogLinearHistogram h) {
+    if (h.getCount() > 0) {
+      pw.print("    ");
+      pw.print(what);
+      pw.print(" : ");
+      pw.println(h);
+    }
+  }
+
+  static void printTime (PrintWriter pw, String what, LogLinearHistogram h) {
+    if (h.getCount() > 0) {
+      pw.printf("    %s : n=%d p50=%.1f p90=%.1f p99=%.1f max=%.1f%n", what, h.getCount(),
+                h.getValueAtPercentile(50) / 1e3, h.getValueAtPercentile(90) / 1e3,
+                h.getValueAtPercentile(99) / 1e3, h.getMax() / 1e3);
+    }
+  }
+}
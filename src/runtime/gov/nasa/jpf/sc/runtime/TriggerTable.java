@@ -0,0 +1,104 @@
+//
+// Copyright  (C) 2007 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+
+package gov.nasa.jpf.sc.runtime;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import gov.nasa.jpf.sc.State;
+
+/**
+ * the trigger methods of a State class, keyed by name. We compute this once
+ * per class so that we don't have to scan all public methods (which
+ * includes everything from State and Object) for each executeTrigger().
+ * Overloaded triggers share the same entry, the executor still has to
+ * match the arguments
+ */
+class TriggerTable {
+
+  static final Method[] NO_TRIGGERS = new Method[0];
+
+  static HashMap<Class<?>,TriggerTable> tables = new HashMap<Class<?>,TriggerTable>();
+
+  HashMap<String,Method[]> triggers = new HashMap<String,Method[]>();
+  String[] names;
+
+  static synchronized TriggerTable getTable (Class<?> cls) {
+    TriggerTable t = tables.get(cls);
+    if (t == null) {
+      t = new TriggerTable(cls);
+      tables.put(cls, t);
+    }
+    return t;
+  }
+
+  TriggerTable (Class<?> cls) {
+    HashMap<String,ArrayList<Method>> map = new HashMap<String,ArrayList<Method>>();
+
+    for (Method m : cls.getMethods()) {
+      Class<?> declCls = m.getDeclaringClass();
+      if (declCls == State.class || declCls == Object.class) {
+        continue;
+      }
+      if (Modifier.isStatic(m.getModifiers())) {
+        continue;
+      }
+
+      String mName = m.getName();
+      if (mName.equals(State.ENTRY_ACTION_MTH) ||
+          mName.equals(State.EXIT_ACTION_MTH) ||
+          mName.equals(State.DO_ACTION_MTH)) {
+        continue;
+      }
+
+      m.setAccessible(true); // we don't want IllegalAccessExceptions later-on
+
+      ArrayList<Method> list = map.get(mName);
+      if (list == null) {
+        list = new ArrayList<Method>();
+        map.put(mName, list);
+      }
+      list.add(m);
+    }
+
+    for (String mName : map.keySet()) {
+      ArrayList<Method> list = map.get(mName);
+      triggers.put(mName, list.toArray(new Method[list.size()]));
+    }
+
+    names = map.keySet().toArray(new String[map.size()]);
+  }
+
+  Method[] getTriggers (String mName) {
+    Method[] a = triggers.get(mName);
+    return (a != null) ? a : NO_TRIGGERS;
+  }
+
+  boolean handles (String mName) {
+    return triggers.containsKey(mName);
+  }
+
+  String[] getNames() {
+    return names;
+  }
+}